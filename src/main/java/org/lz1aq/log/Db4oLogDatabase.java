@@ -0,0 +1,112 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import com.db4o.Db4oEmbedded;
+import com.db4o.ObjectContainer;
+import com.db4o.config.EmbeddedConfiguration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LogDatabase implementation which keeps the Qso objects inside a db4o file.
+ * 
+ * @author chavdar
+ */
+public class Db4oLogDatabase implements LogDatabase
+{
+  public static final String FILE_EXTENSION = "db4o";
+  
+  private final ObjectContainer db;
+  
+  public Db4oLogDatabase(String dbFile)
+  {
+    this(dbFile, false);
+  }
+  
+  
+  private Db4oLogDatabase(String dbFile, boolean isReadOnly)
+  {
+    EmbeddedConfiguration config = Db4oEmbedded.newConfiguration();
+    config.common().objectClass(Qso.class).cascadeOnUpdate(true);
+    config.file().readOnly(isReadOnly);
+    db = Db4oEmbedded.openFile(config, dbFile);
+  }
+  
+  
+  /**
+   * Reads the Qsos of a db4o log without changing the file.
+   * 
+   * @param dbFile - path to an existing db4o file
+   * @return the Qsos inside the file
+   */
+  public static List<Qso> readAll(String dbFile)
+  {
+    Db4oLogDatabase database = new Db4oLogDatabase(dbFile, true);
+    try
+    {
+      return new ArrayList<>(database.getAll());
+    }
+    finally
+    {
+      database.close();
+    }
+  }
+  
+  
+  @Override
+  public List<Qso> getAll()
+  {
+    return db.query(Qso.class);
+  }
+
+  
+  @Override
+  public void add(Qso qso)
+  {
+    db.store(qso);
+  }
+  
+
+  @Override
+  public void remove(Qso qso)
+  {
+    db.delete(qso);
+  }
+  
+
+  @Override
+  public void modify(Qso qso)
+  {
+    db.store(qso);
+  }
+  
+  @Override
+  public void commit()
+  {
+    db.commit();
+  }
+  
+  @Override
+  public void close()
+  {
+    db.close();
+  }
+}
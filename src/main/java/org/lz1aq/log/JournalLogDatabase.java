@@ -0,0 +1,719 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * LogDatabase implementation which keeps the log inside an append-only journal
+ * file.
+ * 
+ * Every commit() appends the changes done since the previous commit at the end
+ * of the file. Data that is already written is never touched, so a commit costs
+ * a single write of a few hundred bytes. Syncing the file to the disk is done 
+ * by a background timer (group commit) instead of on every commit.
+ * 
+ * On close() the journal is compacted - it is replaced by a snapshot which
+ * contains only the Qsos that are currently inside the log. A columnar
+ * copy of the log is written next to it (see QsoSnapshotFile). If it matches
+ * the journal on the next start the log is opened from it without reading 
+ * the journal.
+ * 
+ * The same copy is also written as a checkpoint after every checkpointInterval
+ * records. If the program is not closed properly (e.g. power failure) the log
+ * is opened from the last checkpoint and only the records written after it 
+ * are replayed, so the time needed for opening the log does not grow with the
+ * number of changes done since the start of the contest. How many records
+ * were replayed and how long the opening took is available through 
+ * getReplayedRecordCount() and getOpenTimeMillis().
+ * 
+ * File format:
+ *   header  - magic (int), format version (int), generation (long)
+ *   record  - payload length (int), CRC32 of the payload (int), payload
+ *   payload - record type (byte), Qso id (long), Qso (see QsoSerializer). 
+ *             Delete records do not contain the Qso.
+ */
+public class JournalLogDatabase implements LogDatabase
+{
+  public static final String FILE_EXTENSION = "lzlog";
+  
+  private static final Logger LOGGER = Logger.getLogger(JournalLogDatabase.class.getName());
+  
+  private static final int  MAGIC                   = 0x4C5A4A31; // "LZJ1"
+  private static final int  FORMAT_VERSION          = 1;
+  private static final int  HEADER_SIZE             = 16;
+  private static final int  RECORD_HEADER_SIZE      = 8;
+  private static final long GROUP_COMMIT_PERIOD_MS  = 500;
+  private static final int  DEFAULT_CHECKPOINT_INTERVAL = 1000; // Records between two checkpoints
+  
+  private static final byte RECORD_ADD    = 1;
+  private static final byte RECORD_MODIFY = 2;
+  private static final byte RECORD_DELETE = 3;
+  
+  private final Path                        file;
+  private final Path                        snapshotFile;
+  private final FileChannel                 channel;
+  private final LinkedHashMap<Long, Qso>    qsos;          // Qsos in the order they were added
+  private final IdentityHashMap<Qso, Long>  ids;           // The id under which each Qso is written in the journal
+  private final ByteArrayOutputStream       pending;       // Records waiting for commit()
+  private final DataOutputStream            pendingOut;
+  private final ByteArrayOutputStream       record;        // Used for building a single record
+  private final DataOutputStream            recordOut;
+  private final CRC32                       crc;
+  private final ScheduledExecutorService    syncTimer;     // Does the group commit (i.e. syncs the file to the disk)
+  private final AtomicBoolean               isSyncNeeded;
+  private boolean                           isClosed;
+  private long                              nextId = 1;
+  private long                              generation;    // Changes each time the journal is rewritten
+  private final int                         checkpointInterval;
+  private int                               uncheckpointedCount; // Records written after the last checkpoint
+  private int                               replayedCount;       // Records read from the journal when opening it
+  private final long                        openTimeMillis;
+  
+  
+  /**
+   * Opens the journal file. If the file does not exist a new empty one is 
+   * created.
+   * 
+   * @param journalFile - path to the journal file
+   * @throws IOException - if the file couldn't be read or is not a journal file
+   */
+  public JournalLogDatabase(String journalFile) throws IOException
+  {
+    this(journalFile, DEFAULT_CHECKPOINT_INTERVAL);
+  }
+  
+  
+  /**
+   * @param journalFile - path to the journal file
+   * @param checkpointInterval - number of records after which a checkpoint is
+   * written. This is also the maximum number of records that are replayed
+   * when the log is opened after a crash.
+   * @throws IOException - if the file couldn't be read or is not a journal file
+   */
+  JournalLogDatabase(String journalFile, int checkpointInterval) throws IOException
+  {
+    this(journalFile, checkpointInterval, false);
+  }
+  
+  
+  /**
+   * @param isReadOnly - true if the Qsos are only read: the file is not opened
+   * for writing and is not synced, truncated or compacted. The instance must
+   * not be used for anything else than getAll().
+   */
+  private JournalLogDatabase(String journalFile, int checkpointInterval, boolean isReadOnly) throws IOException
+  {
+    long startTime = System.nanoTime();
+    
+    file         = Paths.get(journalFile);
+    snapshotFile = Paths.get(journalFile + QsoSnapshotFile.FILE_SUFFIX);
+    qsos         = new LinkedHashMap<>();
+    ids          = new IdentityHashMap<>();
+    pending      = new ByteArrayOutputStream(1024);
+    pendingOut   = new DataOutputStream(pending);
+    record       = new ByteArrayOutputStream(256);
+    recordOut    = new DataOutputStream(record);
+    crc          = new CRC32();
+    isSyncNeeded = new AtomicBoolean(false);
+    this.checkpointInterval = checkpointInterval;
+    
+    if(isReadOnly)
+    {
+      long snapshotLength = loadSnapshot();
+      if(snapshotLength > 0)
+      {
+        replay(snapshotLength); // Damaged data at the end is not read
+      }
+      else
+      {
+        load();
+      }
+      channel = null;
+    }
+    else if(Files.exists(file) && Files.size(file) > 0)
+    {
+      long snapshotLength = loadSnapshot();
+      long validLength = snapshotLength > 0 ? replay(snapshotLength) : load();
+      channel = FileChannel.open(file, StandardOpenOption.WRITE);
+      if(validLength < channel.size())
+      {
+        // Most probably the program was killed while writing the last record
+        LOGGER.warning("Discarding " + (channel.size() - validLength) + " bytes of damaged data at the end of " + file);
+        channel.truncate(validLength);
+      }
+      channel.position(validLength);
+    }
+    else
+    {
+      generation = newGeneration();
+      channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      writeFully(channel, createHeader(generation));
+      channel.force(true);
+    }
+    uncheckpointedCount = replayedCount;
+    
+    openTimeMillis = (System.nanoTime() - startTime) / 1000000;
+    LOGGER.info("Opened " + file + " with " + qsos.size() + " Qsos in " + openTimeMillis + " ms (" + replayedCount + " records replayed)");
+    
+    if(isReadOnly)
+    {
+      syncTimer = null;
+      return;
+    }
+    
+    syncTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread thread = new Thread(r, "threadJournalSync");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    syncTimer.scheduleWithFixedDelay(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        sync();
+      }
+    }, GROUP_COMMIT_PERIOD_MS, GROUP_COMMIT_PERIOD_MS, TimeUnit.MILLISECONDS);
+  }
+  
+  
+  /**
+   * One-shot conversion of a db4o log into a journal log.
+   * 
+   * @param db4oFile - existing db4o log file
+   * @param journalFile - the journal file that will be created. Must not exist.
+   * @throws IOException - if the journal file exists or couldn't be written
+   */
+  public static void importDb4o(String db4oFile, String journalFile) throws IOException
+  {
+    if(Files.exists(Paths.get(journalFile)))
+    {
+      throw new IOException("File already exists: " + journalFile);
+    }
+    
+    Db4oLogDatabase source = new Db4oLogDatabase(db4oFile);
+    try
+    {
+      JournalLogDatabase destination = new JournalLogDatabase(journalFile);
+      try
+      {
+        for(Qso qso : source.getAll())
+        {
+          destination.add(qso);
+        }
+        destination.commit();
+      }
+      finally
+      {
+        destination.close();
+      }
+    }
+    finally
+    {
+      source.close();
+    }
+  }
+  
+  
+  /**
+   * Reads the Qsos of a journal without changing the file (e.g. for merging 
+   * a log which could be opened by another operating position at the same 
+   * time). 
+   * 
+   * @param journalFile - path to an existing journal file
+   * @return the Qsos inside the journal
+   * @throws IOException - if the file couldn't be read or is not a journal file
+   */
+  public static List<Qso> readAll(String journalFile) throws IOException
+  {
+    return new JournalLogDatabase(journalFile, DEFAULT_CHECKPOINT_INTERVAL, true).getAll();
+  }
+  
+  
+  @Override
+  public synchronized List<Qso> getAll()
+  {
+    return new ArrayList<>(qsos.values());
+  }
+
+  
+  @Override
+  public synchronized void add(Qso qso)
+  {
+    long id = nextId++;
+    ids.put(qso, id);
+    qsos.put(id, qso);
+    appendRecord(RECORD_ADD, id, qso);
+  }
+
+  
+  @Override
+  public synchronized void remove(Qso qso)
+  {
+    Long id = ids.remove(qso);
+    if(id == null)
+    {
+      LOGGER.warning("Trying to remove Qso which is not inside the journal: " + qso);
+      return;
+    }
+    qsos.remove(id);
+    appendRecord(RECORD_DELETE, id, null);
+  }
+
+  
+  @Override
+  public synchronized void modify(Qso qso)
+  {
+    Long id = ids.get(qso);
+    if(id == null)
+    {
+      LOGGER.warning("Trying to modify Qso which is not inside the journal: " + qso);
+      return;
+    }
+    appendRecord(RECORD_MODIFY, id, qso);
+  }
+
+  
+  /**
+   * Writes the pending records to the file. The file will be synced to the disk
+   * by the group commit timer within GROUP_COMMIT_PERIOD_MS.
+   */
+  @Override
+  public synchronized void commit()
+  {
+    if(pending.size() == 0)
+    {
+      return;
+    }
+    
+    try
+    {
+      writeFully(channel, ByteBuffer.wrap(pending.toByteArray()));
+      pending.reset();
+      isSyncNeeded.set(true);
+    }
+    catch(IOException ex)
+    {
+      throw new LogDatabaseException("Couldn't write to " + file, ex);
+    }
+    
+    if(uncheckpointedCount >= checkpointInterval)
+    {
+      checkpoint();
+    }
+  }
+  
+  
+  /**
+   * @return Number of journal records which were read when the log was opened.
+   * 0 after a clean close, at most the checkpoint interval after a crash 
+   * (unless the snapshot file was lost).
+   */
+  public int getReplayedRecordCount()
+  {
+    return replayedCount;
+  }
+  
+  
+  /**
+   * @return Time in milliseconds it took to open the log
+   */
+  public long getOpenTimeMillis()
+  {
+    return openTimeMillis;
+  }
+
+  
+  /**
+   * Commits any pending data and replaces the journal with a snapshot of the 
+   * log. Calling it again does nothing.
+   */
+  @Override
+  public synchronized void close()
+  {
+    if(isClosed)
+    {
+      return;
+    }
+    isClosed = true;
+    
+    syncTimer.shutdown();
+    try
+    {
+      syncTimer.awaitTermination(GROUP_COMMIT_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+    
+    try
+    {
+      commit();
+      channel.force(true);
+      channel.close();
+      generation = compact();
+      writeSnapshot(Files.size(file));
+    }
+    catch(IOException ex)
+    {
+      throw new LogDatabaseException("Couldn't close " + file, ex);
+    }
+  }
+  
+  
+  /**
+   * Opens the log from the snapshot file if it matches the journal.
+   * 
+   * @return the length of the journal contained in the snapshot or 0 if there
+   * is no valid snapshot and the whole journal must be read
+   * @throws IOException 
+   */
+  private long loadSnapshot() throws IOException
+  {
+    long journalGeneration;
+    try(DataInputStream in = new DataInputStream(Files.newInputStream(file)))
+    {
+      if(Files.size(file) < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+      {
+        return 0; // load() will report the problem
+      }
+      journalGeneration = in.readLong();
+    }
+    
+    QsoSnapshotFile snapshot;
+    try
+    {
+      snapshot = QsoSnapshotFile.open(snapshotFile, journalGeneration, Files.size(file));
+    }
+    catch(IOException ex)
+    {
+      LOGGER.log(Level.WARNING, "Couldn't open " + snapshotFile, ex);
+      return 0;
+    }
+    if(snapshot == null)
+    {
+      return 0;
+    }
+    
+    generation = journalGeneration;
+    qsos.putAll(snapshot.readQsos());
+    for(Map.Entry<Long, Qso> entry : qsos.entrySet())
+    {
+      ids.put(entry.getValue(), entry.getKey());
+      nextId = Math.max(nextId, entry.getKey() + 1);
+    }
+    return snapshot.getJournalLength();
+  }
+  
+  
+  /**
+   * Writes the current Qsos into the snapshot file, so that only the records
+   * written after this point need to be replayed if the program crashes.
+   * The journal is synced first, as the snapshot must not contain records 
+   * which could be lost.
+   */
+  private void checkpoint()
+  {
+    uncheckpointedCount = 0;
+    try
+    {
+      channel.force(false);
+      isSyncNeeded.set(false);
+      writeSnapshot(channel.position());
+    }
+    catch(IOException ex)
+    {
+      LOGGER.log(Level.SEVERE, "Couldn't sync " + file, ex);
+    }
+  }
+  
+  
+  /**
+   * Writes the snapshot file for the current journal generation. Failing to 
+   * do so is not fatal - the journal will be read on the next start.
+   */
+  private void writeSnapshot(long journalLength)
+  {
+    try
+    {
+      QsoSnapshotFile.write(snapshotFile, generation, journalLength, qsos);
+    }
+    catch(IOException ex)
+    {
+      LOGGER.log(Level.WARNING, "Couldn't write " + snapshotFile, ex);
+    }
+  }
+  
+  
+  /**
+   * Reads the journal file and applies all the records inside it.
+   * 
+   * @return the length of the file which contains valid data
+   * @throws IOException 
+   */
+  private long load() throws IOException
+  {
+    try(DataInputStream in = new DataInputStream(Files.newInputStream(file)))
+    {
+      if(Files.size(file) < HEADER_SIZE || in.readInt() != MAGIC)
+      {
+        throw new IOException("Not a journal log file: " + file);
+      }
+      int version = in.readInt();
+      if(version != FORMAT_VERSION)
+      {
+        throw new IOException("Unsupported journal format version: " + version);
+      }
+      generation = in.readLong();
+    }
+    
+    return replay(HEADER_SIZE);
+  }
+  
+  
+  /**
+   * Applies the records which are inside the journal after the specified 
+   * position.
+   * 
+   * @param from - position of the first record
+   * @return the length of the file which contains valid data
+   * @throws IOException 
+   */
+  private long replay(long from) throws IOException
+  {
+    ByteBuffer buf;
+    try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      buf = ByteBuffer.allocate((int) (in.size() - from));
+      in.position(from);
+      while(buf.hasRemaining() && in.read(buf) >= 0)
+      {
+        // Read until the end of the file
+      }
+    }
+    buf.flip();
+    
+    while(buf.remaining() >= RECORD_HEADER_SIZE)
+    {
+      int start    = buf.position();
+      int length   = buf.getInt();
+      int checksum = buf.getInt();
+      
+      if(length <= 0 || length > buf.remaining())
+      {
+        buf.position(start);
+        break;
+      }
+      
+      crc.reset();
+      crc.update(buf.array(), buf.position(), length);
+      if((int) crc.getValue() != checksum)
+      {
+        buf.position(start);
+        break;
+      }
+      
+      applyRecord(new DataInputStream(new ByteArrayInputStream(buf.array(), buf.position(), length)));
+      buf.position(buf.position() + length);
+      replayedCount++;
+    }
+    
+    return from + buf.position();
+  }
+  
+  
+  private void applyRecord(DataInputStream in) throws IOException
+  {
+    byte type = in.readByte();
+    long id   = in.readLong();
+    nextId    = Math.max(nextId, id + 1);
+    
+    switch(type)
+    {
+      case RECORD_ADD:
+      case RECORD_MODIFY:
+        Qso qso = QsoSerializer.read(in);
+        Qso old = qsos.put(id, qso); // Modified Qso keeps its place in the log
+        if(old != null)
+        {
+          ids.remove(old);
+        }
+        ids.put(qso, id);
+        break;
+        
+      case RECORD_DELETE:
+        Qso removed = qsos.remove(id);
+        if(removed != null)
+        {
+          ids.remove(removed);
+        }
+        break;
+        
+      default:
+        throw new IOException("Unknown record type " + type + " inside " + file);
+    }
+  }
+  
+  
+  /**
+   * Adds a record to the list of records waiting for commit()
+   */
+  private void appendRecord(byte type, long id, Qso qso)
+  {
+    try
+    {
+      record.reset();
+      recordOut.writeByte(type);
+      recordOut.writeLong(id);
+      if(qso != null)
+      {
+        QsoSerializer.write(recordOut, qso);
+      }
+      recordOut.flush();
+      
+      byte[] payload = record.toByteArray();
+      crc.reset();
+      crc.update(payload, 0, payload.length);
+      
+      pendingOut.writeInt(payload.length);
+      pendingOut.writeInt((int) crc.getValue());
+      pendingOut.write(payload);
+      uncheckpointedCount++;
+    }
+    catch(IOException ex)
+    {
+      throw new LogDatabaseException("Couldn't serialize Qso: " + qso, ex); // Should not happen when writing to memory
+    }
+  }
+  
+  
+  /**
+   * Called by the group commit timer
+   */
+  private void sync()
+  {
+    if(isSyncNeeded.getAndSet(false))
+    {
+      try
+      {
+        channel.force(false);
+      }
+      catch(IOException ex)
+      {
+        isSyncNeeded.set(true);
+        LOGGER.log(Level.SEVERE, "Couldn't sync " + file, ex);
+      }
+    }
+  }
+  
+  
+  /**
+   * Replaces the journal with a new one containing only the current Qsos
+   * 
+   * @return the generation of the new journal
+   */
+  private long compact() throws IOException
+  {
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    long newGeneration = newGeneration();
+    
+    try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      writeFully(out, createHeader(newGeneration));
+      for(Map.Entry<Long, Qso> entry : qsos.entrySet())
+      {
+        appendRecord(RECORD_ADD, entry.getKey(), entry.getValue());
+      }
+      writeFully(out, ByteBuffer.wrap(pending.toByteArray()));
+      pending.reset();
+      out.force(true);
+    }
+    
+    try
+    {
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch(AtomicMoveNotSupportedException ex)
+    {
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    return newGeneration;
+  }
+  
+  
+  private static ByteBuffer createHeader(long generation)
+  {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC);
+    header.putInt(FORMAT_VERSION);
+    header.putLong(generation);
+    header.flip();
+    return header;
+  }
+  
+  
+  private static long newGeneration()
+  {
+    return new Random().nextLong();
+  }
+  
+  
+  private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException
+  {
+    while(buf.hasRemaining())
+    {
+      ch.write(buf);
+    }
+  }
+}
@@ -19,7 +19,12 @@
 // ***************************************************************************
 package org.lz1aq.log;
 
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import org.lz1aq.radio.RadioModes;
 import org.lz1aq.utils.Misc;
@@ -31,15 +36,25 @@ import org.lz1aq.utils.Misc;
  * number of parameters of the first Qso object in the log. - The number of rows
  * is equal to the number of Qso objects contained in the Log.
  *
+ * Changes to the Log are synchronized. Reading is done through an immutable
+ * snapshot (see LogSnapshot) which is replaced on every change, so readers
+ * never wait for a change (and the database I/O behind it) to complete.
+ *
  */
 public class Log
 {
 
-    private final LogDatabase db;         // Interface to a db4o database, stand-alone or client/server. 
-    private final ArrayList<Qso> qsoList; // Log is also mirrored in RAM
+    private final LogDatabase db;         // Interface to the log database (db4o or journal file)
+    private final WriteBehindLogDatabase writeBehindDb; // Not null when database writes are done in a separate thread
+    private volatile LogSnapshot snapshot; // Log is also mirrored in RAM
     private final Qso templateQso;
+    private final ConcurrentHashMap<String, Qso> latestQsoIndex; // Latest Qso (by time, see isLater()) per callsign/mode - used for fast dupe checks
+    private HashMap<String, Integer> idIndex; // Qso id -> row - used by indexOf(). Null until it is needed and after a batch.
 
     private final CopyOnWriteArrayList<LogListener> logListeners;
+    private boolean isInBatch; // True while runBatch() is executing the batch
+    private String stationId;  // This operating position - stored in the version of the changed Qsos
+    private long clock = -1;   // Lamport clock for the Qso versions, -1 until it is read from the Qsos
 
     /**
      *
@@ -49,10 +64,43 @@ public class Log
      */
     public Log(LogDatabase db, Qso template)
     {
-        this.db = db;
-        qsoList = new ArrayList<>(db.getAll()); // Load Qsos from the database
+        this(db, template, false);
+    }
+
+    /**
+     * In write-behind mode the Log is updated immediately, but the writing to
+     * the database is done by a separate thread. This way the callers (usually
+     * the GUI) are not blocked by the disk I/O. Call close() to make sure that
+     * all changes are written.
+     *
+     * @param db interface to an already opened database
+     * @param template
+     * @param isWriteBehind true if the database writes should be done in the
+     * background
+     */
+    public Log(LogDatabase db, Qso template, boolean isWriteBehind)
+    {
+        if (isWriteBehind)
+        {
+            writeBehindDb = new WriteBehindLogDatabase(db);
+            this.db = writeBehindDb;
+        } else
+        {
+            writeBehindDb = null;
+            this.db = db;
+        }
+        
+        Qso[] qsos = this.db.getAll().toArray(new Qso[0]); // Load Qsos from the database
+        snapshot = new LogSnapshot(qsos, 0);
+
+        latestQsoIndex = new ConcurrentHashMap<>();
+        for (Qso qso : qsos)
+        {
+            indexIfLatest(qso);
+        }
 
         this.templateQso = template;
+        this.stationId = "";
 
         logListeners = new CopyOnWriteArrayList<>();
     }
@@ -68,6 +116,23 @@ public class Log
         this.logListeners.remove(listener);
     }
 
+    /**
+     * Sets the name of this operating position. Every Qso changed by this Log
+     * gets it together with a new version number (see Qso.getVersion()) so
+     * that logs from different positions can be merged (see LogMerger).
+     *
+     * @param stationId - unique name of the operating position
+     */
+    public synchronized void setStationId(String stationId)
+    {
+        this.stationId = stationId;
+    }
+
+    public synchronized String getStationId()
+    {
+        return stationId;
+    }
+
     /**
      * Inserts a QSO object inside the log.
      *
@@ -79,13 +144,145 @@ public class Log
      */
     public synchronized void add(Qso qso)
     {
+        checkNotInBatch();
+
+        stamp(qso);
         db.add(qso);      // Add the qso to the database
-        qsoList.add(qso); // Add the qso to RAM (i.e local list)
+        snapshot = snapshot.withAdded(qso); // Add the qso to RAM (i.e local list)
+        indexIfLatest(qso); // Qsos from other operating positions could be older
+        if (idIndex != null)
+        {
+            idIndex.put(qso.getId(), snapshot.getSize() - 1);
+        }
         db.commit();
 
+        int row = snapshot.getSize() - 1;
         for (LogListener listener : logListeners)
         {
-            listener.eventQsoAdded(qso);
+            listener.eventQsoAdded(qso, row);
+        }
+    }
+
+    /**
+     * Inserts many QSO objects at the end of the log (e.g. when importing a
+     * log file).
+     *
+     * All Qsos are written with a single database commit and the listeners get
+     * a single eventBulkChange() instead of one eventQsoAdded() per Qso.
+     *
+     * @param qsos - Newly created Qso objects (same rules as for add())
+     */
+    public synchronized void addAll(Collection<Qso> qsos)
+    {
+        checkNotInBatch();
+
+        if (qsos.isEmpty())
+        {
+            return;
+        }
+
+        for (Qso qso : qsos)
+        {
+            stamp(qso);
+            db.add(qso);
+
+            indexIfLatest(qso); // Imported Qsos can be older than the ones already in the log
+        }
+        int row = snapshot.getSize();
+        snapshot = snapshot.withAddedAll(qsos);
+        if (idIndex != null)
+        {
+            for (Qso qso : qsos)
+            {
+                idIndex.put(qso.getId(), row++);
+            }
+        }
+        db.commit();
+
+        for (LogListener listener : logListeners)
+        {
+            listener.eventBulkChange();
+        }
+    }
+
+    /**
+     * Applies many changes to the log at once (e.g. deleting a range of Qsos
+     * or correcting a callsign in many Qsos).
+     *
+     * Added and removed Qsos become visible together when the batch is done
+     * (edits are written into the Qso objects right away). The database is
+     * committed once and the listeners get a single eventBulkChange(). If the
+     * batch throws an exception the log stays as it was.
+     *
+     * The Log must not be changed directly from inside the batch.
+     *
+     * @param batch - the changes to be done
+     */
+    public synchronized void runBatch(LogBatch batch)
+    {
+        runBatch(batch, true);
+    }
+
+    /**
+     * @param isStamping - false if the batch sets the versions of the Qsos by
+     * itself (used when merging logs)
+     */
+    synchronized void runBatch(LogBatch batch, boolean isStamping)
+    {
+        checkNotInBatch();
+
+        isInBatch = true;
+        try
+        {
+            batch.begin(snapshot);
+            try
+            {
+                batch.run();
+            }
+            catch (RuntimeException ex)
+            {
+                batch.rollback();
+                throw ex;
+            }
+        }
+        finally
+        {
+            isInBatch = false;
+        }
+
+        if (!batch.hasChanges())
+        {
+            return;
+        }
+
+        for (Qso qso : batch.getRemoved())
+        {
+            db.remove(qso);
+        }
+        for (Qso qso : batch.getModified())
+        {
+            if (isStamping)
+            {
+                stamp(qso);
+            }
+            db.modify(qso);
+        }
+        for (Qso qso : batch.getAdded())
+        {
+            if (isStamping)
+            {
+                stamp(qso);
+            }
+            db.add(qso);
+        }
+        snapshot = snapshot.withReplaced(batch.getQsos());
+        updateLatestQsoIndex(batch.getChangedDupeKeys());
+        idIndex = null; // Rows could be moved - built again when needed
+        db.commit();
+
+        for (LogListener listener : logListeners)
+        {
+            listener.eventBulkChange();
         }
     }
 
@@ -96,29 +293,76 @@ public class Log
      */
     public synchronized void remove(int index)
     {
+        checkNotInBatch();
+
         // Do nothing if out of range
-        if (index >= qsoList.size() || index < 0)
+        if (index >= snapshot.getSize() || index < 0)
         {
             return;
         }
 
-        Qso qso = qsoList.get(index);
+        Qso qso = snapshot.get(index);
 
-        db.remove(qsoList.get(index)); // Remove the qso from the database
-        qsoList.remove(index); // Remove the qso from the RAM (i.e local list)   
+        db.remove(qso); // Remove the qso from the database
+        snapshot = snapshot.withRemoved(index); // Remove the qso from the RAM (i.e local list)   
+        if (latestQsoIndex.get(qso.getDupeKey()) == qso)
+        {
+            updateLatestQsoIndex(qso.getDupeKey());
+        }
+        if (idIndex != null)
+        {
+            idIndex.remove(qso.getId());
+            for (Map.Entry<String, Integer> entry : idIndex.entrySet())
+            {
+                if (entry.getValue() > index)
+                {
+                    entry.setValue(entry.getValue() - 1);
+                }
+            }
+        }
         db.commit();
 
         for (LogListener listener : logListeners)
         {
-            listener.eventQsoRemoved(qso);
+            listener.eventQsoRemoved(qso, index);
         }
     }
 
+    /**
+     * Closes the database. In write-behind mode this blocks until all changes
+     * are written to the database.
+     */
     public synchronized void close()
     {
         db.close();
     }
 
+    /**
+     * @return Number of changes that are not yet written to the database.
+     * Always 0 if not in write-behind mode.
+     */
+    public int getPendingWriteCount()
+    {
+        if (writeBehindDb == null)
+        {
+            return 0;
+        }
+        return writeBehindDb.getBacklog();
+    }
+
+    /**
+     * @return Description of the last failed database write or null if there
+     * was none. Always null if not in write-behind mode.
+     */
+    public String getLastWriteError()
+    {
+        if (writeBehindDb == null)
+        {
+            return null;
+        }
+        return writeBehindDb.getLastError();
+    }
+
     /**
      * Method for accessing QSOs inside the log.
      *
@@ -126,20 +370,49 @@ public class Log
      * log)
      * @return Reference to the QSO object
      */
-    public synchronized Qso get(int index)
+    public Qso get(int index)
     {
-        if (index >= qsoList.size())
-        {
-            return null;
-        }
-
-        return qsoList.get(index);
+        return snapshot.get(index);
     }
 
   
-    public synchronized int getSize()
+    public int getSize()
+    {
+        return snapshot.getSize();
+    }
+
+    /**
+     * Use this when going through several Qsos: the returned snapshot will not
+     * change even if the Log is modified in the meantime.
+     *
+     * @return The current content of the log
+     */
+    public LogSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * The id index is built on the first call. The ids of the Qsos from the
+     * snapshot file are known without reading their parameters (see 
+     * QsoSnapshotFile).
+     *
+     * @param qsoId - see Qso.getId()
+     * @return Index of the Qso with this id or -1 if not inside the log
+     */
+    public synchronized int indexOf(String qsoId)
     {
-        return qsoList.size();
+        if (idIndex == null)
+        {
+            idIndex = new HashMap<>(snapshot.getSize() * 2);
+            for (int i = 0; i < snapshot.getSize(); i++)
+            {
+                idIndex.put(snapshot.get(i).getId(), i);
+            }
+        }
+
+        Integer row = idIndex.get(qsoId);
+        return row == null ? -1 : row;
     }
 
     /**
@@ -154,7 +427,7 @@ public class Log
      * @return The number of columns inside the log. If log is empty the return
      * value will be 0.
      */
-    public synchronized int getColumnCount()
+    public int getColumnCount()
     {
         return templateQso.getParamsCount();
     }
@@ -166,7 +439,7 @@ public class Log
      * @param col Column index of which we would like to get the name
      * @return Name of the column (i.e. name of the Qso param)
      */
-    public synchronized String getColumnName(int col)
+    public String getColumnName(int col)
     {
         return templateQso.getParamName(col);
     }
@@ -180,14 +453,14 @@ public class Log
      * @param col Column index (i.e. index of Qso param)
      * @return
      */
-    public synchronized String getValueAt(int row, int col)
+    public String getValueAt(int row, int col)
     {
-        if (row >= qsoList.size())
+        Qso qso = snapshot.get(row);
+        if (qso == null)
         {
             return "";
         }
 
-        Qso qso = qsoList.get(row);
         return qso.getParamValue(col);
     }
 
@@ -203,46 +476,90 @@ public class Log
      */
     public synchronized void setValueAt(String value, int row, int col)
     {
-        if (row >= qsoList.size())
+        checkNotInBatch();
+
+        Qso qso = snapshot.get(row);
+        if (qso == null)
         {
             return;
         }
 
-        Qso qso = qsoList.get(row);
+        String oldDupeKey = qso.getDupeKey();
+        String oldValue = qso.getParamValue(col);
         qso.setParamValue(col, value); // Update 
         
+        // Editing the callsign or the mode moves the Qso to another callsign/mode entry
+        if (!oldDupeKey.equals(qso.getDupeKey()))
+        {
+            updateLatestQsoIndex(oldDupeKey);
+            updateLatestQsoIndex(qso.getDupeKey());
+        }
+        
+        stamp(qso);
+        snapshot = snapshot.withModified();
         db.modify(qso); // Update the database
         db.commit();
 
         for (LogListener listener : logListeners)
         {
-            listener.eventQsoModified(qso);
+            listener.eventQsoModified(qso, row, col, oldValue);
         }
     }
 
-    public synchronized int getQsoCount()
+    public int getQsoCount()
     {
-        return qsoList.size();
+        return snapshot.getSize();
+    }
+
+    /**
+     * @return The count of Qsos made with this log, i.e. without the Qsos 
+     * imported from log files. Used for the serial number of the next Qso.
+     */
+    public int getOwnQsoCount()
+    {
+        LogSnapshot current = snapshot;
+
+        int count = 0;
+        for (int i = 0; i < current.getSize(); i++)
+        {
+            if (!current.get(i).isImported())
+            {
+                count++;
+            }
+        }
+        return count;
     }
 
   
     /**
-     * Will return the first word in Rcv from the last QSO. If there are no QSOs
-     * in the log it will return "000".
+     * Will return the first three characters of Rcv from the last QSO made
+     * with this log (imported QSOs are skipped). If there are no such QSOs it 
+     * will return "000".
      *
      * @return
      */
-    public synchronized String getFirstPartOfLastRcv()
+    public String getFirstPartOfLastRcv()
     {
-        // If the log is empty send "000"
-        if (getSize() == 0)
+        LogSnapshot current = snapshot;
+
+        for (int i = current.getSize() - 1; i >= 0; i--)
         {
-            return "000";
-        }
+            Qso qso = current.get(i);
+            if (qso.isImported())
+            {
+                continue;
+            }
 
-        Qso qso = qsoList.get(qsoList.size() - 1);
+            String rcv = qso.getRcv().trim();
+            if (rcv.isEmpty())
+            {
+                return "000";
+            }
+            return rcv.substring(0, Math.min(3, rcv.length()));
+        }
 
-        return qso.getRcv().substring(0, 3);
+        // If the log is empty send "000"
+        return "000";
     }
 
     
@@ -268,19 +585,9 @@ public class Log
      * @param mode
      * @return Qso object
      */
-    public synchronized Qso getLatestQso(String callsign, RadioModes mode)
+    public Qso getLatestQso(String callsign, RadioModes mode)
     {
-        //find last Qso with this station
-        for (int i = qsoList.size() - 1; i >= 0; i--)
-        {
-            if (callsign.equalsIgnoreCase(qsoList.get(i).getHisCallsign()) &&
-                qsoList.get(i).getMode() == mode)
-            {
-                return qsoList.get(i);
-            }
-        }
-
-        return null;
+        return latestQsoIndex.get(Qso.toDupeKey(callsign, mode));
     }
     
 
@@ -308,4 +615,129 @@ public class Log
 
         return secondsLeft > 0;
     }
+
+    
+    /**
+     * Searches the log for the latest Qso with the specified callsign/mode and
+     * stores it inside latestQsoIndex. Needed only when the Qso that was
+     * indexed is removed or its callsign/mode is edited.
+     *
+     * @param dupeKey - see Qso.toDupeKey()
+     */
+    private void updateLatestQsoIndex(String dupeKey)
+    {
+        Set<String> dupeKeys = new HashSet<>();
+        dupeKeys.add(dupeKey);
+        updateLatestQsoIndex(dupeKeys);
+    }
+
+    /**
+     * Same as updateLatestQsoIndex(String) but for many callsign/mode
+     * combinations with a single pass through the log. The whole log is 
+     * searched as imported or merged Qsos could be older than the ones
+     * before them.
+     */
+    private void updateLatestQsoIndex(Set<String> dupeKeys)
+    {
+        HashMap<String, Qso> latest = new HashMap<>();
+
+        for (int i = 0; i < snapshot.getSize(); i++)
+        {
+            Qso qso = snapshot.get(i);
+            String dupeKey = qso.getDupeKey();
+            if (dupeKeys.contains(dupeKey) && isLater(qso, latest.get(dupeKey)))
+            {
+                latest.put(dupeKey, qso);
+            }
+        }
+
+        for (String dupeKey : dupeKeys)
+        {
+            Qso qso = latest.get(dupeKey);
+            if (qso == null)
+            {
+                latestQsoIndex.remove(dupeKey);
+            }
+            else
+            {
+                latestQsoIndex.put(dupeKey, qso);
+            }
+        }
+    }
+
+    /**
+     * Puts the Qso inside latestQsoIndex if it is not older than the one which
+     * is there.
+     */
+    private void indexIfLatest(Qso qso)
+    {
+        if (isLater(qso, latestQsoIndex.get(qso.getDupeKey())))
+        {
+            latestQsoIndex.put(qso.getDupeKey(), qso);
+        }
+    }
+
+    /**
+     * The rule for the latest Qso of a callsign/mode: the one with the latest
+     * time. From Qsos with the same time the one further down the log wins 
+     * (the callers go through the log from top to bottom).
+     *
+     * @param qso - Qso further down the log
+     * @param latest - the latest Qso found so far (can be null)
+     */
+    private static boolean isLater(Qso qso, Qso latest)
+    {
+        return latest == null || latest.getEpochSeconds() <= qso.getEpochSeconds();
+    }
+
+    /**
+     * Moves the Lamport clock past a version seen in another log, so that our
+     * next changes win over it.
+     */
+    synchronized void updateClock(long version)
+    {
+        readClock();
+        clock = Math.max(clock, version);
+    }
+
+    /**
+     * Gives the Qso a new version from this operating position
+     */
+    private void stamp(Qso qso)
+    {
+        readClock();
+        qso.setVersion(++clock, stationId);
+    }
+
+    /**
+     * The clock continues from the highest version inside the log. It is read
+     * on the first change. The versions of the Qsos from the snapshot file are
+     * known without reading their parameters (see QsoSnapshotFile).
+     */
+    private void readClock()
+    {
+        if (clock >= 0)
+        {
+            return;
+        }
+
+        clock = 0;
+        LogSnapshot current = snapshot;
+        for (int i = 0; i < current.getSize(); i++)
+        {
+            clock = Math.max(clock, current.get(i).getVersion());
+        }
+    }
+
+    /**
+     * Changes from inside a batch must go through the LogBatch, otherwise they
+     * would be lost when the batch is applied.
+     */
+    private void checkNotInBatch()
+    {
+        if (isInBatch)
+        {
+            throw new IllegalStateException("The Log must be changed through the LogBatch while running a batch");
+        }
+    }
 }
@@ -0,0 +1,250 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A group of changes to the Log which are applied together by Log.runBatch().
+ *
+ * Override run() and do the changes through the methods of this class (not
+ * through the Log). Qsos are added and removed in a copy of the Log content
+ * which becomes visible only when run() returns. Then the database is committed once and the
+ * listeners get a single eventBulkChange(). If run() throws, nothing is changed.
+ *
+ * Example:
+ * <pre>
+ * log.runBatch(new LogBatch()
+ * {
+ *   protected void run()
+ *   {
+ *     for(int i = getSize()-1; i >= 10; i--)
+ *       remove(i);
+ *   }
+ * });
+ * </pre>
+ */
+public abstract class LogBatch
+{
+
+    private ArrayList<Qso> qsos;                // Working copy of the Log
+    private final ArrayList<Qso> added = new ArrayList<>();
+    private final ArrayList<Qso> removed = new ArrayList<>();
+    private final ArrayList<Edit> edits = new ArrayList<>(); // Needed for the rollback
+    private final HashSet<String> changedDupeKeys = new HashSet<>();
+
+    /**
+     * The changes to the Log. Called once by Log.runBatch().
+     */
+    protected abstract void run();
+
+    /**
+     * @param index - Qso index inside the log
+     * @return Reference to the QSO object or null if index is out of range
+     */
+    public final Qso get(int index)
+    {
+        if (index < 0 || index >= qsos.size())
+        {
+            return null;
+        }
+        return qsos.get(index);
+    }
+
+    public final int getSize()
+    {
+        return qsos.size();
+    }
+
+    /**
+     * Same as Log.add()
+     */
+    public final void add(Qso qso)
+    {
+        qsos.add(qso);
+        added.add(qso);
+        changedDupeKeys.add(qso.getDupeKey());
+    }
+
+    /**
+     * Same as add() but puts the Qso at the specified position
+     *
+     * @param index - 0 to getSize()
+     */
+    public final void add(int index, Qso qso)
+    {
+        qsos.add(index, qso);
+        added.add(qso);
+        changedDupeKeys.add(qso.getDupeKey());
+    }
+
+    /**
+     * Same as Log.remove()
+     */
+    public final void remove(int index)
+    {
+        if (index >= qsos.size() || index < 0)
+        {
+            return;
+        }
+
+        Qso qso = qsos.remove(index);
+        if (!added.remove(qso))
+        {
+            removed.add(qso); // Was inside the database before the batch
+        }
+        changedDupeKeys.add(qso.getDupeKey());
+    }
+
+    /**
+     * Same as Log.setValueAt()
+     */
+    public final void setValueAt(String value, int row, int col)
+    {
+        Qso qso = get(row);
+        if (qso == null)
+        {
+            return;
+        }
+
+        changedDupeKeys.add(qso.getDupeKey());
+        edits.add(new Edit(qso, col, qso.getParamValue(col)));
+        qso.setParamValue(col, value);
+        changedDupeKeys.add(qso.getDupeKey()); // The Qso could have moved to another callsign/mode
+    }
+
+    /**
+     * Sets the version of a Qso (used when merging logs). Restored on 
+     * rollback like the edited values.
+     */
+    final void setVersion(int row, long version, String station)
+    {
+        Qso qso = get(row);
+        if (qso == null)
+        {
+            return;
+        }
+
+        edits.add(new Edit(qso, Edit.VERSION_COL, null));
+        qso.setVersion(version, station);
+    }
+
+    /**
+     * Prepares the batch to work on the content of the snapshot
+     */
+    void begin(LogSnapshot snapshot)
+    {
+        qsos = new ArrayList<>(Arrays.asList(snapshot.toArray()));
+        added.clear();
+        removed.clear();
+        edits.clear();
+        changedDupeKeys.clear();
+    }
+
+    /**
+     * Restores the values and the versions of the edited Qsos
+     */
+    void rollback()
+    {
+        for (int i = edits.size() - 1; i >= 0; i--)
+        {
+            Edit edit = edits.get(i);
+            if (edit.col != Edit.VERSION_COL)
+            {
+                edit.qso.setParamValue(edit.col, edit.oldValue);
+            }
+            edit.qso.setVersion(edit.oldVersion, edit.oldVersionStation);
+        }
+    }
+
+    boolean hasChanges()
+    {
+        return !added.isEmpty() || !removed.isEmpty() || !edits.isEmpty();
+    }
+
+    Qso[] getQsos()
+    {
+        return qsos.toArray(new Qso[qsos.size()]);
+    }
+
+    /**
+     * @return Qsos added during the batch (without the ones which were removed
+     * afterwards)
+     */
+    List<Qso> getAdded()
+    {
+        return added;
+    }
+
+    /**
+     * @return Qsos which were inside the Log before the batch and were removed
+     */
+    List<Qso> getRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * @return Qsos which were inside the Log before the batch and were edited
+     */
+    HashSet<Qso> getModified()
+    {
+        HashSet<Qso> modified = new HashSet<>();
+        for (Edit edit : edits)
+        {
+            modified.add(edit.qso);
+        }
+        modified.removeAll(added);   // Written by db.add()
+        modified.removeAll(removed);
+        return modified;
+    }
+
+    /**
+     * @return All callsign/mode combinations whose latest Qso could have changed
+     */
+    HashSet<String> getChangedDupeKeys()
+    {
+        return changedDupeKeys;
+    }
+
+    private static class Edit
+    {
+
+        static final int VERSION_COL = -1; // Only the version was changed
+
+        final Qso qso;
+        final int col;
+        final String oldValue;
+        final long oldVersion;
+        final String oldVersionStation;
+
+        Edit(Qso qso, int col, String oldValue)
+        {
+            this.qso = qso;
+            this.col = col;
+            this.oldValue = oldValue;
+            this.oldVersion = qso.getVersion();
+            this.oldVersionStation = qso.getVersionStation();
+        }
+    }
+}
@@ -19,57 +19,49 @@
 // ***************************************************************************
 package org.lz1aq.log;
 
-import com.db4o.Db4oEmbedded;
-import com.db4o.ObjectContainer;
-import com.db4o.config.EmbeddedConfiguration;
 import java.util.List;
 
 /**
- *
- * @author chavdar
+ * Interface to the storage where the Qso objects of a Log are persisted.
+ * 
+ * Changes done through add(), remove() and modify() are guaranteed to be 
+ * persisted only after commit() is called.
  */
-public class LogDatabase
+public interface LogDatabase
 {
-  private final ObjectContainer db;
+  /**
+   * @return All Qso objects inside the database in the order they were added
+   */
+  public List<Qso> getAll();
   
-  public LogDatabase(String dbFile)
-  {
-    EmbeddedConfiguration config = Db4oEmbedded.newConfiguration();
-    config.common().objectClass(Qso.class).cascadeOnUpdate(true);
-    db = Db4oEmbedded.openFile(config, dbFile);
-  }
+  /**
+   * Stores a newly created Qso object
+   * 
+   * @param qso - Qso that is not yet inside the database
+   */
+  public void add(Qso qso);
   
+  /**
+   * Deletes a Qso object
+   * 
+   * @param qso - Qso previously returned by getAll() or passed to add()
+   */
+  public void remove(Qso qso);
   
-  List<Qso> getAll()
-  {
-    return db.query(Qso.class);
-  }
-
-  
-  void add(Qso qso)
-  {
-    db.store(qso);
-  }
-  
-
-  void remove(Qso qso)
-  {
-    db.delete(qso);
-  }
-  
-
-  void modify(Qso qso)
-  {
-    db.store(qso);
-  }
+  /**
+   * Stores the new values of a Qso object which is already inside the database
+   * 
+   * @param qso - Qso previously returned by getAll() or passed to add()
+   */
+  public void modify(Qso qso);
   
-  void commit()
-  {
-    db.commit();
-  }
+  /**
+   * Makes all the changes since the last commit persistent
+   */
+  public void commit();
   
-  void close()
-  {
-    db.close();
-  }
+  /**
+   * Closes the database. The object can't be used afterwards.
+   */
+  public void close();
 }
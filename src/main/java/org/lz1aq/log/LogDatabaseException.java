@@ -0,0 +1,38 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+/**
+ * Thrown when a LogDatabase fails to read or write its data.
+ */
+public class LogDatabaseException extends RuntimeException
+{
+  private static final long serialVersionUID = 1L;
+  
+  public LogDatabaseException(String message)
+  {
+    super(message);
+  }
+  
+  public LogDatabaseException(String message, Throwable cause)
+  {
+    super(message, cause);
+  }
+}
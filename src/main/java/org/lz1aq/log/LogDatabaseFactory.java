@@ -0,0 +1,65 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.util.List;
+
+/**
+ * Opens the right LogDatabase depending on the extension of the log file.
+ */
+public class LogDatabaseFactory
+{
+  public static LogDatabase create(String logFile) throws Exception
+  {
+    if(logFile.endsWith("." + JournalLogDatabase.FILE_EXTENSION))
+    {
+      return new JournalLogDatabase(logFile);
+    }
+    else if(logFile.endsWith("." + Db4oLogDatabase.FILE_EXTENSION))
+    {
+      return new Db4oLogDatabase(logFile);
+    }
+    else
+    {
+      throw new Exception("Unknown log file type: " + logFile);
+    }
+  }
+  
+  
+  /**
+   * Reads the Qsos of a log file without opening it as a database (e.g. for
+   * merging). The file is not changed in any way.
+   */
+  public static List<Qso> readAll(String logFile) throws Exception
+  {
+    if(logFile.endsWith("." + JournalLogDatabase.FILE_EXTENSION))
+    {
+      return JournalLogDatabase.readAll(logFile);
+    }
+    else if(logFile.endsWith("." + Db4oLogDatabase.FILE_EXTENSION))
+    {
+      return Db4oLogDatabase.readAll(logFile);
+    }
+    else
+    {
+      throw new Exception("Unknown log file type: " + logFile);
+    }
+  }
+}
@@ -28,7 +28,30 @@ import java.util.EventListener;
 public interface LogListener extends EventListener
 {
   public void eventInit();
-  public void eventQsoAdded(Qso qso);
-  public void eventQsoRemoved(Qso qso);
-  public void eventQsoModified(Qso qso);
+  
+  /**
+   * @param qso - the Qso that was added
+   * @param row - the index of the Qso inside the log
+   */
+  public void eventQsoAdded(Qso qso, int row);
+  
+  /**
+   * @param qso - the Qso that was removed
+   * @param row - the index which the Qso had inside the log before the removal
+   */
+  public void eventQsoRemoved(Qso qso, int row);
+  
+  /**
+   * @param qso - the Qso that was modified (already holding the new value)
+   * @param row - the index of the Qso inside the log
+   * @param col - the index of the parameter that was changed
+   * @param oldValue - the value of the parameter before the change
+   */
+  public void eventQsoModified(Qso qso, int row, int col, String oldValue);
+  
+  /**
+   * Many Qsos were changed at once (e.g. a log file was imported). Listeners
+   * should read the whole log again the same way as in eventInit().
+   */
+  public void eventBulkChange();
 }
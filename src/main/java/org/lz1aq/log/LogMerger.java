@@ -0,0 +1,224 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Merges the Qsos of another log (e.g. from an operating position which was
+ * working offline) into a Log.
+ *
+ * The result is the union of both logs. Qsos are matched by their id (see
+ * Qso.getId()). If a Qso was edited in both logs, the copy with the higher
+ * version wins (see Qso.getVersion()) - ties are broken by the station and
+ * then by the content, so merging A into B and B into A gives the same Qsos.
+ * Qsos deleted in one log are brought back from the other one.
+ *
+ * The whole merge is a single LogBatch, so the database is committed once and
+ * the dupe and bandmap data are rebuilt once from the listeners'
+ * eventBulkChange().
+ */
+public final class LogMerger
+{
+
+    private LogMerger()
+    {
+    }
+
+    /**
+     * @param log - where the Qsos are merged to
+     * @param other - an opened database of the other log. It is only read.
+     * @return What was changed in the log
+     */
+    public static Result merge(Log log, LogDatabase other)
+    {
+        return merge(log, other.getAll());
+    }
+
+    /**
+     * @param log - where the Qsos are merged to
+     * @param others - Qsos of the other log. They are copied, so they can
+     * belong to another Log.
+     * @return What was changed in the log
+     */
+    public static Result merge(Log log, Collection<Qso> others)
+    {
+        // Qsos of the other log by id - when an id is there twice the winner is kept
+        final HashMap<String, Qso> remotes = new HashMap<>();
+        long maxVersion = 0;
+        for (Qso remote : others)
+        {
+            Qso existing = remotes.get(remote.getId());
+            if (existing == null || compareVersions(remote, existing) > 0)
+            {
+                remotes.put(remote.getId(), remote);
+            }
+            maxVersion = Math.max(maxVersion, remote.getVersion());
+        }
+
+        final Result result = new Result();
+        synchronized (log)
+        {
+            log.updateClock(maxVersion); // Our next changes must win over the merged ones
+            log.runBatch(new LogBatch()
+            {
+                @Override
+                protected void run()
+                {
+                    HashMap<String, Qso> missing = new HashMap<>(remotes);
+                    for (int row = 0; row < getSize(); row++)
+                    {
+                        Qso local = get(row);
+                        Qso remote = missing.remove(local.getId());
+                        if (remote == null)
+                        {
+                            continue;
+                        }
+
+                        if (compareVersions(remote, local) > 0 && !remote.toString().equals(local.toString()))
+                        {
+                            update(row, local, remote);
+                            result.updatedCount++;
+                        }
+                        else
+                        {
+                            result.keptCount++;
+                        }
+                    }
+
+                    insertByTime(new ArrayList<>(missing.values()));
+                    result.addedCount = missing.size();
+                }
+
+                /**
+                 * Copies the content and the version of the remote Qso
+                 */
+                private void update(int row, Qso local, Qso remote)
+                {
+                    int count = Math.min(local.getParamsCount(), remote.getParamsCount());
+                    for (int col = 0; col < count; col++)
+                    {
+                        String value = remote.getParamValue(col);
+                        if (!value.equals(local.getParamValue(col)))
+                        {
+                            setValueAt(value, row, col);
+                        }
+                    }
+                    setVersion(row, remote.getVersion(), remote.getVersionStation());
+                }
+
+                /**
+                 * Puts copies of the Qsos after the last Qso which is not newer
+                 * than them, so the log stays in the order in which the Qsos
+                 * were made.
+                 */
+                private void insertByTime(List<Qso> qsos)
+                {
+                    Collections.sort(qsos, new Comparator<Qso>()
+                    {
+                        @Override
+                        public int compare(Qso q1, Qso q2)
+                        {
+                            int result = Long.compare(q1.getEpochSeconds(), q2.getEpochSeconds());
+                            return result != 0 ? result : q1.getId().compareTo(q2.getId());
+                        }
+                    });
+
+                    int lowest = 0; // The Qsos are sorted, so each one goes after the previous one
+                    for (Qso qso : qsos)
+                    {
+                        int index = getSize();
+                        while (index > lowest && get(index - 1).getEpochSeconds() > qso.getEpochSeconds())
+                        {
+                            index--;
+                        }
+                        add(index, qso.copy());
+                        lowest = index + 1;
+                    }
+                }
+            }, false);
+        }
+
+        return result;
+    }
+
+    /**
+     * Orders two copies of the same Qso. The same pair gives the same result
+     * on every operating position.
+     *
+     * @return positive if q1 wins over q2, negative if q2 wins, 0 if they are
+     * the same
+     */
+    static int compareVersions(Qso q1, Qso q2)
+    {
+        int result = Long.compare(q1.getVersion(), q2.getVersion());
+        if (result == 0)
+        {
+            result = q1.getVersionStation().compareTo(q2.getVersionStation());
+        }
+        if (result == 0)
+        {
+            result = q1.toString().compareTo(q2.toString());
+        }
+        return result;
+    }
+
+    /**
+     * What a merge has changed
+     */
+    public static class Result
+    {
+
+        private int addedCount;
+        private int updatedCount;
+        private int keptCount;
+
+        /**
+         * @return Number of Qsos which were only in the other log
+         */
+        public int getAddedCount()
+        {
+            return addedCount;
+        }
+
+        /**
+         * @return Number of Qsos which were taken from the other log because
+         * they were changed later there
+         */
+        public int getUpdatedCount()
+        {
+            return updatedCount;
+        }
+
+        /**
+         * @return Number of Qsos which were in both logs and stayed as they
+         * were
+         */
+        public int getKeptCount()
+        {
+            return keptCount;
+        }
+    }
+}
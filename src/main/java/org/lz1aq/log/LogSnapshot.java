@@ -0,0 +1,135 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable view of the Qsos inside the Log at a certain moment.
+ *
+ * The Log creates a new snapshot on every change and swaps it atomically, so
+ * readers (e.g. the table models) can go through a snapshot without locking and
+ * without seeing a half-done change.
+ *
+ * The version is incremented on every change of the Log. Users can remember it
+ * in order to skip work when nothing was changed since their last refresh.
+ */
+public final class LogSnapshot
+{
+
+    private final Qso[] qsos;
+    private final long version;
+
+    LogSnapshot(Qso[] qsos, long version)
+    {
+        this.qsos = qsos;
+        this.version = version;
+    }
+
+    /**
+     * @param index - Qso index inside the log (0 is being the first QSO in the
+     * log)
+     * @return Reference to the QSO object or null if index is out of range
+     */
+    public Qso get(int index)
+    {
+        if (index < 0 || index >= qsos.length)
+        {
+            return null;
+        }
+
+        return qsos[index];
+    }
+
+    public int getSize()
+    {
+        return qsos.length;
+    }
+
+    /**
+     * @return Number which is incremented on every change of the Log
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Creates a snapshot with the Qso appended at the end
+     */
+    LogSnapshot withAdded(Qso qso)
+    {
+        Qso[] newQsos = new Qso[qsos.length + 1];
+        System.arraycopy(qsos, 0, newQsos, 0, qsos.length);
+        newQsos[qsos.length] = qso;
+        return new LogSnapshot(newQsos, version + 1);
+    }
+
+    /**
+     * Creates a snapshot with the Qsos appended at the end
+     */
+    LogSnapshot withAddedAll(Collection<Qso> added)
+    {
+        Qso[] newQsos = Arrays.copyOf(qsos, qsos.length + added.size());
+        int i = qsos.length;
+        for (Qso qso : added)
+        {
+            newQsos[i++] = qso;
+        }
+        return new LogSnapshot(newQsos, version + 1);
+    }
+
+    /**
+     * Creates a snapshot without the Qso at the specified index
+     */
+    LogSnapshot withRemoved(int index)
+    {
+        Qso[] newQsos = new Qso[qsos.length - 1];
+        System.arraycopy(qsos, 0, newQsos, 0, index);
+        System.arraycopy(qsos, index + 1, newQsos, index, qsos.length - index - 1);
+        return new LogSnapshot(newQsos, version + 1);
+    }
+
+    /**
+     * Creates a snapshot with the same Qsos but with incremented version. Used
+     * when a Qso was edited.
+     */
+    LogSnapshot withModified()
+    {
+        return new LogSnapshot(qsos, version + 1);
+    }
+
+    /**
+     * Creates a snapshot with different Qsos (e.g. at the end of a batch)
+     */
+    LogSnapshot withReplaced(Qso[] newQsos)
+    {
+        return new LogSnapshot(newQsos, version + 1);
+    }
+
+    /**
+     * @return Copy of the Qsos inside the snapshot
+     */
+    Qso[] toArray()
+    {
+        return qsos.clone();
+    }
+}
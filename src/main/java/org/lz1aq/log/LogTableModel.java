@@ -20,24 +20,50 @@
 package org.lz1aq.log;
 
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import javax.swing.table.AbstractTableModel;
 
 /**
  * Class used for mapping a Log to a JTable.
  * 
+ * The model listens for changes of the Log and fires events only for the rows 
+ * and cells that were really changed.
+ * 
+ * The JTable asks only for the cells inside the visible viewport. The values of
+ * the recently shown rows are kept in a bounded LRU cache, so scrolling and 
+ * repainting don't need to go to the Qso objects for every cell (and Qsos that
+ * are never shown are never fully read - see QsoSnapshotFile).
  */
 public class LogTableModel extends AbstractTableModel
 {
+  /** Maximum number of rows kept inside the cache */
+  private static final int ROW_CACHE_SIZE = 512;
+  
   /** Reference to the Log that is to be mapped to the JTable*/
   private final Log log;
   /** This is holding indeces of the columns which shouldn't be visible on the table */
   private final Set<Integer> hiddenColumns;
+  /** Index of the log column for each table column - built again when hiddenColumns change */
+  private int[] visibleColumns;
+  /** The values of the visible columns of recently shown rows (least recently used first) */
+  private final LinkedHashMap<Qso, String[]> rowCache;
   
   public LogTableModel(Log log)
   {
     this.hiddenColumns = new HashSet<>();
     this.log = log;
+    this.rowCache = new LinkedHashMap<Qso, String[]>(ROW_CACHE_SIZE * 2, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Qso, String[]> eldest)
+      {
+        return size() > ROW_CACHE_SIZE;
+      }
+    };
+    updateVisibleColumns();
+    this.log.addEventListener(new LocalLogListener());
   }
   
   
@@ -50,13 +76,19 @@ public class LogTableModel extends AbstractTableModel
   @Override
   public int getColumnCount()
   {
-    return log.getColumnCount() - hiddenColumns.size();
+    return visibleColumns.length;
   }
 
   @Override
   public Object getValueAt(int row, int col)
   {
-    return log.getValueAt(row, toLogColumn(col));
+    Qso qso = log.get(row);
+    if(qso == null)
+    {
+      return "";
+    }
+    
+    return getRow(qso)[col];
   }
   
   @Override
@@ -80,14 +112,12 @@ public class LogTableModel extends AbstractTableModel
   
   public void removeRow(int i)
   {
-    log.remove(i);
-    this.fireTableRowsInserted(log.getSize()-1, log.getSize()-1);
+    log.remove(i); // Table will be notified by the LocalLogListener
   }
   
   public void addRow(Qso qso)
   {
-    log.add(qso);
-    this.fireTableRowsInserted(log.getSize()-1, log.getSize()-1);
+    log.add(qso); // Table will be notified by the LocalLogListener
   }
   
   /**
@@ -98,6 +128,7 @@ public class LogTableModel extends AbstractTableModel
   public void setInvisible(int col)
   {
     hiddenColumns.add(toLogColumn(col));
+    updateVisibleColumns();
   }
   
   
@@ -110,6 +141,61 @@ public class LogTableModel extends AbstractTableModel
   public void setAllVisible(int col)
   {
     hiddenColumns.clear();
+    updateVisibleColumns();
+  }
+  
+  
+  /**
+   * Returns the values of the visible columns of the Qso from the cache. If
+   * not inside the cache they are read from the Qso.
+   */
+  private synchronized String[] getRow(Qso qso)
+  {
+    String[] values = rowCache.get(qso);
+    if(values == null)
+    {
+      values = new String[visibleColumns.length];
+      for(int i = 0; i < visibleColumns.length; i++)
+      {
+        values[i] = qso.getParamValue(visibleColumns[i]);
+      }
+      rowCache.put(qso, values);
+    }
+    return values;
+  }
+  
+  
+  private synchronized void invalidateRow(Qso qso)
+  {
+    rowCache.remove(qso);
+  }
+  
+  
+  private synchronized void clearRowCache()
+  {
+    rowCache.clear();
+  }
+  
+  
+  /**
+   * Builds again the mapping of table columns to log columns.
+   */
+  private synchronized void updateVisibleColumns()
+  {
+    int count = 0;
+    int[] columns = new int[log.getColumnCount()];
+    for(int i = 0; i < log.getColumnCount(); i++)
+    {
+      if(hiddenColumns.contains(i) == false)
+      {
+        columns[count++] = i;
+      }
+    }
+    
+    visibleColumns = new int[count];
+    System.arraycopy(columns, 0, visibleColumns, 0, count);
+    rowCache.clear();
+    fireTableStructureChanged();
   }
   
   
@@ -122,24 +208,73 @@ public class LogTableModel extends AbstractTableModel
    */
   private int toLogColumn(int tableColumn)
   {
-    int visibleColumns = -1;
+    if(tableColumn < 0 || tableColumn >= visibleColumns.length)
+    {
+      throw new ArrayIndexOutOfBoundsException("Invalid index for tableColumn!");
+    }
     
-    for(int i=0; i<log.getColumnCount(); i++)
+    return visibleColumns[tableColumn];
+  }
+  
+  
+  /** 
+   * Converts the index of a column inside the log to the index of the table
+   * column by taking into account any hidden columns.
+   * 
+   * @param logColumn - the index of the column inside the log.
+   * @return the index of the column inside the table or -1 if the column is hidden
+   */
+  private int toTableColumn(int logColumn)
+  {
+    for(int i = 0; i < visibleColumns.length; i++)
     {
-      // If log column is visible...
-      if(hiddenColumns.contains(i) == false)
+      if(visibleColumns[i] == logColumn)
       {
-        visibleColumns++; // 
+        return i;
       }
+    }
+    return -1;
+  }
+  
+  
+  private class LocalLogListener implements LogListener
+  {
+    @Override
+    public void eventInit()
+    {
+      fireTableDataChanged();
+    }
+
+    @Override
+    public void eventQsoAdded(Qso qso, int row)
+    {
+      fireTableRowsInserted(row, row);
+    }
+
+    @Override
+    public void eventQsoRemoved(Qso qso, int row)
+    {
+      invalidateRow(qso);
+      fireTableRowsDeleted(row, row);
+    }
+
+    @Override
+    public void eventQsoModified(Qso qso, int row, int col, String oldValue)
+    {
+      invalidateRow(qso);
       
-      if(visibleColumns == tableColumn)
+      int tableColumn = toTableColumn(col);
+      if(tableColumn >= 0)
       {
-        return i;
+        fireTableCellUpdated(row, tableColumn);
       }
     }
-    
-    throw new ArrayIndexOutOfBoundsException("Invalid index for tableColumn!");
-  }
 
-  
+    @Override
+    public void eventBulkChange()
+    {
+      clearRowCache();
+      fireTableDataChanged();
+    }
+  }
 }
@@ -19,8 +19,10 @@
 // ***************************************************************************
 package org.lz1aq.log;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Formatter;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.joda.time.DateTime;
@@ -93,6 +95,24 @@ public class Qso
    */
   static private final int TYPE_INDEX = 8;
   static private final String TYPE_TXT = "type";
+  
+  /**
+   * Name under which the id is stored after the other parameters when the Qso
+   * is written to a file (see QsoSerializer).
+   */
+  static final String ID_PARAM_NAME = "id";
+  
+  /**
+   * Name under which the version is stored after the id (see QsoSerializer).
+   * The value is the version number followed by a space and the station.
+   */
+  static final String VERSION_PARAM_NAME = "version";
+  
+  /**
+   * Name under which the imported flag is stored after the version (see 
+   * QsoSerializer). Written only for imported Qsos.
+   */
+  static final String IMPORTED_PARAM_NAME = "imported";
 
   /**
    * Used for accessing Extra parameters
@@ -109,8 +129,45 @@ public class Qso
   
   /**
    * Holds all the QSO parameters (such as "date", "time", "mode" ....)
+   * 
+   * This is what gets persisted and what is shown/edited inside the log table. 
+   * The transient fields below are decoded from it so that the frequently used
+   * values don't need to be parsed on every access.
+   */
+  private ArrayList<QsoParameter> qsoParams;
+  
+  /**
+   * Identifies the Qso among all copies of the log (e.g. on another operating
+   * position). Qsos from logs made before the id was introduced get one out of
+   * their content the first time it is needed, see getId().
+   */
+  private String id;
+  
+  /**
+   * Lamport timestamp of the last change of the Qso and the operating position
+   * (station) which did it. Set by the Log on every change and used for 
+   * deciding which copy of the Qso wins when logs are merged (see LogMerger).
+   * Qsos from older logs have version 0 and an empty station.
    */
-  private final ArrayList<QsoParameter> qsoParams;
+  private long   version;
+  private String versionStation;
+  
+  /**
+   * True if the Qso was imported from a log file (e.g. made by another 
+   * station). Imported Qsos are not counted for the serial number and the 
+   * exchange of the next Qso.
+   */
+  private boolean isImported;
+  
+  private transient QsoSnapshotFile snapshotFile;  // Not null while qsoParams are not yet read from the snapshot file
+  private transient int             snapshotIndex;
+  private transient String          snapshotHisCallsign; // Available before qsoParams are read
+  private transient String          snapshotType;
+  
+  private transient boolean    isDecoded;     // False if the fields below need to be decoded from qsoParams
+  private transient int        frequencyHz;
+  private transient RadioModes mode;
+  private transient long       epochSeconds;  // Date and time of the Qso as seconds since 1970-01-01 UTC
 
   
   
@@ -125,6 +182,8 @@ public class Qso
     qsoParams.add(new QsoParameter(MODE_TXT, mode.toString()));
     qsoParams.add(new QsoParameter(MYCALL_TXT, myCall));
     qsoParams.add(new QsoParameter(HISCALL_TXT, hisCall));
+    id = newId();
+    decode();
   }
 
   
@@ -139,9 +198,51 @@ public class Qso
     qsoParams.add(new QsoParameter(MODE_TXT, mode.toString()));
     qsoParams.add(new QsoParameter(MYCALL_TXT, myCall));
     qsoParams.add(new QsoParameter(HISCALL_TXT, hisCall));
-    qsoParams.add(new QsoParameter(HISCALL_TXT, hisCall));  }
+    qsoParams.add(new QsoParameter(HISCALL_TXT, hisCall));
+    id = newId();
+    decode();
+  }
 
   
+  /**
+   * Creates a Qso out of already existing parameters (e.g. when reading a log 
+   * file).
+   * 
+   * @param qsoParams - all parameters of the Qso in the same order as they are
+   * kept inside the Qso
+   */
+  Qso(ArrayList<QsoParameter> qsoParams)
+  {
+    takeIdAndVersion(qsoParams);
+    this.qsoParams = qsoParams;
+    decode();
+  }
+  
+  
+  /**
+   * Creates a Qso whose parameters are read from the snapshot file only when 
+   * they are needed. The values used for dupe checks, by the bandmap and by
+   * the Log (id and version) are supplied directly so that the whole Qso 
+   * doesn't need to be read.
+   */
+  Qso(QsoSnapshotFile snapshotFile, int snapshotIndex, long epochSeconds, int frequencyHz, RadioModes mode, String hisCallsign, String type, 
+      boolean isImported, String id, long version, String versionStation)
+  {
+    this.snapshotFile        = snapshotFile;
+    this.snapshotIndex       = snapshotIndex;
+    this.epochSeconds        = epochSeconds;
+    this.frequencyHz         = frequencyHz;
+    this.mode                = mode;
+    this.snapshotHisCallsign = hisCallsign;
+    this.snapshotType        = type;
+    this.isImported          = isImported;
+    this.id                  = id;
+    this.version             = version;
+    this.versionStation      = versionStation;
+    this.isDecoded           = true;
+  }
+  
+  
   /**
    * Adding QSO for the LZ HF QRP contest
    *
@@ -177,6 +278,40 @@ public class Qso
     qsoParams.add(new QsoParameter(SNT_TXT, snt));
     qsoParams.add(new QsoParameter(RCV_TXT, rcv));
     qsoParams.add(new QsoParameter(TYPE_TXT, type.toUpperCase()));
+    id = newId();
+    decode();
+  }
+
+  
+  /**
+   * Creates a Qso with a known date and time (e.g. when importing a log made
+   * by another station). The input is not validated as the Qso was already
+   * accepted by the program that made it.
+   *
+   * @param date - "yyyy-MM-dd"
+   * @param time - "HHmm"
+   * @param freq
+   * @param mode
+   * @param myCall
+   * @param hisCall
+   * @param snt
+   * @param rcv
+   * @param type - specifies the type of work CQ or S&P
+   */
+  public Qso(String date, String time, long freq, RadioModes mode, String myCall, String hisCall, String snt, String rcv, String type)
+  {
+    qsoParams = new ArrayList<>();
+    qsoParams.add(new QsoParameter(DATE_TXT, date));
+    qsoParams.add(new QsoParameter(TIME_TXT, time));
+    qsoParams.add(new QsoParameter(FREQ_TXT, Long.toString(freq)));
+    qsoParams.add(new QsoParameter(MODE_TXT, mode.toString()));
+    qsoParams.add(new QsoParameter(MYCALL_TXT, myCall.toUpperCase()));
+    qsoParams.add(new QsoParameter(HISCALL_TXT, hisCall.toUpperCase())); 
+    qsoParams.add(new QsoParameter(SNT_TXT, snt));
+    qsoParams.add(new QsoParameter(RCV_TXT, rcv));
+    qsoParams.add(new QsoParameter(TYPE_TXT, type.toUpperCase()));
+    id = newId();
+    decode();
   }
 
   
@@ -185,7 +320,7 @@ public class Qso
   {
     StringBuilder str = new StringBuilder(60);
 
-    for (QsoParameter par : qsoParams)
+    for (QsoParameter par : params())
     {
       str.append(' ');
       str.append(par.value);
@@ -210,9 +345,9 @@ public class Qso
     fmt.format(" %s", getDate());
     fmt.format(" %s", getTime());
     fmt.format(" %-13s", getMyCallsign());
-    fmt.format(" %-13s", qsoParams.get(SNT_INDEX).value);
+    fmt.format(" %-13s", params().get(SNT_INDEX).value);
     fmt.format(" %-13s", getHisCallsign());
-    fmt.format(" %-13s", qsoParams.get(RCV_INDEX).value);
+    fmt.format(" %-13s", params().get(RCV_INDEX).value);
     
     return sbuf.toString();
   }
@@ -243,7 +378,7 @@ public class Qso
     fmt.format("<call:%d>%-10s", getHisCallsign().length(), getHisCallsign());
     
     // Exchange <comment: >
-    String exchange = qsoParams.get(SNT_INDEX).value + " " + qsoParams.get(RCV_INDEX).value;
+    String exchange = params().get(SNT_INDEX).value + " " + params().get(RCV_INDEX).value;
     fmt.format("<comment:%d>%s", exchange.length(), exchange);
     
     fmt.format("<eor>");
@@ -256,7 +391,7 @@ public class Qso
    */
   public synchronized int getParamsCount()
   {
-    return qsoParams.size();
+    return params().size();
   }
 
   
@@ -265,14 +400,14 @@ public class Qso
    */
 //  public int getExtraParamsCount()
 //  {
-//    return qsoParams.size()-FIRST_EXTRA_PARAM_INDEX;
+//    return params().size()-FIRST_EXTRA_PARAM_INDEX;
 //  }
   /**
    * @return Date in yyyy-mm-dd format
    */
   public synchronized String getDate()
   {
-    return qsoParams.get(DATE_INDEX).value;
+    return params().get(DATE_INDEX).value;
   }
 
   
@@ -281,7 +416,7 @@ public class Qso
    */
   public synchronized String getTime()
   {
-    return qsoParams.get(TIME_INDEX).value;
+    return params().get(TIME_INDEX).value;
   }
 
   
@@ -290,7 +425,7 @@ public class Qso
    */
   public synchronized String getFrequency()
   {
-    return qsoParams.get(FREQ_INDEX).value;
+    return params().get(FREQ_INDEX).value;
   }
   
   /**
@@ -298,7 +433,8 @@ public class Qso
    */
   public synchronized int getFrequencyInt()
   {
-    return Integer.parseInt(qsoParams.get(FREQ_INDEX).value);
+    decode();
+    return frequencyHz;
   }
 
   
@@ -307,15 +443,8 @@ public class Qso
    */
   public synchronized RadioModes getMode()
   {
-    try
-    {
-      return RadioModes.valueOf(qsoParams.get(MODE_INDEX).value);
-    }
-    catch(Exception ex)
-    {
-      logger.log(Level.SEVERE, "Bad string for mode: "+ qsoParams.get(MODE_INDEX).value);
-      return RadioModes.CW;
-    }
+    decode();
+    return mode;
   }
 
   /**
@@ -323,13 +452,13 @@ public class Qso
    */
   public synchronized String getModeCabrilloStyle()
   {
-    if(qsoParams.get(MODE_INDEX).value.equals("LSB")||
-       qsoParams.get(MODE_INDEX).value.equals("USB")||
-       qsoParams.get(MODE_INDEX).value.equals("SSB")||
-       qsoParams.get(MODE_INDEX).value.equals("PH")   )
+    if(params().get(MODE_INDEX).value.equals("LSB")||
+       params().get(MODE_INDEX).value.equals("USB")||
+       params().get(MODE_INDEX).value.equals("SSB")||
+       params().get(MODE_INDEX).value.equals("PH")   )
       return "PH";
-    else if(qsoParams.get(MODE_INDEX).value.equals("CW")||
-            qsoParams.get(MODE_INDEX).value.equals("CWR"))
+    else if(params().get(MODE_INDEX).value.equals("CW")||
+            params().get(MODE_INDEX).value.equals("CWR"))
       return "CW";
     else
       logger.log(Level.SEVERE, null, "Unknown Mode. Returning CW by default.");
@@ -341,13 +470,13 @@ public class Qso
    */
   public synchronized String getModeAdifStyle()
   {
-    if(qsoParams.get(MODE_INDEX).value.equals("LSB")||
-       qsoParams.get(MODE_INDEX).value.equals("USB")||
-       qsoParams.get(MODE_INDEX).value.equals("SSB")||
-       qsoParams.get(MODE_INDEX).value.equals("PH")   )
+    if(params().get(MODE_INDEX).value.equals("LSB")||
+       params().get(MODE_INDEX).value.equals("USB")||
+       params().get(MODE_INDEX).value.equals("SSB")||
+       params().get(MODE_INDEX).value.equals("PH")   )
       return "SSB";
-    else if(qsoParams.get(MODE_INDEX).value.equals("CW")||
-            qsoParams.get(MODE_INDEX).value.equals("CWR"))
+    else if(params().get(MODE_INDEX).value.equals("CW")||
+            params().get(MODE_INDEX).value.equals("CWR"))
       return "CW";
     else
       logger.log(Level.SEVERE, null, "Unknown Mode. Returning CW by default.");
@@ -356,12 +485,16 @@ public class Qso
   
   public synchronized String getMyCallsign()
   {
-    return qsoParams.get(MYCALL_INDEX).value;
+    return params().get(MYCALL_INDEX).value;
   }
 
   
   public synchronized String getHisCallsign()
   {
+    if(qsoParams == null)
+    {
+      return snapshotHisCallsign;
+    }
     return qsoParams.get(HISCALL_INDEX).value;
   }
 
@@ -372,15 +505,15 @@ public class Qso
    */
   public synchronized String getSnt()
   {
-    return qsoParams.get(SNT_INDEX).value;
+    return params().get(SNT_INDEX).value;
   }
   
   public synchronized String getSntWithExtraSpace()
   {
     StringBuilder buf = new StringBuilder();
-    buf.append(qsoParams.get(SNT_INDEX).value.substring(0, 3));
+    buf.append(params().get(SNT_INDEX).value.substring(0, 3));
     buf.append(" ");
-    buf.append(qsoParams.get(SNT_INDEX).value.substring(3, 6));
+    buf.append(params().get(SNT_INDEX).value.substring(3, 6));
     return buf.toString();
   }
   
@@ -391,16 +524,16 @@ public class Qso
    */
   public synchronized String getRcv()
   {
-    return qsoParams.get(RCV_INDEX).value;
+    return params().get(RCV_INDEX).value;
   }
   
   
   public synchronized String getRcvWithExtraSpace()
   {
     StringBuilder buf = new StringBuilder();
-    buf.append(qsoParams.get(RCV_INDEX).value.substring(0, 3));
+    buf.append(params().get(RCV_INDEX).value.substring(0, 3));
     buf.append(" ");
-    buf.append(qsoParams.get(RCV_INDEX).value.substring(3, 6));
+    buf.append(params().get(RCV_INDEX).value.substring(3, 6));
     return buf.toString();
   }
   
@@ -410,23 +543,49 @@ public class Qso
    */
   public synchronized String getType()
   {
+    if(qsoParams == null)
+    {
+      return snapshotType;
+    }
     return qsoParams.get(TYPE_INDEX).value;
   }
   
   
+  /**
+   * @param parameterIndex - index of the Qso parameter
+   * @return true if changing this parameter changes the result of dupe checks 
+   * (i.e. the callsign, mode, date, time or type of work)
+   */
+  public static boolean affectsDupeCheck(int parameterIndex)
+  {
+    switch(parameterIndex)
+    {
+      case DATE_INDEX:
+      case TIME_INDEX:
+      case MODE_INDEX:
+      case HISCALL_INDEX:
+      case TYPE_INDEX:
+        return true;
+      default:
+        return false;
+    }
+  }
+  
+  
   public synchronized String getParamName(int parameterIndex)
   {
-    return qsoParams.get(parameterIndex).name;
+    return params().get(parameterIndex).name;
   }
 
   public synchronized String getParamValue(int parameterIndex)
   {
-    return qsoParams.get(parameterIndex).value;
+    return params().get(parameterIndex).value;
   }
 
   public synchronized String setParamValue(int parameterIndex, String value)
   {
-    return qsoParams.get(parameterIndex).value = value;
+    isDecoded = false; // Decoded fields must be updated
+    return params().get(parameterIndex).value = value;
   }
 
   
@@ -443,19 +602,65 @@ public class Qso
    */
   public synchronized QsoParameter getParam(int parameterIndex)
   {
-    return qsoParams.get(parameterIndex);
+    return params().get(parameterIndex);
   }
 
   
   
+  /**
+   * Uses the coarse clock from TimeUtils so the result is as fresh as the last
+   * TimeUtils.tickClock().
+   * 
+   * @return Seconds since the Qso was made
+   */
   public synchronized long getElapsedSeconds()
   { 
-    DateTime qso_dt = TimeUtils.toDateTime(getDate(), getTime());
-    return (TimeUtils.getUTC().getMillis()-qso_dt.getMillis())/1000;
+    decode();
+    return TimeUtils.getCoarseUtcSeconds() - epochSeconds;
+  }
+  
+  
+  /**
+   * @return Date and time of the Qso in seconds since 1970-01-01 UTC
+   */
+  public synchronized long getEpochSeconds()
+  {
+    decode();
+    return epochSeconds;
   }
   
   
   
+  /**
+   * Key identifying the callsign/mode combination of this Qso. Two Qsos with
+   * the same key are dupes of each other (see Qso.toDupeKey()).
+   * 
+   * The key is not kept inside the Qso - it is made out of the (shared) 
+   * callsign and mode when needed.
+   * 
+   * @return key for the callsign/mode of this Qso
+   */
+  public synchronized String getDupeKey()
+  {
+    decode();
+    return toDupeKey(getHisCallsign(), mode);
+  }
+  
+  
+  /**
+   * Creates a key from callsign and mode which can be used in hash based 
+   * collections. The callsign is case insensitive.
+   * 
+   * @param callsign - the callsign of the station
+   * @param mode - the mode of the contact
+   * @return key for the callsign/mode combination
+   */
+  public static String toDupeKey(String callsign, RadioModes mode)
+  {
+    return callsign.toUpperCase() + " " + mode.toString();
+  }
+  
+  
   /**
    * Check if the allowed period after which we can work again the station has
    * elapsed.
@@ -467,6 +672,239 @@ public class Qso
     return (allowedPeriod - getElapsedSeconds()) > 0;
   }
   
+  /**
+   * @return Unique id of the Qso which stays the same when the Qso is edited
+   * or copied to another log
+   */
+  public synchronized String getId()
+  {
+    if(id == null)
+    {
+      // Old Qso without id - derive it from the content so that it stays the
+      // same until it is written with its id
+      id = UUID.nameUUIDFromBytes(toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+    return id;
+  }
+  
+  
+  /**
+   * @return Lamport timestamp of the last change of the Qso (0 if unknown)
+   */
+  public synchronized long getVersion()
+  {
+    return version; // Known without reading the parameters from the snapshot file
+  }
+  
+  
+  /**
+   * @return The operating position which did the last change of the Qso 
+   * (empty if unknown)
+   */
+  public synchronized String getVersionStation()
+  {
+    return versionStation == null ? "" : versionStation;
+  }
+  
+  
+  /**
+   * @return true if the Qso was imported from a log file
+   */
+  public synchronized boolean isImported()
+  {
+    return isImported; // Known without reading the parameters from the snapshot file
+  }
+  
+  
+  /**
+   * Marks the Qso as imported from a log file. Must be called before the Qso
+   * is added to the Log.
+   */
+  public synchronized void setImported(boolean isImported)
+  {
+    params();
+    this.isImported = isImported;
+  }
+  
+  
+  /**
+   * Called by the Log when the Qso is changed
+   */
+  synchronized void setVersion(long version, String station)
+  {
+    params(); // Otherwise reading the parameters later would bring back the old version
+    this.version = version;
+    this.versionStation = station;
+  }
+  
+  
+  /**
+   * @return Copy of the Qso with the same id and version which can be put in 
+   * another log
+   */
+  synchronized Qso copy()
+  {
+    ArrayList<QsoParameter> copiedParams = new ArrayList<>(params().size());
+    for(QsoParameter param : params())
+    {
+      copiedParams.add(new QsoParameter(param.name, param.value));
+    }
+    
+    Qso copied = new Qso(copiedParams);
+    copied.id = getId();
+    copied.version = version;
+    copied.versionStation = versionStation;
+    copied.isImported = isImported;
+    return copied;
+  }
+  
+  
+  /**
+   * @return New random id for a Qso
+   */
+  static String newId()
+  {
+    return UUID.randomUUID().toString();
+  }
+  
+  
+  /**
+   * Removes the id, the version and the imported flag from the end of the 
+   * parameters as read by QsoSerializer. Older files don't have some or all
+   * of them.
+   */
+  private void takeIdAndVersion(ArrayList<QsoParameter> params)
+  {
+    int last = params.size() - 1;
+    if(last >= 0 && IMPORTED_PARAM_NAME.equals(params.get(last).name))
+    {
+      isImported = Boolean.parseBoolean(params.remove(last).value);
+      last--;
+    }
+    
+    if(last >= 0 && VERSION_PARAM_NAME.equals(params.get(last).name))
+    {
+      String value = params.remove(last).value;
+      int space = value.indexOf(' ');
+      try
+      {
+        version = Long.parseLong(space < 0 ? value : value.substring(0, space));
+        versionStation = space < 0 ? "" : value.substring(space + 1);
+      }
+      catch(NumberFormatException ex)
+      {
+        logger.log(Level.WARNING, "Invalid Qso version: " + value, ex);
+      }
+      last--;
+    }
+    
+    if(last >= 0 && ID_PARAM_NAME.equals(params.get(last).name))
+    {
+      id = params.remove(last).value;
+    }
+  }
+  
+  
+  /**
+   * @return The parameters of the Qso - read from the snapshot file if this 
+   * was not done yet
+   */
+  private ArrayList<QsoParameter> params()
+  {
+    if(qsoParams == null)
+    {
+      qsoParams = snapshotFile.readParams(snapshotIndex);
+      takeIdAndVersion(qsoParams);
+      snapshotFile = null;
+      snapshotHisCallsign = null;
+      snapshotType = null;
+    }
+    return qsoParams;
+  }
+  
+  
+  /**
+   * Fills the transient fields out of the string parameters. Does nothing if 
+   * this was already done and no parameter was changed afterwards.
+   * 
+   * Qsos loaded from db4o do not have their transient fields set, so this is
+   * called lazily by the getters.
+   * 
+   * The values which repeat from Qso to Qso (parameter names, date, mode, 
+   * callsigns, type of work) are interned so that all Qsos share one String.
+   * Values which are different for almost every Qso (time, frequency, 
+   * exchange) are not.
+   */
+  private void decode()
+  {
+    if(isDecoded)
+    {
+      return;
+    }
+    
+    for(int i = 0; i < params().size(); i++)
+    {
+      QsoParameter par = params().get(i);
+      par.name = par.name.intern();
+      if(isRepeatingParam(i) && par.value != null)
+      {
+        par.value = par.value.intern();
+      }
+    }
+    
+    try
+    {
+      frequencyHz = Integer.parseInt(params().get(FREQ_INDEX).value);
+    }
+    catch(NumberFormatException ex)
+    {
+      logger.log(Level.SEVERE, "Bad string for frequency: " + params().get(FREQ_INDEX).value);
+      frequencyHz = 0;
+    }
+    
+    try
+    {
+      mode = RadioModes.valueOf(params().get(MODE_INDEX).value);
+    }
+    catch(Exception ex)
+    {
+      logger.log(Level.SEVERE, "Bad string for mode: "+ params().get(MODE_INDEX).value);
+      mode = RadioModes.CW;
+    }
+    
+    try
+    {
+      epochSeconds = TimeUtils.toDateTime(getDate(), getTime()).getMillis() / 1000;
+    }
+    catch(IllegalArgumentException ex)
+    {
+      logger.log(Level.SEVERE, "Bad date/time: " + getDate() + " " + getTime());
+      epochSeconds = 0;
+    }
+    
+    isDecoded = true;
+  }
+  
+  
+  /**
+   * @return true if the parameter usually has the same value in many Qsos
+   */
+  private static boolean isRepeatingParam(int parameterIndex)
+  {
+    switch(parameterIndex)
+    {
+      case DATE_INDEX:
+      case MODE_INDEX:
+      case MYCALL_INDEX:
+      case HISCALL_INDEX:
+      case TYPE_INDEX:
+        return true;
+      default:
+        return false;
+    }
+  }
+  
+  
   /**
    * Checks if the call sign has at least a number a letter and is 3 digits long
    *
@@ -0,0 +1,91 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Converts Qso objects to/from binary form. Used by the log files which are not
+ * handled by db4o.
+ * 
+ * Format: number of parameters (short) followed by name/value pair (UTF strings)
+ * for each parameter. The Qso id and version are written as two more 
+ * parameters named "id" and "version" (older files don't have them). Imported
+ * Qsos have one more parameter named "imported" after them.
+ */
+public final class QsoSerializer
+{
+  private QsoSerializer()
+  {
+  }
+  
+  
+  public static void write(DataOutput out, Qso qso) throws IOException
+  {
+    synchronized(qso)
+    {
+      out.writeShort(qso.getParamsCount() + (qso.isImported() ? 3 : 2));
+      for(int i = 0; i < qso.getParamsCount(); i++)
+      {
+        QsoParameter par = qso.getParam(i);
+        out.writeUTF(par.name);
+        out.writeUTF(par.value);
+      }
+      out.writeUTF(Qso.ID_PARAM_NAME);
+      out.writeUTF(qso.getId());
+      out.writeUTF(Qso.VERSION_PARAM_NAME);
+      out.writeUTF(qso.getVersion() + " " + qso.getVersionStation());
+      if(qso.isImported())
+      {
+        out.writeUTF(Qso.IMPORTED_PARAM_NAME);
+        out.writeUTF(Boolean.TRUE.toString());
+      }
+    }
+  }
+  
+  
+  public static Qso read(DataInput in) throws IOException
+  {
+    return new Qso(readParams(in));
+  }
+  
+  
+  static ArrayList<QsoParameter> readParams(DataInput in) throws IOException
+  {
+    int count = in.readShort();
+    if(count < 0)
+    {
+      throw new IOException("Invalid number of Qso parameters: " + count);
+    }
+    
+    ArrayList<QsoParameter> params = new ArrayList<>(count);
+    for(int i = 0; i < count; i++)
+    {
+      String name = in.readUTF();
+      String value = in.readUTF();
+      params.add(new QsoParameter(name, value));
+    }
+    
+    return params;
+  }
+}
@@ -0,0 +1,385 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Read-only snapshot of a journal log which is read with a single bulk read 
+ * when the log is opened. The values needed right after opening the log (time, 
+ * frequency, mode, callsign, type of work, id and version) are kept in 
+ * fixed-width columns, so the Qsos can be created without parsing them. The rest of the Qso parameters are read
+ * only when the Qso is accessed (see Qso.params()).
+ * 
+ * The file is not memory-mapped - a mapped file can't be replaced or deleted 
+ * on Windows while the mapping is alive, and the mapping is released only when 
+ * the buffer is garbage collected. The file is closed right after it is read,
+ * so the next checkpoint can replace it.
+ * 
+ * The snapshot is written by JournalLogDatabase on clean close() and as a
+ * periodic checkpoint. It is valid only for the journal generation recorded
+ * inside it. The journal records after the recorded journal length are
+ * replayed on top of it.
+ * 
+ * File format (big-endian):
+ *   header  - magic (int), format version (int), journal generation (long), 
+ *             journal length (long), number of Qsos (int)
+ *   columns - id (long[]), epoch seconds (long[]), version (long[]), 
+ *             frequency (int[]), mode ordinal (byte[]), flags (byte[]), 
+ *             callsign offset (int[]), type offset (int[]), Qso id offset 
+ *             (int[]), version station offset (int[]), parameters offset (int[])
+ *   strings - length (short) followed by UTF-8 bytes. Referenced by the 
+ *             string offsets. Repeating strings are written once.
+ *   data    - the parameters of each Qso (see QsoSerializer). 
+ */
+final class QsoSnapshotFile
+{
+  static final String FILE_SUFFIX = ".snapshot";
+  
+  private static final int MAGIC          = 0x4C5A5331; // "LZS1"
+  private static final int FORMAT_VERSION = 3;
+  private static final int HEADER_SIZE    = 28;
+  private static final int COLUMNS_SIZE   = 8 + 8 + 8 + 4 + 1 + 1 + 4 + 4 + 4 + 4 + 4; // Bytes per Qso inside the columns
+  
+  private static final byte FLAG_IMPORTED = 0x01;
+  
+  private final ByteBuffer       buffer;
+  private final int              count;
+  private final long             journalLength;
+  
+  
+  private QsoSnapshotFile(ByteBuffer buffer, int count, long journalLength)
+  {
+    this.buffer        = buffer;
+    this.count         = count;
+    this.journalLength = journalLength;
+  }
+  
+  
+  /**
+   * Reads the snapshot of a journal.
+   * 
+   * @param snapshot - path to the snapshot file
+   * @param generation - generation of the journal (see JournalLogDatabase)
+   * @param journalLength - current length of the journal file
+   * @return null if the snapshot doesn't exist or doesn't match the journal
+   * (i.e. it is from another generation or the journal is shorter than when 
+   * the snapshot was written)
+   * @throws IOException 
+   */
+  static QsoSnapshotFile open(Path snapshot, long generation, long journalLength) throws IOException
+  {
+    if(!Files.exists(snapshot))
+    {
+      return null;
+    }
+    
+    ByteBuffer buffer;
+    try(FileChannel ch = FileChannel.open(snapshot, StandardOpenOption.READ))
+    {
+      if(ch.size() < HEADER_SIZE || ch.size() > Integer.MAX_VALUE)
+      {
+        return null;
+      }
+      buffer = ByteBuffer.allocate((int) ch.size());
+      while(buffer.hasRemaining())
+      {
+        if(ch.read(buffer) < 0)
+        {
+          return null; // The file was truncated while reading it
+        }
+      }
+      buffer.clear();
+    }
+    
+    if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION
+       || buffer.getLong(8) != generation || buffer.getLong(16) > journalLength)
+    {
+      return null;
+    }
+    
+    int count = buffer.getInt(24);
+    if(count < 0 || HEADER_SIZE + (long) count * COLUMNS_SIZE > buffer.capacity())
+    {
+      return null;
+    }
+    
+    return new QsoSnapshotFile(buffer, count, buffer.getLong(16));
+  }
+  
+  
+  /**
+   * @return Length of the journal when the snapshot was written. The journal
+   * records after it are not inside the snapshot.
+   */
+  long getJournalLength()
+  {
+    return journalLength;
+  }
+  
+  
+  /**
+   * Writes a snapshot of the Qsos. The file is replaced atomically.
+   * 
+   * @param snapshot - path to the snapshot file
+   * @param generation - generation of the journal
+   * @param journalLength - length of the journal file
+   * @param qsos - the Qsos by their id inside the journal
+   * @throws IOException 
+   */
+  static void write(Path snapshot, long generation, long journalLength, Map<Long, Qso> qsos) throws IOException
+  {
+    int count = qsos.size();
+    
+    ByteBuffer columns = ByteBuffer.allocate(count * COLUMNS_SIZE);
+    ByteArrayOutputStream strings = new ByteArrayOutputStream(count * 8);
+    DataOutputStream stringsOut = new DataOutputStream(strings);
+    HashMap<String, Integer> stringOffsets = new HashMap<>();
+    ByteArrayOutputStream data = new ByteArrayOutputStream(count * 100);
+    DataOutputStream dataOut = new DataOutputStream(data);
+    
+    int stringsStart = HEADER_SIZE + count * COLUMNS_SIZE;
+    
+    long[] ids      = new long[count];
+    long[] epochs   = new long[count];
+    long[] versions = new long[count];
+    int[]  freqs    = new int[count];
+    byte[] modes    = new byte[count];
+    byte[] flags    = new byte[count];
+    int[]  calls    = new int[count];
+    int[]  types    = new int[count];
+    int[]  qsoIds   = new int[count];
+    int[]  stations = new int[count];
+    int[]  offsets  = new int[count];
+    
+    int i = 0;
+    for(Map.Entry<Long, Qso> entry : qsos.entrySet())
+    {
+      Qso qso = entry.getValue();
+      ids[i]     = entry.getKey();
+      epochs[i]  = qso.getEpochSeconds();
+      versions[i] = qso.getVersion();
+      freqs[i]   = qso.getFrequencyInt();
+      modes[i]   = (byte) qso.getMode().ordinal();
+      flags[i]   = qso.isImported() ? FLAG_IMPORTED : 0;
+      calls[i]   = writeString(stringsOut, stringOffsets, qso.getHisCallsign());
+      types[i]   = writeString(stringsOut, stringOffsets, qso.getType());
+      qsoIds[i]  = writeString(stringsOut, stringOffsets, qso.getId());
+      stations[i] = writeString(stringsOut, stringOffsets, qso.getVersionStation());
+      offsets[i] = dataOut.size();
+      QsoSerializer.write(dataOut, qso);
+      i++;
+    }
+    stringsOut.flush();
+    dataOut.flush();
+    
+    // The offsets inside the file
+    int dataStart = stringsStart + strings.size();
+    for(i = 0; i < count; i++)
+    {
+      calls[i]   += stringsStart;
+      types[i]   += stringsStart;
+      qsoIds[i]  += stringsStart;
+      stations[i] += stringsStart;
+      offsets[i] += dataStart;
+    }
+    
+    for(long v : ids)    columns.putLong(v);
+    for(long v : epochs) columns.putLong(v);
+    for(long v : versions) columns.putLong(v);
+    for(int v : freqs)   columns.putInt(v);
+    columns.put(modes);
+    columns.put(flags);
+    for(int v : calls)   columns.putInt(v);
+    for(int v : types)   columns.putInt(v);
+    for(int v : qsoIds)  columns.putInt(v);
+    for(int v : stations) columns.putInt(v);
+    for(int v : offsets) columns.putInt(v);
+    columns.flip();
+    
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC);
+    header.putInt(FORMAT_VERSION);
+    header.putLong(generation);
+    header.putLong(journalLength);
+    header.putInt(count);
+    header.flip();
+    
+    Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+    try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      for(ByteBuffer buf : new ByteBuffer[]{header, columns, ByteBuffer.wrap(strings.toByteArray()), ByteBuffer.wrap(data.toByteArray())})
+      {
+        while(buf.hasRemaining())
+        {
+          out.write(buf);
+        }
+      }
+      out.force(true);
+    }
+    
+    try
+    {
+      Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch(AtomicMoveNotSupportedException ex)
+    {
+      Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+  
+  
+  /**
+   * Creates the Qsos out of the columns. The parameters of the Qsos are not
+   * read.
+   * 
+   * @return the Qsos by their id inside the journal
+   */
+  LinkedHashMap<Long, Qso> readQsos()
+  {
+    LinkedHashMap<Long, Qso> qsos = new LinkedHashMap<>(count * 2);
+    RadioModes[] allModes = RadioModes.values();
+    HashMap<Integer, String> strings = new HashMap<>();
+    
+    for(int i = 0; i < count; i++)
+    {
+      int mode = buffer.get(modeColumn() + i);
+      if(mode < 0 || mode >= allModes.length)
+      {
+        throw new LogDatabaseException("Invalid mode inside the log snapshot: " + mode);
+      }
+      
+      Qso qso = new Qso(this, i,
+                        buffer.getLong(epochColumn() + i * 8),
+                        buffer.getInt(freqColumn() + i * 4),
+                        allModes[mode],
+                        readString(strings, buffer.getInt(callColumn() + i * 4)),
+                        readString(strings, buffer.getInt(typeColumn() + i * 4)),
+                        (buffer.get(flagsColumn() + i) & FLAG_IMPORTED) != 0,
+                        readString(buffer.getInt(qsoIdColumn() + i * 4)),
+                        buffer.getLong(versionColumn() + i * 8),
+                        readString(strings, buffer.getInt(stationColumn() + i * 4)));
+      qsos.put(buffer.getLong(HEADER_SIZE + i * 8), qso);
+    }
+    
+    return qsos;
+  }
+  
+  
+  /**
+   * Reads all parameters of a Qso. Called when the Qso is accessed for the
+   * first time.
+   * 
+   * @param index - index of the Qso inside the snapshot
+   */
+  ArrayList<QsoParameter> readParams(int index)
+  {
+    ByteBuffer dup = buffer.duplicate(); // Own position, so that Qsos can be read from several threads
+    int start = dup.getInt(offsetColumn() + index * 4);
+    int end   = index + 1 < count ? dup.getInt(offsetColumn() + (index + 1) * 4) : dup.capacity();
+    
+    byte[] bytes = new byte[end - start];
+    dup.position(start);
+    dup.get(bytes);
+    
+    try
+    {
+      return QsoSerializer.readParams(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+    catch(IOException ex)
+    {
+      throw new LogDatabaseException("Damaged log snapshot", ex);
+    }
+  }
+  
+  
+  private int epochColumn()   { return HEADER_SIZE + count * 8; }
+  private int versionColumn() { return HEADER_SIZE + count * 16; }
+  private int freqColumn()    { return HEADER_SIZE + count * 24; }
+  private int modeColumn()    { return HEADER_SIZE + count * 28; }
+  private int flagsColumn()   { return HEADER_SIZE + count * 29; }
+  private int callColumn()    { return HEADER_SIZE + count * 30; }
+  private int typeColumn()    { return HEADER_SIZE + count * 34; }
+  private int qsoIdColumn()   { return HEADER_SIZE + count * 38; }
+  private int stationColumn() { return HEADER_SIZE + count * 42; }
+  private int offsetColumn()  { return HEADER_SIZE + count * 46; }
+  
+  
+  /**
+   * Writes the string if it was not written before.
+   * 
+   * @return the offset of the string relative to the beginning of the strings
+   */
+  private static int writeString(DataOutputStream out, HashMap<String, Integer> offsets, String str) throws IOException
+  {
+    Integer offset = offsets.get(str);
+    if(offset == null)
+    {
+      offset = out.size();
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      out.writeShort(bytes.length);
+      out.write(bytes);
+      offsets.put(str, offset);
+    }
+    return offset;
+  }
+  
+  
+  /**
+   * For strings which repeat from Qso to Qso - all Qsos get the same String
+   */
+  private String readString(HashMap<Integer, String> cache, int offset)
+  {
+    String str = cache.get(offset);
+    if(str == null)
+    {
+      str = readString(offset).intern();
+      cache.put(offset, str);
+    }
+    return str;
+  }
+  
+  
+  private String readString(int offset)
+  {
+    byte[] bytes = new byte[buffer.getShort(offset) & 0xFFFF];
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(offset + 2);
+    dup.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,365 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * LogDatabase which does the actual database writes in a separate thread.
+ * 
+ * The calls to add(), remove(), modify() and commit() only put an operation 
+ * inside a bounded queue and return immediately. A single persistence thread 
+ * takes the operations from the queue, applies them to the wrapped database and
+ * commits once for all operations that were waiting in the queue.
+ * 
+ * close() blocks until all queued operations are written and committed. The
+ * database must not be used after close().
+ * 
+ * Changes that couldn't be written stay queued (together with the ones after 
+ * them, so the order is kept) and are tried again on the next commit. Until
+ * then they are counted in the backlog and the error can be read through 
+ * getLastError().
+ */
+public class WriteBehindLogDatabase implements LogDatabase
+{
+  private static final Logger LOGGER = Logger.getLogger(WriteBehindLogDatabase.class.getName());
+  
+  private static final int QUEUE_SIZE = 10000; // Max number of operations waiting to be written
+  
+  private enum OperationTypes{ADD, REMOVE, MODIFY, COMMIT, FLUSH, STOP}
+  
+  private final LogDatabase                 db;            // The database which does the actual writing
+  private final BlockingQueue<Operation>    queue;
+  private final Thread                      threadPersistence;
+  private final AtomicInteger               backlog;       // Changes which are not yet committed to db
+  private final AtomicBoolean               isClosed;
+  private volatile String                   lastError;     // Why the last failed write failed, null if everything is written
+  
+  
+  /**
+   * @param db - the database to which the writes will be forwarded. Must not 
+   * be used directly after being passed to this class.
+   */
+  public WriteBehindLogDatabase(LogDatabase db)
+  {
+    this.db           = db;
+    queue             = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    backlog           = new AtomicInteger(0);
+    isClosed          = new AtomicBoolean(false);
+    threadPersistence = new Thread(new PersistenceWriter(), "threadLogPersistence");
+    threadPersistence.setDaemon(true); // close() waits for it anyway
+    threadPersistence.start();
+  }
+  
+  
+  /**
+   * @return Number of changes which are not yet committed to the database
+   * (including the ones that failed to be written)
+   */
+  public int getBacklog()
+  {
+    return backlog.get();
+  }
+  
+  
+  /**
+   * @return description of the last failed write or null if all changes were
+   * written
+   */
+  public String getLastError()
+  {
+    return lastError;
+  }
+  
+  
+  @Override
+  public List<Qso> getAll()
+  {
+    flush();
+    return db.getAll();
+  }
+
+  
+  @Override
+  public void add(Qso qso)
+  {
+    backlog.incrementAndGet();
+    enqueue(new Operation(OperationTypes.ADD, qso));
+  }
+
+  
+  @Override
+  public void remove(Qso qso)
+  {
+    backlog.incrementAndGet();
+    enqueue(new Operation(OperationTypes.REMOVE, qso));
+  }
+
+  
+  @Override
+  public void modify(Qso qso)
+  {
+    backlog.incrementAndGet();
+    enqueue(new Operation(OperationTypes.MODIFY, qso));
+  }
+
+  
+  @Override
+  public void commit()
+  {
+    enqueue(new Operation(OperationTypes.COMMIT, null));
+  }
+
+  
+  /**
+   * Waits till all queued operations are written and then closes the wrapped
+   * database.
+   */
+  @Override
+  public void close()
+  {
+    if(!isClosed.compareAndSet(false, true))
+    {
+      return; // Already closed - the persistence thread is not running anymore
+    }
+    
+    flushQueued();
+    put(new Operation(OperationTypes.STOP, null));
+    try
+    {
+      threadPersistence.join();
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+    db.close();
+  }
+  
+  
+  /**
+   * Blocks until all operations queued so far are written and committed.
+   */
+  public void flush()
+  {
+    if(isClosed.get())
+    {
+      return; // Flushed by close()
+    }
+    flushQueued();
+  }
+  
+  
+  private void flushQueued()
+  {
+    Operation op = new Operation(OperationTypes.FLUSH, null);
+    put(op);
+    try
+    {
+      op.done.await();
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  
+  private void enqueue(Operation op)
+  {
+    if(isClosed.get())
+    {
+      throw new LogDatabaseException("The log database is closed");
+    }
+    put(op);
+  }
+  
+  
+  private void put(Operation op)
+  {
+    try
+    {
+      queue.put(op); // Blocks only if the persistence thread is QUEUE_SIZE operations behind
+    }
+    catch(InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new LogDatabaseException("Interrupted while queuing a database operation");
+    }
+  }
+  
+  
+  private static class Operation
+  {
+    final OperationTypes type;
+    final Qso qso;
+    final CountDownLatch done = new CountDownLatch(1);
+    
+    Operation(OperationTypes type, Qso qso)
+    {
+      this.type = type;
+      this.qso  = qso;
+    }
+  }
+  
+  
+  /**
+   * Implements the thread which is writing the queued operations to the 
+   * database.
+   */
+  private class PersistenceWriter implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      boolean isRunning   = true;
+      int     uncommitted = 0; // Changes applied to db but not yet committed
+      ArrayDeque<Operation> failed = new ArrayDeque<>(); // Changes to be tried again on the next commit (in their order)
+      
+      while(isRunning)
+      {
+        Operation op;
+        try
+        {
+          op = queue.take(); // Wait for the next operation
+        }
+        catch(InterruptedException ex)
+        {
+          LOGGER.log(Level.WARNING, "Persistence thread was interrupted with " + queue.size() + " operations in the queue");
+          return;
+        }
+        
+        // Apply everything that is waiting in the queue and commit only once
+        boolean        isCommitNeeded = false;
+        CountDownLatch flushed        = null;
+        
+        while(op != null)
+        {
+          switch(op.type)
+          {
+            case ADD:
+            case REMOVE:
+            case MODIFY:
+              if(failed.isEmpty() && apply(op))
+              {
+                uncommitted++;
+              }
+              else
+              {
+                failed.add(op); // Must not overtake the ones that failed
+              }
+              break;
+            case COMMIT:
+              isCommitNeeded = true;
+              break;
+            case FLUSH:
+              isCommitNeeded = true;
+              flushed = op.done;
+              break;
+            case STOP:
+              isRunning = false;
+              break;
+          }
+          
+          if(flushed != null || !isRunning)
+          {
+            break; // Let the waiting thread continue as soon as possible
+          }
+          op = queue.poll();
+        }
+        
+        if(isCommitNeeded)
+        {
+          while(!failed.isEmpty() && apply(failed.peek()))
+          {
+            failed.poll();
+            uncommitted++;
+          }
+          
+          try
+          {
+            db.commit();
+            backlog.addAndGet(-uncommitted);
+            uncommitted = 0;
+            if(failed.isEmpty())
+            {
+              lastError = null;
+            }
+          }
+          catch(RuntimeException ex)
+          {
+            // The changes stay in the backlog - the next commit will try again
+            LOGGER.log(Level.SEVERE, "Couldn't commit to the log database", ex);
+            lastError = "Couldn't commit to the log database: " + ex.getMessage();
+          }
+        }
+        
+        if(flushed != null)
+        {
+          flushed.countDown();
+        }
+      }
+      
+      if(!failed.isEmpty())
+      {
+        LOGGER.log(Level.SEVERE, failed.size() + " changes couldn't be written to the log database");
+      }
+    }
+    
+    
+    /**
+     * @return false if the operation couldn't be applied
+     */
+    private boolean apply(Operation op)
+    {
+      try
+      {
+        switch(op.type)
+        {
+          case ADD:
+            db.add(op.qso);
+            break;
+          case REMOVE:
+            db.remove(op.qso);
+            break;
+          case MODIFY:
+            db.modify(op.qso);
+            break;
+        }
+        return true;
+      }
+      catch(RuntimeException ex)
+      {
+        // The change stays in the backlog so it is not shown as saved
+        LOGGER.log(Level.SEVERE, "Couldn't write Qso to the log database: " + op.qso, ex);
+        lastError = "Couldn't write Qso to the log database: " + ex.getMessage();
+        return false;
+      }
+    }
+  }
+}
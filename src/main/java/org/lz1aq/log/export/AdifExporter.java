@@ -0,0 +1,90 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.export;
+
+import org.lz1aq.log.Qso;
+import org.lz1aq.utils.Misc;
+
+/**
+ * Writes the log in ADIF format.
+ */
+public class AdifExporter extends LogExporter
+{
+  private final String programId;
+  private final String programVersion;
+  
+  
+  public AdifExporter(String programId, String programVersion)
+  {
+    this.programId      = programId;
+    this.programVersion = programVersion;
+  }
+  
+  
+  @Override
+  protected void appendHeader(StringBuilder sb)
+  {
+    sb.append("<programid>").append(programId);
+    newLine(sb);
+    sb.append("<programversion>").append(programVersion);
+    newLine(sb);
+    sb.append("<eoh>");
+  }
+  
+  
+  /**
+   * Same output as Qso.toStringAdif()
+   */
+  @Override
+  protected void appendQso(StringBuilder sb, Qso qso)
+  {
+    //<call:6>WN4AZY<band:3>20M<mode:4>RTTY<qso_date:8>19960513<time_on:4>1305<eor>
+    
+    appendField(sb, "band", Misc.freqToBand(qso.getFrequencyInt()) + "m", 4);
+    appendField(sb, "mode", qso.getModeAdifStyle(), 4);
+    appendField(sb, "qso_date", qso.getDate().replace("-", ""), 9);
+    appendField(sb, "time_on", qso.getTime(), 5);
+    appendField(sb, "call", qso.getHisCallsign(), 10);
+    
+    // Exchange
+    String snt = qso.getSnt();
+    String rcv = qso.getRcv();
+    sb.append("<comment:").append(snt.length()+1+rcv.length()).append('>');
+    sb.append(snt).append(' ').append(rcv);
+    
+    sb.append("<eor>");
+  }
+  
+  
+  @Override
+  protected void appendFooter(StringBuilder sb)
+  {
+  }
+  
+  
+  /**
+   * Appends "<name:length>value" with value padded to width
+   */
+  private static void appendField(StringBuilder sb, String name, String value, int width)
+  {
+    sb.append('<').append(name).append(':').append(value.length()).append('>');
+    appendLeftAligned(sb, value, width);
+  }
+}
@@ -0,0 +1,98 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.export;
+
+import org.lz1aq.log.Qso;
+
+/**
+ * Writes the log in Cabrillo v2.0 format.
+ */
+public class CabrilloExporter extends LogExporter
+{
+  private final String myCallsign;
+  private final String createdBy;
+  
+  
+  /**
+   * @param myCallsign - goes into the CALLSIGN: header
+   * @param createdBy - goes into the CREATED-BY: header (program name and version)
+   */
+  public CabrilloExporter(String myCallsign, String createdBy)
+  {
+    this.myCallsign = myCallsign;
+    this.createdBy  = createdBy;
+  }
+  
+  
+  @Override
+  protected void appendHeader(StringBuilder sb)
+  {
+    sb.append("START-OF-LOG: 2.0");
+    newLine(sb);
+    sb.append("CALLSIGN: ").append(myCallsign);
+    newLine(sb);
+    sb.append("CONTEST: ");
+    newLine(sb);
+    sb.append("CATEGORY: ");
+    newLine(sb);
+    sb.append("CLAIMED-SCORE: ");
+    newLine(sb);
+    sb.append("OPERATORS: ");
+    newLine(sb);
+    sb.append("NAME: ");
+    newLine(sb);
+    sb.append("ADDRESS: ");
+    newLine(sb);
+    sb.append("ADDRESS: ");
+    newLine(sb);
+    sb.append("CREATED-BY: ").append(createdBy);
+  }
+  
+  
+  /**
+   * Same output as Qso.toStringCabrillo()
+   */
+  @Override
+  protected void appendQso(StringBuilder sb, Qso qso)
+  {
+    String freq = qso.getFrequency();
+    
+    sb.append("QSO: ");
+    appendRightAligned(sb, freq.subSequence(0, freq.length()-3), 5); // in kHz
+    sb.append(' ').append(qso.getModeCabrilloStyle());
+    sb.append(' ').append(qso.getDate());
+    sb.append(' ').append(qso.getTime());
+    sb.append(' ');
+    appendLeftAligned(sb, qso.getMyCallsign(), 13);
+    sb.append(' ');
+    appendLeftAligned(sb, qso.getSnt(), 13);
+    sb.append(' ');
+    appendLeftAligned(sb, qso.getHisCallsign(), 13);
+    sb.append(' ');
+    appendLeftAligned(sb, qso.getRcv(), 13);
+  }
+  
+  
+  @Override
+  protected void appendFooter(StringBuilder sb)
+  {
+    sb.append("END-OF-LOG:");
+  }
+}
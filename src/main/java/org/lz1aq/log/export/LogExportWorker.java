@@ -0,0 +1,77 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.export;
+
+import java.nio.file.Path;
+import javax.swing.SwingWorker;
+import org.lz1aq.log.LogSnapshot;
+
+/**
+ * Runs a LogExporter on a background thread.
+ *
+ * The progress (0-100) is published through the standard SwingWorker "progress"
+ * property, so it can be shown by a PropertyChangeListener on the Swing thread.
+ * Users override done() and call get() to find out if the export succeeded.
+ */
+public class LogExportWorker extends SwingWorker<Integer, Void>
+{
+  private final LogExporter exporter;
+  private final LogSnapshot snapshot;
+  private final Path        file;
+  
+  
+  /**
+   * @param exporter - defines the file format
+   * @param snapshot - should be taken on the Swing thread (Log.getSnapshot())
+   * @param file - the file must not exist
+   */
+  public LogExportWorker(LogExporter exporter, LogSnapshot snapshot, Path file)
+  {
+    this.exporter = exporter;
+    this.snapshot = snapshot;
+    this.file     = file;
+  }
+  
+  
+  public Path getFile()
+  {
+    return file;
+  }
+  
+  
+  /**
+   * @return The count of exported Qsos
+   * @throws Exception 
+   */
+  @Override
+  protected Integer doInBackground() throws Exception
+  {
+    exporter.export(snapshot, file, new ExportProgressListener()
+    {
+      @Override
+      public void progress(int done, int total)
+      {
+        setProgress(total == 0 ? 100 : (int) ((long) done*100/total));
+      }
+    });
+    
+    return snapshot.getSize();
+  }
+}
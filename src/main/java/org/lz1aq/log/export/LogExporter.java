@@ -0,0 +1,183 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.lz1aq.log.LogSnapshot;
+import org.lz1aq.log.Qso;
+
+/**
+ * Streams the Qsos from a LogSnapshot into a file.
+ *
+ * Every Qso is rendered into a single reusable StringBuilder and from there
+ * directly into a buffered writer, so no per-line or per-field objects (like
+ * java.util.Formatter) are created during the export. Subclasses only define
+ * the file header, the Qso line and the file footer.
+ *
+ * The export goes through a LogSnapshot so it sees the log as it was when the
+ * export started even if Qsos are added or removed in the meantime.
+ */
+public abstract class LogExporter
+{
+  private static final int    BUFFER_SIZE    = 64*1024;
+  private static final int    PROGRESS_STEP  = 100;   // Report progress every that many Qsos
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+  
+  private final StringBuilder line = new StringBuilder(128);
+  
+  
+  /**
+   * Exports the Qsos into a new file.
+   * 
+   * @param snapshot - the Qsos to be exported
+   * @param file - the file must not exist
+   * @param progressListener - can be null
+   * @throws IOException 
+   */
+  public void export(LogSnapshot snapshot, Path file, ExportProgressListener progressListener) throws IOException
+  {
+    try(Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                                                               Charset.defaultCharset()), 
+                                        BUFFER_SIZE))
+    {
+      export(snapshot, out, progressListener);
+    }
+  }
+  
+  
+  /**
+   * Exports the Qsos into a writer. The writer is not closed.
+   * 
+   * @param snapshot - the Qsos to be exported
+   * @param out - where the Qsos are written
+   * @param progressListener - can be null
+   * @throws IOException 
+   */
+  public void export(LogSnapshot snapshot, Writer out, ExportProgressListener progressListener) throws IOException
+  {
+    int total = snapshot.getSize();
+    
+    line.setLength(0);
+    appendHeader(line);
+    writeLine(out);
+    
+    for(int i = 0; i < total; i++)
+    {
+      Qso qso = snapshot.get(i);
+      line.setLength(0);
+      // Take the Qso lock once so that a concurrent edit can't tear the line
+      synchronized(qso)
+      {
+        appendQso(line, qso);
+      }
+      writeLine(out);
+      
+      if(progressListener != null && (i+1)%PROGRESS_STEP == 0)
+      {
+        progressListener.progress(i+1, total);
+      }
+    }
+    
+    line.setLength(0);
+    appendFooter(line);
+    writeLine(out);
+    out.flush();
+    
+    if(progressListener != null)
+    {
+      progressListener.progress(total, total);
+    }
+  }
+  
+  
+  /**
+   * Appends the file header. Multiple lines are separated with newLine().
+   * Nothing is written if nothing is appended.
+   */
+  protected abstract void appendHeader(StringBuilder sb);
+  
+  /**
+   * Appends a single Qso line (without line separator)
+   */
+  protected abstract void appendQso(StringBuilder sb, Qso qso);
+  
+  /**
+   * Appends the file footer. Nothing is written if nothing is appended.
+   */
+  protected abstract void appendFooter(StringBuilder sb);
+  
+  
+  /**
+   * Appends a line separator. To be used between the lines of a header or
+   * footer.
+   */
+  protected static void newLine(StringBuilder sb)
+  {
+    sb.append(LINE_SEPARATOR);
+  }
+  
+  
+  /**
+   * Same as "%-<width>s"
+   */
+  protected static void appendLeftAligned(StringBuilder sb, String str, int width)
+  {
+    sb.append(str);
+    appendSpaces(sb, width - str.length());
+  }
+  
+  
+  /**
+   * Same as "%<width>s"
+   */
+  protected static void appendRightAligned(StringBuilder sb, CharSequence str, int width)
+  {
+    appendSpaces(sb, width - str.length());
+    sb.append(str);
+  }
+  
+  
+  private static void appendSpaces(StringBuilder sb, int count)
+  {
+    for(int i = 0; i < count; i++)
+    {
+      sb.append(' ');
+    }
+  }
+  
+  
+  private void writeLine(Writer out) throws IOException
+  {
+    if(line.length() == 0)
+    {
+      return;
+    }
+    
+    line.append(LINE_SEPARATOR);
+    out.append(line);
+  }
+}
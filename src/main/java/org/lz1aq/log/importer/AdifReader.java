@@ -0,0 +1,304 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Locale;
+import org.lz1aq.log.Qso;
+import org.lz1aq.radio.RadioModes;
+import org.lz1aq.utils.Misc;
+
+/**
+ * Reads the Qsos out of an ADIF file.
+ *
+ * Fields look like <name:length>value or <name:length:type>value and every 
+ * record ends with <eor>. Everything before <eoh> is the header. 
+ * 
+ * The exchange is taken from the stx/srx (and rst) fields. Files written by
+ * this program keep it inside the comment field as "snt rcv".
+ */
+public class AdifReader extends QsoReader
+{
+  private final HashMap<String, String> fields = new HashMap<>();
+  private final StringBuilder tag = new StringBuilder(32);
+  
+  
+  public AdifReader(Reader in)
+  {
+    super(in);
+  }
+  
+  
+  @Override
+  public Qso next() throws IOException
+  {
+    while(readField())
+    {
+      if(tag.length() == 0)
+      {
+        continue;
+      }
+      
+      String name = getTagName();
+      if(name.equals("eoh"))
+      {
+        fields.clear(); // Ignore the header fields
+      }
+      else if(name.equals("eor"))
+      {
+        Qso qso = toQso();
+        fields.clear();
+        if(qso != null)
+        {
+          return qso;
+        }
+        skipRecord();
+      }
+    }
+    
+    return null;
+  }
+  
+  
+  /**
+   * Reads the next <...> tag into "tag" and its value into "fields"
+   * 
+   * @return false if the end of file was reached
+   */
+  private boolean readField() throws IOException
+  {
+    int c;
+    
+    // Skip everything until the next tag
+    do
+    {
+      c = in.read();
+    }while(c != -1 && c != '<');
+    
+    tag.setLength(0);
+    while((c = in.read()) != -1 && c != '>')
+    {
+      tag.append((char) c);
+    }
+    if(c == -1)
+    {
+      return false;
+    }
+    
+    int length = getTagLength();
+    if(length <= 0)
+    {
+      return true;
+    }
+    
+    char[] value = new char[length];
+    int count = 0;
+    while(count < length)
+    {
+      int read = in.read(value, count, length-count);
+      if(read == -1)
+      {
+        return false;
+      }
+      count += read;
+    }
+    
+    fields.put(getTagName(), new String(value).trim());
+    return true;
+  }
+  
+  
+  /**
+   * @return The name of the current tag in lower case
+   */
+  private String getTagName()
+  {
+    int end = tag.indexOf(":");
+    String name = end < 0 ? tag.toString() : tag.substring(0, end);
+    return name.trim().toLowerCase(Locale.ROOT);
+  }
+  
+  
+  /**
+   * @return The length of the value of the current tag or 0 if not specified
+   */
+  private int getTagLength()
+  {
+    int start = tag.indexOf(":");
+    if(start < 0)
+    {
+      return 0;
+    }
+    int end = tag.indexOf(":", start+1);
+    if(end < 0)
+    {
+      end = tag.length();
+    }
+    
+    try
+    {
+      return Integer.parseInt(tag.substring(start+1, end).trim());
+    }
+    catch(NumberFormatException ex)
+    {
+      return 0;
+    }
+  }
+  
+  
+  /**
+   * @return Qso out of the fields of the current record or null if some of the
+   * needed fields are missing
+   */
+  private Qso toQso()
+  {
+    String hisCall = getField("call");
+    String date    = toQsoDate(getField("qso_date"));
+    String time    = toQsoTime(getField("time_on"));
+    if(hisCall.isEmpty() || date == null || time == null || !isValidDateTime(date, time))
+    {
+      return null;
+    }
+    
+    long freq = toFrequency(getField("freq"), getField("band"));
+    if(freq <= 0)
+    {
+      return null;
+    }
+    
+    RadioModes mode = toMode(getField("mode"), getField("submode"), freq);
+    if(mode == null)
+    {
+      return null;
+    }
+    
+    String myCall = getField("station_callsign");
+    if(myCall.isEmpty())
+    {
+      myCall = getField("operator");
+    }
+    
+    String snt = join(getField("rst_sent"), getField("stx_string").isEmpty() ? getField("stx") : getField("stx_string"));
+    String rcv = join(getField("rst_rcvd"), getField("srx_string").isEmpty() ? getField("srx") : getField("srx_string"));
+    if(snt.isEmpty() && rcv.isEmpty())
+    {
+      // The exchange as written by the AdifExporter: "snt rcv"
+      String[] exchange = getField("comment").split("\\s+");
+      if(exchange.length % 2 == 0)
+      {
+        snt = join(exchange, 0, exchange.length/2);
+        rcv = join(exchange, exchange.length/2, exchange.length);
+      }
+    }
+    
+    return newQso(date, time, freq, mode, myCall, hisCall, snt, rcv);
+  }
+  
+  
+  /**
+   * @return The value of the field or empty string if missing
+   */
+  private String getField(String name)
+  {
+    String value = fields.get(name);
+    return value == null ? "" : value;
+  }
+  
+  
+  /**
+   * @param date - "YYYYMMDD"
+   * @return "YYYY-MM-DD" or null if not valid
+   */
+  private static String toQsoDate(String date)
+  {
+    if(date.length() != 8)
+    {
+      return null;
+    }
+    return date.substring(0, 4) + "-" + date.substring(4, 6) + "-" + date.substring(6, 8);
+  }
+  
+  
+  /**
+   * @param time - "HHMM" or "HHMMSS"
+   * @return "HHMM" or null if not valid
+   */
+  private static String toQsoTime(String time)
+  {
+    if(time.length() != 4 && time.length() != 6)
+    {
+      return null;
+    }
+    return time.substring(0, 4);
+  }
+  
+  
+  /**
+   * @param freq - in MHz, can be empty
+   * @param band - e.g. "80m", used if freq is missing
+   * @return Frequency in Hz or 0 if not valid
+   */
+  private static long toFrequency(String freq, String band)
+  {
+    if(!freq.isEmpty())
+    {
+      try
+      {
+        return new BigDecimal(freq).movePointRight(6).longValue();
+      }
+      catch(NumberFormatException ex)
+      {
+        // Try with the band
+      }
+    }
+    
+    if(band.toLowerCase(Locale.ROOT).endsWith("m"))
+    {
+      band = band.substring(0, band.length()-1);
+    }
+    return Misc.bandToFreq(band);
+  }
+  
+  
+  private static RadioModes toMode(String mode, String submode, long freq)
+  {
+    switch(mode.toUpperCase(Locale.ROOT))
+    {
+      case "SSB":
+        RadioModes sideband = toRadioMode(submode.toUpperCase(Locale.ROOT)); // USB or LSB
+        return sideband != null ? sideband : getPhoneMode(freq);
+      default:
+        return toRadioMode(mode.toUpperCase(Locale.ROOT)); // CW, RTTY, FM ...
+    }
+  }
+  
+  
+  private static String join(String first, String second)
+  {
+    if(first.isEmpty() || second.isEmpty())
+    {
+      return first + second;
+    }
+    return first + " " + second;
+  }
+}
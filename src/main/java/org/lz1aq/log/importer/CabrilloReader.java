@@ -0,0 +1,155 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import org.lz1aq.log.Qso;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Reads the Qsos out of a Cabrillo file.
+ *
+ * Only the "QSO:" lines are used. The exchange is expected to have the same
+ * count of fields in both directions (which is true for most contests), an 
+ * optional transmitter ID at the end of the line is ignored. Example:
+ * QSO:  3545 CW 2016-08-20 0802 LZ0AA         004 003       LZ0AZ         004 004 
+ */
+public class CabrilloReader extends QsoReader
+{
+  private static final String QSO_TAG = "QSO:";
+  private static final String END_TAG = "END-OF-LOG:";
+  
+  private static final int MYCALL_FIELD = 4; // Comes after freq, mode, date and time
+  
+  
+  public CabrilloReader(Reader in)
+  {
+    super(in);
+  }
+  
+  
+  @Override
+  public Qso next() throws IOException
+  {
+    String line;
+    while((line = in.readLine()) != null)
+    {
+      line = line.trim();
+      if(line.regionMatches(true, 0, END_TAG, 0, END_TAG.length()))
+      {
+        return null;
+      }
+      if(!line.regionMatches(true, 0, QSO_TAG, 0, QSO_TAG.length()))
+      {
+        continue; // Header line
+      }
+      
+      Qso qso = parseQso(line.substring(QSO_TAG.length()).trim().split("\\s+"));
+      if(qso != null)
+      {
+        return qso;
+      }
+      skipRecord();
+    }
+    
+    return null;
+  }
+  
+  
+  /**
+   * @param fields - the fields after the "QSO:" tag
+   * @return The Qso or null if the line is not valid
+   */
+  private Qso parseQso(String[] fields)
+  {
+    // freq mode date time myCall snt... hisCall rcv... [transmitterId]
+    int callFields = fields.length - MYCALL_FIELD;
+    if(callFields % 2 == 1)
+    {
+      callFields--; // Transmitter ID
+    }
+    if(callFields < 2)
+    {
+      return null;
+    }
+    
+    long freq = toFrequency(fields[0]);
+    if(freq <= 0)
+    {
+      return null;
+    }
+    
+    RadioModes mode = toMode(fields[1], freq);
+    if(mode == null)
+    {
+      return null;
+    }
+    
+    String date = fields[2];
+    String time = fields[3];
+    if(!isValidDateTime(date, time))
+    {
+      return null;
+    }
+    
+    int first = MYCALL_FIELD;
+    int half  = callFields/2;
+    String myCall  = fields[first];
+    String snt     = join(fields, first+1, first+half);
+    String hisCall = fields[first+half];
+    String rcv     = join(fields, first+half+1, first+callFields);
+    
+    return newQso(date, time, freq, mode, myCall, hisCall, snt, rcv);
+  }
+  
+  
+  /**
+   * @param freq - in kHz for HF (e.g. "3545") or in MHz for VHF (e.g. "144")
+   * @return Frequency in Hz or 0 if not valid
+   */
+  private static long toFrequency(String freq)
+  {
+    try
+    {
+      long value = Long.parseLong(freq);
+      return value < 1000 ? value*1000000 : value*1000;
+    }
+    catch(NumberFormatException ex)
+    {
+      return 0;
+    }
+  }
+  
+  
+  private static RadioModes toMode(String mode, long freq)
+  {
+    switch(mode.toUpperCase(Locale.ROOT))
+    {
+      case "PH":
+        return getPhoneMode(freq);
+      case "RY":
+        return RadioModes.RTTY;
+      default:
+        return toRadioMode(mode.toUpperCase(Locale.ROOT)); // CW, FM ...
+    }
+  }
+}
@@ -17,52 +17,67 @@
 // *   Free Software Foundation, Inc.,                                       
 // *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
 // ***************************************************************************
-package org.lz1aq.utils;
+package org.lz1aq.log.importer;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.SwingWorker;
+import org.lz1aq.log.Qso;
 
 /**
- * DynamicByteArray extends ByteArrayOutputStream and add one additional method
- * remove() which removes desired number of bytes starting from the beginning 
- * of the array.
+ * Reads a log file on a background thread.
+ *
+ * The Qsos are not added to the Log here as the Log listeners update Swing
+ * components. Users override done() and pass the result of get() to
+ * Log.addAll() which commits them at once.
  */
-public class DynamicByteArray extends ByteArrayOutputStream 
+public class LogImportWorker extends SwingWorker<List<Qso>, Void>
 {
-  // private static final Logger logger = Logger.getLogger(DynamicByteArray.class.getName());
+  private final Path file;
+  private volatile int skippedCount;
   
-  public DynamicByteArray()
+  
+  /**
+   * @param file - ADIF or Cabrillo file, see QsoReader.open()
+   */
+  public LogImportWorker(Path file)
   {
-    super();
+    this.file = file;
   }
-  public DynamicByteArray(int i)
+  
+  
+  public Path getFile()
   {
-    super(i);
+    return file;
   }
   
+  
   /**
-   * Removes bytes starting from the beginning of the array.
-   * 
-   * @param bytesCount  - the number of bytes that we would like to remove.
-   * If the number of bytes is more than the amount inside the array no error
-   * will occur and all bytes from the array will be deleted
-   * 
+   * @return The count of records which were not valid. Available after the
+   * worker is done.
    */
-  public void remove(int bytesCount)
+  public int getSkippedCount()
   {
+    return skippedCount;
+  }
+  
+  
+  @Override
+  protected List<Qso> doInBackground() throws Exception
+  {
+    ArrayList<Qso> qsos = new ArrayList<>();
     
-    if(bytesCount==0)
-      return;
-    
-    // We can't remove more than there is in the array
-    if(bytesCount > this.count)
-      bytesCount = this.count;
-            
-    System.arraycopy(this.buf, bytesCount, buf, 0, this.count-bytesCount);
-    
-    this.count -=bytesCount;
-    
-    // logger.log(Level.INFO, "Removed: "+removedBytes+"; Remaining: "+this.count+";  Buffer size "+this.buf.length);
+    try(QsoReader reader = QsoReader.open(file))
+    {
+      Qso qso;
+      while((qso = reader.next()) != null)
+      {
+        qsos.add(qso);
+      }
+      skippedCount = reader.getSkippedCount();
+    }
     
+    return qsos;
   }
-  
 }
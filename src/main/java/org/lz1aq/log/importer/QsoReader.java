@@ -0,0 +1,204 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.importer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import org.lz1aq.log.Qso;
+import org.lz1aq.radio.RadioModes;
+import org.lz1aq.utils.TimeUtils;
+
+/**
+ * Reads Qsos one by one out of a log file made by another program (or another
+ * station), so that even big files don't need to be kept in memory as text.
+ *
+ * Records which can't be turned into a Qso are skipped and counted.
+ */
+public abstract class QsoReader implements Closeable
+{
+  /**
+   * Neither ADIF nor Cabrillo tell if the Qso was made while calling CQ or 
+   * during S&P. Imported Qsos are marked as CQ so they don't show up as spots
+   * inside the bandmap.
+   */
+  public static final String IMPORTED_TYPE = "CQ";
+  
+  /** Frequencies below this use LSB for phone */
+  private static final long USB_START_FREQ = 10000000;
+  
+  protected final BufferedReader in;
+  private int skippedCount;
+  
+  
+  public QsoReader(Reader in)
+  {
+    if(in instanceof BufferedReader)
+    {
+      this.in = (BufferedReader) in;
+    }
+    else
+    {
+      this.in = new BufferedReader(in);
+    }
+  }
+  
+  
+  /**
+   * Opens a log file. The format is chosen by the file extension: ".adi" and
+   * ".adif" are read as ADIF, everything else as Cabrillo.
+   * 
+   * @param file
+   * @return Reader which must be closed by the caller
+   * @throws IOException 
+   */
+  public static QsoReader open(Path file) throws IOException
+  {
+    Reader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1);
+    String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+    
+    if(name.endsWith(".adi") || name.endsWith(".adif"))
+    {
+      return new AdifReader(reader);
+    }
+    return new CabrilloReader(reader);
+  }
+  
+  
+  /**
+   * @return The next Qso from the file or null if there are no more Qsos
+   * @throws IOException 
+   */
+  public abstract Qso next() throws IOException;
+  
+  
+  /**
+   * @return The count of records which were skipped because they were not valid
+   */
+  public int getSkippedCount()
+  {
+    return skippedCount;
+  }
+  
+  
+  @Override
+  public void close() throws IOException
+  {
+    in.close();
+  }
+  
+  
+  protected void skipRecord()
+  {
+    skippedCount++;
+  }
+  
+  
+  /**
+   * Creates a Qso out of a record of the log file. The exchange is normalised
+   * (upper case, single spaces) and the Qso is marked as imported, so that it
+   * doesn't change the serial number and the exchange of the next Qso.
+   */
+  protected static Qso newQso(String date, String time, long freq, RadioModes mode, String myCall, String hisCall, String snt, String rcv)
+  {
+    Qso qso = new Qso(date, time, freq, mode, myCall, hisCall, normaliseExchange(snt), normaliseExchange(rcv), IMPORTED_TYPE);
+    qso.setImported(true);
+    return qso;
+  }
+  
+  
+  /**
+   * @return The exchange in upper case with the words separated by a single
+   * space
+   */
+  protected static String normaliseExchange(String exchange)
+  {
+    return exchange.trim().replaceAll("\\s+", " ").toUpperCase(Locale.ROOT);
+  }
+  
+  
+  /**
+   * @param date - "yyyy-MM-dd"
+   * @param time - "HHmm"
+   * @return true if date and time can be used for a Qso
+   */
+  protected static boolean isValidDateTime(String date, String time)
+  {
+    try
+    {
+      TimeUtils.toDateTime(date, time);
+      return true;
+    }
+    catch(IllegalArgumentException ex)
+    {
+      return false;
+    }
+  }
+  
+  
+  /**
+   * @param freq - in Hz, used to choose the sideband for phone Qsos
+   * @return The mode for the SSB/phone Qsos 
+   */
+  protected static RadioModes getPhoneMode(long freq)
+  {
+    return freq < USB_START_FREQ ? RadioModes.LSB : RadioModes.USB;
+  }
+  
+  
+  /**
+   * @return fields[from] ... fields[to-1] separated by a space
+   */
+  protected static String join(String[] fields, int from, int to)
+  {
+    StringBuilder sb = new StringBuilder();
+    for(int i = from; i < to; i++)
+    {
+      if(i > from)
+      {
+        sb.append(' ');
+      }
+      sb.append(fields[i]);
+    }
+    return sb.toString();
+  }
+  
+  
+  /**
+   * @param mode - a name from RadioModes
+   * @return The mode or null if unknown
+   */
+  protected static RadioModes toRadioMode(String mode)
+  {
+    try
+    {
+      return RadioModes.valueOf(mode);
+    }
+    catch(IllegalArgumentException ex)
+    {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.lz1aq.log.LogDatabaseException;
+import org.lz1aq.log.Qso;
+import org.lz1aq.log.QsoSerializer;
+
+/**
+ * A single change of a Log which is sent between the operating positions.
+ *
+ * Added and modified Qsos are sent as a whole (not only the changed parameter)
+ * so applying the same change twice has the same result as applying it once.
+ *
+ * The Qso of a local change is serialized when the change is made, because it
+ * can be changed again before the change is sent (e.g. by the writer thread of
+ * the LogSyncServer).
+ */
+public final class LogChange
+{
+  public enum Type
+  {
+    ADD,
+    MODIFY,
+    REMOVE
+  }
+  
+  private final Type   type;
+  private final String qsoId;
+  private final byte[] qsoData; // The serialized Qso of a local change, null for REMOVE and for received changes
+  private Qso          qso;     // The received Qso or qsoData after getQso(), null for REMOVE
+  
+  
+  private LogChange(Type type, String qsoId, byte[] qsoData, Qso qso)
+  {
+    this.type    = type;
+    this.qsoId   = qsoId;
+    this.qsoData = qsoData;
+    this.qso     = qso;
+  }
+  
+  
+  public static LogChange added(Qso qso)
+  {
+    return new LogChange(Type.ADD, qso.getId(), serialize(qso), null);
+  }
+  
+  
+  public static LogChange modified(Qso qso)
+  {
+    return new LogChange(Type.MODIFY, qso.getId(), serialize(qso), null);
+  }
+  
+  
+  public static LogChange removed(String qsoId)
+  {
+    return new LogChange(Type.REMOVE, qsoId, null, null);
+  }
+  
+  
+  public Type getType()
+  {
+    return type;
+  }
+  
+  
+  public String getQsoId()
+  {
+    return qsoId;
+  }
+  
+  
+  /**
+   * @return The Qso as it was when the change was made or null for REMOVE
+   */
+  public synchronized Qso getQso()
+  {
+    if(qso == null && qsoData != null)
+    {
+      try
+      {
+        qso = QsoSerializer.read(new DataInputStream(new ByteArrayInputStream(qsoData)));
+      }
+      catch(IOException ex)
+      {
+        throw new LogDatabaseException("Couldn't read Qso " + qsoId, ex); // Should not happen when reading from memory
+      }
+    }
+    return qso;
+  }
+  
+  
+  /**
+   * Format: type (byte) followed by the Qso (see QsoSerializer) for ADD and
+   * MODIFY or by the Qso id (UTF) for REMOVE.
+   */
+  void write(DataOutput out) throws IOException
+  {
+    out.writeByte(type.ordinal());
+    if(type == Type.REMOVE)
+    {
+      out.writeUTF(qsoId);
+    }
+    else if(qsoData != null)
+    {
+      out.write(qsoData);
+    }
+    else
+    {
+      QsoSerializer.write(out, qso);
+    }
+  }
+  
+  
+  static LogChange read(DataInput in) throws IOException
+  {
+    int ordinal = in.readByte();
+    if(ordinal < 0 || ordinal >= Type.values().length)
+    {
+      throw new IOException("Invalid change type: " + ordinal);
+    }
+    
+    Type type = Type.values()[ordinal];
+    if(type == Type.REMOVE)
+    {
+      return removed(in.readUTF());
+    }
+    
+    Qso qso = QsoSerializer.read(in);
+    return new LogChange(type, qso.getId(), null, qso);
+  }
+  
+  
+  private static byte[] serialize(Qso qso)
+  {
+    try
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      DataOutputStream out = new DataOutputStream(bytes);
+      QsoSerializer.write(out, qso);
+      out.flush();
+      return bytes.toByteArray();
+    }
+    catch(IOException ex)
+    {
+      throw new LogDatabaseException("Couldn't serialize Qso: " + qso, ex); // Should not happen when writing to memory
+    }
+  }
+  
+  
+  @Override
+  public String toString()
+  {
+    return type + " " + qsoId;
+  }
+}
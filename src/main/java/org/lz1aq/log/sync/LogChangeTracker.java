@@ -0,0 +1,329 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.sync;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.lz1aq.log.Log;
+import org.lz1aq.log.LogBatch;
+import org.lz1aq.log.LogListener;
+import org.lz1aq.log.LogSnapshot;
+import org.lz1aq.log.Qso;
+
+/**
+ * Turns the events of a Log into LogChanges and applies LogChanges received
+ * from another operating position to the Log.
+ *
+ * On the followers the changes done by apply() are not reported, otherwise
+ * they would be sent back and forth forever. On the primary they are reported
+ * like the local changes so that they reach all followers.
+ */
+class LogChangeTracker implements LogListener
+{
+  interface Sink
+  {
+    /**
+     * Called for every reported change of the Log. Called from the thread 
+     * that changed the Log while the Log is locked.
+     */
+    void changed(LogChange change);
+  }
+  
+  private final Log  log;
+  private final Sink sink;
+  private final boolean isReportingApplied;
+  private final HashMap<String, Version> states; // Qso id -> Qso version as of the last event. Used for finding what a bulk change did.
+  private boolean isApplying;
+  
+  
+  /**
+   * @param log - the Log whose events are tracked
+   * @param sink - receives the changes
+   * @param isReportingApplied - true if changes done by apply() should be 
+   * reported too
+   */
+  LogChangeTracker(Log log, Sink sink, boolean isReportingApplied)
+  {
+    this.log                = log;
+    this.sink               = sink;
+    this.isReportingApplied = isReportingApplied;
+    this.states             = new HashMap<>();
+  }
+  
+  
+  /**
+   * Applies a change done on another operating position. Changes which are
+   * already done are ignored, so it is safe to apply a change twice.
+   * 
+   * @param change
+   * @return true if the Log was changed
+   */
+  boolean apply(LogChange change)
+  {
+    // The Log lock makes sure that only our own changes are hidden from the sink
+    synchronized(log)
+    {
+      isApplying = true;
+      try
+      {
+        return applyChange(change);
+      }
+      finally
+      {
+        isApplying = false;
+      }
+    }
+  }
+  
+  
+  /**
+   * Merges the snapshot of another operating position into the Log. Local
+   * Qsos which are not inside the snapshot are kept - a Qso is removed only by
+   * an explicit REMOVE change.
+   * 
+   * @param qsos - all Qsos of the other log
+   * @return the local Qsos which are not inside qsos (e.g. still not received
+   * by the other side)
+   */
+  List<Qso> applyAll(final List<Qso> qsos)
+  {
+    final ArrayList<Qso> localOnly = new ArrayList<>();
+    
+    synchronized(log)
+    {
+      isApplying = true;
+      try
+      {
+        log.runBatch(new LogBatch()
+        {
+          @Override
+          protected void run()
+          {
+            HashMap<String, Integer> localRows = new HashMap<>();
+            for(int i = 0; i < getSize(); i++)
+            {
+              localRows.put(get(i).getId(), i);
+            }
+            
+            HashSet<String> remoteIds = new HashSet<>();
+            for(Qso remote : qsos)
+            {
+              remoteIds.add(remote.getId());
+              Integer row = localRows.get(remote.getId());
+              if(row == null)
+              {
+                add(remote);
+              }
+              else
+              {
+                for(int col : getChangedParams(get(row), remote))
+                {
+                  setValueAt(remote.getParamValue(col), row, col);
+                }
+              }
+            }
+            
+            for(int i = 0; i < getSize(); i++)
+            {
+              if(!remoteIds.contains(get(i).getId()))
+              {
+                localOnly.add(get(i));
+              }
+            }
+          }
+        });
+      }
+      finally
+      {
+        isApplying = false;
+      }
+    }
+    
+    return localOnly;
+  }
+  
+  
+  private boolean applyChange(LogChange change)
+  {
+    int row = log.indexOf(change.getQsoId());
+    
+    switch(change.getType())
+    {
+      case ADD:
+        if(row >= 0)
+        {
+          return false; // Already added
+        }
+        log.add(change.getQso());
+        return true;
+        
+      case MODIFY:
+        if(row < 0)
+        {
+          return false; // Removed in the meantime
+        }
+        List<Integer> cols = getChangedParams(log.get(row), change.getQso());
+        for(int col : cols)
+        {
+          log.setValueAt(change.getQso().getParamValue(col), row, col);
+        }
+        return !cols.isEmpty();
+        
+      case REMOVE:
+        if(row < 0)
+        {
+          return false; // Already removed
+        }
+        log.remove(row);
+        return true;
+        
+      default:
+        return false;
+    }
+  }
+  
+  
+  /**
+   * @return The indexes of the parameters which have different values
+   */
+  private static List<Integer> getChangedParams(Qso local, Qso remote)
+  {
+    ArrayList<Integer> cols = new ArrayList<>();
+    int count = Math.min(local.getParamsCount(), remote.getParamsCount());
+    for(int col = 0; col < count; col++)
+    {
+      if(!local.getParamValue(col).equals(remote.getParamValue(col)))
+      {
+        cols.add(col);
+      }
+    }
+    return cols;
+  }
+  
+  
+  private void report(LogChange change)
+  {
+    if(!isApplying || isReportingApplied)
+    {
+      sink.changed(change);
+    }
+  }
+  
+  
+  /**
+   * The id and the version are known without reading the whole Qso (see 
+   * QsoSnapshotFile), so this doesn't load the log.
+   */
+  @Override
+  public void eventInit()
+  {
+    states.clear();
+    LogSnapshot snapshot = log.getSnapshot();
+    for(int i = 0; i < snapshot.getSize(); i++)
+    {
+      Qso qso = snapshot.get(i);
+      states.put(qso.getId(), new Version(qso));
+    }
+  }
+
+  
+  @Override
+  public void eventQsoAdded(Qso qso, int row)
+  {
+    states.put(qso.getId(), new Version(qso));
+    report(LogChange.added(qso));
+  }
+
+  
+  @Override
+  public void eventQsoRemoved(Qso qso, int row)
+  {
+    states.remove(qso.getId());
+    report(LogChange.removed(qso.getId()));
+  }
+
+  
+  @Override
+  public void eventQsoModified(Qso qso, int row, int col, String oldValue)
+  {
+    states.put(qso.getId(), new Version(qso));
+    report(LogChange.modified(qso));
+  }
+
+  
+  /**
+   * The event doesn't say what was changed, so the versions of the Qsos are
+   * compared with the ones known from the previous events. Every change of a
+   * Qso gives it a new version (see Log.stamp() and LogBatch.setVersion()).
+   */
+  @Override
+  public void eventBulkChange()
+  {
+    HashMap<String, Version> old = new HashMap<>(states);
+    states.clear();
+    
+    LogSnapshot snapshot = log.getSnapshot();
+    for(int i = 0; i < snapshot.getSize(); i++)
+    {
+      Qso qso = snapshot.get(i);
+      Version oldVersion = old.remove(qso.getId());
+      Version version = oldVersion != null && oldVersion.isSame(qso) ? oldVersion : new Version(qso);
+      states.put(qso.getId(), version);
+      
+      if(oldVersion == null)
+      {
+        report(LogChange.added(qso));
+      }
+      else if(version != oldVersion)
+      {
+        report(LogChange.modified(qso));
+      }
+    }
+    
+    for(Map.Entry<String, Version> removed : old.entrySet())
+    {
+      report(LogChange.removed(removed.getKey()));
+    }
+  }
+  
+  
+  /**
+   * Version of a Qso as of the last event
+   */
+  private static final class Version
+  {
+    final long   number;
+    final String station;
+    
+    Version(Qso qso)
+    {
+      number  = qso.getVersion();
+      station = qso.getVersionStation();
+    }
+    
+    boolean isSame(Qso qso)
+    {
+      return number == qso.getVersion() && station.equals(qso.getVersionStation());
+    }
+  }
+}
@@ -0,0 +1,432 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.lz1aq.log.Log;
+import org.lz1aq.log.Qso;
+import org.lz1aq.log.QsoSerializer;
+
+/**
+ * The follower side of the log replication (see LogSyncServer).
+ *
+ * Changes received from the primary are applied to the local Log. Local 
+ * changes are sent to the primary as requests and are kept until the primary
+ * confirms them, so they are sent again if the connection breaks. If the 
+ * primary can't be reached the log keeps working locally and the client
+ * reconnects in the background.
+ *
+ * When the client connects to a primary for the first time (or either side was
+ * restarted) the log of the primary is merged into the local log. Local Qsos 
+ * which the primary doesn't have are sent to it, so nothing logged on this
+ * position is lost. Qsos are removed only when the primary removes them.
+ */
+public class LogSyncClient
+{
+  private static final Logger LOGGER = Logger.getLogger(LogSyncClient.class.getName());
+  
+  private static final int CONNECT_TIMEOUT_MS = 3000;
+  private static final int RECONNECT_DELAY_MS = 2000;
+  
+  private final Log              log;
+  private final String           host;
+  private final int              port;
+  private final Executor         logExecutor;
+  private final LogChangeTracker tracker;
+  private final LinkedHashMap<Long, LogChange> pending; // Requests not yet confirmed by the primary
+  private long                   nextRequestNumber = 1;
+  private LinkedBlockingQueue<Long> sendQueue;       // Not null while connected. Guarded by "pending".
+  private volatile long          epoch;                 // Of the primary whose changes we have
+  private volatile long          lastSequence;          // Of the last applied change
+  private volatile boolean       isRunning;
+  private volatile Socket        socket;
+  private Thread                 thread;
+  
+  
+  /**
+   * @param log - the local copy of the log
+   * @param host - where the LogSyncServer runs
+   * @param port - the port of the LogSyncServer
+   * @param logExecutor - changes received from the primary are applied to the
+   * Log through this executor (e.g. on the Swing thread)
+   */
+  public LogSyncClient(Log log, String host, int port, Executor logExecutor)
+  {
+    this.log         = log;
+    this.host        = host;
+    this.port        = port;
+    this.logExecutor = logExecutor;
+    this.pending     = new LinkedHashMap<>();
+    this.tracker     = new LogChangeTracker(log, new LogChangeTracker.Sink()
+    {
+      @Override
+      public void changed(LogChange change)
+      {
+        request(change);
+      }
+    }, false);
+  }
+  
+  
+  /**
+   * Starts connecting to the primary in the background
+   */
+  public void start()
+  {
+    synchronized(log)
+    {
+      log.addEventListener(tracker);
+    }
+    
+    isRunning = true;
+    thread = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        connectLoop();
+      }
+    }, "LogSyncClient");
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  
+  public void stop()
+  {
+    isRunning = false;
+    log.removeEventListener(tracker);
+    closeSocket();
+    thread.interrupt();
+  }
+  
+  
+  public boolean isConnected()
+  {
+    synchronized(pending)
+    {
+      return sendQueue != null;
+    }
+  }
+  
+  
+  /**
+   * @return Identifies the run of the primary whose log we have (0 if none)
+   */
+  long getEpoch()
+  {
+    return epoch;
+  }
+  
+  
+  /**
+   * @return The sequence number of the last change received from the primary
+   */
+  public long getLastSequence()
+  {
+    return lastSequence;
+  }
+  
+  
+  /**
+   * @return The count of local changes not yet confirmed by the primary
+   */
+  public int getPendingCount()
+  {
+    synchronized(pending)
+    {
+      return pending.size();
+    }
+  }
+  
+  
+  /**
+   * Drops the current connection. The client connects again after a while.
+   */
+  void disconnect()
+  {
+    closeSocket();
+  }
+  
+  
+  private void request(LogChange change)
+  {
+    synchronized(pending)
+    {
+      long number = nextRequestNumber++;
+      pending.put(number, change);
+      if(sendQueue != null)
+      {
+        sendQueue.add(number);
+      }
+    }
+  }
+  
+  
+  private void connectLoop()
+  {
+    while(isRunning)
+    {
+      try
+      {
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        socket.setTcpNoDelay(true);
+        LOGGER.log(Level.INFO, "Connected to log sync server {0}:{1}", new Object[]{host, port});
+        
+        communicate(socket);
+      }
+      catch(IOException ex)
+      {
+        if(isRunning)
+        {
+          LOGGER.log(Level.FINE, "Log sync connection failed", ex);
+        }
+      }
+      finally
+      {
+        closeSocket();
+      }
+      
+      try
+      {
+        Thread.sleep(RECONNECT_DELAY_MS);
+      }
+      catch(InterruptedException ex)
+      {
+        return;
+      }
+    }
+  }
+  
+  
+  private void communicate(Socket socket) throws IOException
+  {
+    DataInputStream  in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    
+    out.writeByte(SyncProtocol.MSG_HELLO);
+    out.writeInt(SyncProtocol.MAGIC);
+    out.writeInt(SyncProtocol.VERSION);
+    out.writeLong(epoch);
+    out.writeLong(lastSequence);
+    out.flush();
+    
+    LinkedBlockingQueue<Long> queue = new LinkedBlockingQueue<>();
+    Thread writer = startWriter(out, queue);
+    try
+    {
+      // All requests which were not confirmed in the previous connection are sent again
+      synchronized(pending)
+      {
+        queue.addAll(pending.keySet());
+        sendQueue = queue;
+      }
+      
+      readLoop(in);
+    }
+    finally
+    {
+      synchronized(pending)
+      {
+        sendQueue = null;
+      }
+      writer.interrupt();
+    }
+  }
+  
+  
+  private void readLoop(DataInputStream in) throws IOException
+  {
+    while(true)
+    {
+      byte type = in.readByte();
+      switch(type)
+      {
+        case SyncProtocol.MSG_WELCOME:
+          long newEpoch = in.readLong();
+          if(in.readBoolean())
+          {
+            readSnapshot(in, newEpoch);
+          }
+          break;
+          
+        case SyncProtocol.MSG_CHANGE:
+          final long sequence = in.readLong();
+          final LogChange change = LogChange.read(in);
+          logExecutor.execute(new Runnable()
+          {
+            @Override
+            public void run()
+            {
+              if(sequence > lastSequence) // Could be received again after a reconnect
+              {
+                tracker.apply(change);
+                lastSequence = sequence;
+              }
+            }
+          });
+          break;
+          
+        case SyncProtocol.MSG_ACK:
+          long number = in.readLong();
+          synchronized(pending)
+          {
+            pending.remove(number);
+          }
+          break;
+          
+        default:
+          throw new IOException("Unexpected message: " + type);
+      }
+    }
+  }
+  
+  
+  /**
+   * Reads the whole log of the primary and merges it into the local log. 
+   * Local Qsos which the primary doesn't have are sent to it.
+   */
+  private void readSnapshot(DataInputStream in, final long newEpoch) throws IOException
+  {
+    if(in.readByte() != SyncProtocol.MSG_SNAPSHOT)
+    {
+      throw new IOException("Snapshot expected");
+    }
+    final long sequence = in.readLong();
+    int count = in.readInt();
+    
+    final ArrayList<Qso> qsos = new ArrayList<>(count);
+    for(int i = 0; i < count; i++)
+    {
+      qsos.add(QsoSerializer.read(in));
+    }
+    
+    logExecutor.execute(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        synchronized(log)
+        {
+          List<Qso> localOnly = tracker.applyAll(qsos);
+          
+          // Qsos with a pending request will reach the primary anyway
+          HashSet<String> pendingIds = new HashSet<>();
+          synchronized(pending)
+          {
+            for(LogChange change : pending.values())
+            {
+              pendingIds.add(change.getQsoId());
+            }
+          }
+          for(Qso qso : localOnly)
+          {
+            if(!pendingIds.contains(qso.getId()))
+            {
+              request(LogChange.added(qso));
+            }
+          }
+          
+          epoch = newEpoch;
+          lastSequence = sequence;
+        }
+      }
+    });
+  }
+  
+  
+  private Thread startWriter(final DataOutputStream out, final LinkedBlockingQueue<Long> queue)
+  {
+    Thread writer = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          while(true)
+          {
+            Long number = queue.take();
+            LogChange change;
+            synchronized(pending)
+            {
+              change = pending.get(number);
+            }
+            if(change == null)
+            {
+              continue; // Already confirmed
+            }
+            
+            out.writeByte(SyncProtocol.MSG_REQUEST);
+            out.writeLong(number);
+            change.write(out);
+            if(queue.isEmpty())
+            {
+              out.flush();
+            }
+          }
+        }
+        catch(IOException ex)
+        {
+          closeSocket(); // The reader will notice and reconnect
+        }
+        catch(InterruptedException ex)
+        {
+          // Connection closed
+        }
+      }
+    }, "LogSyncClient writer");
+    writer.setDaemon(true);
+    writer.start();
+    return writer;
+  }
+  
+  
+  private void closeSocket()
+  {
+    Socket current = socket;
+    if(current != null)
+    {
+      try
+      {
+        current.close();
+      }
+      catch(IOException ex)
+      {
+        // Nothing to do
+      }
+    }
+  }
+}
@@ -0,0 +1,453 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.lz1aq.log.Log;
+import org.lz1aq.log.LogSnapshot;
+import org.lz1aq.log.QsoSerializer;
+
+/**
+ * The primary side of the log replication between operating positions.
+ *
+ * Every change of the Log gets the next sequence number and is streamed to all
+ * connected followers (see LogSyncClient). A follower which reconnects tells
+ * the last sequence number it has applied and receives only the changes after
+ * it. Changes done on the followers are sent here as requests, applied to the
+ * Log and from there streamed to all followers like the local changes.
+ *
+ * The changes since the start of the server are kept in memory, which is
+ * a few MB even for a big contest.
+ */
+public class LogSyncServer
+{
+  public static final int DEFAULT_PORT = 7373;
+  
+  private static final Logger LOGGER = Logger.getLogger(LogSyncServer.class.getName());
+  
+  private final Log              log;
+  private final int              requestedPort;
+  private final Executor         logExecutor;
+  private final LogChangeTracker tracker;
+  private final long             epoch;
+  private final ArrayList<LogChange> history;      // history.get(i) has sequence number i+1
+  private final CopyOnWriteArrayList<Connection> connections;
+  private final Object           lock = new Object(); // Guards history and the order of the messages to the connections
+  private ServerSocket           serverSocket;
+  private Thread                 acceptThread;
+  
+  
+  /**
+   * @param log - the Log to be replicated
+   * @param port - TCP port to listen on (0 for any free port)
+   * @param logExecutor - changes requested by the followers are applied to
+   * the Log through this executor (e.g. on the Swing thread)
+   */
+  public LogSyncServer(Log log, int port, Executor logExecutor)
+  {
+    this.log           = log;
+    this.requestedPort = port;
+    this.logExecutor   = logExecutor;
+    this.epoch         = System.currentTimeMillis() ^ System.nanoTime();
+    this.history       = new ArrayList<>();
+    this.connections   = new CopyOnWriteArrayList<>();
+    this.tracker       = new LogChangeTracker(log, new LogChangeTracker.Sink()
+    {
+      @Override
+      public void changed(LogChange change)
+      {
+        publish(change);
+      }
+    }, true);
+  }
+  
+  
+  /**
+   * Starts listening for followers
+   * 
+   * @throws IOException if the port can't be opened
+   */
+  public void start() throws IOException
+  {
+    serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(new InetSocketAddress(requestedPort));
+    
+    synchronized(log)
+    {
+      log.addEventListener(tracker);
+    }
+    
+    acceptThread = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        acceptLoop();
+      }
+    }, "LogSyncServer");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+  }
+  
+  
+  /**
+   * Disconnects all followers and stops listening
+   */
+  public void stop()
+  {
+    log.removeEventListener(tracker);
+    try
+    {
+      serverSocket.close();
+    }
+    catch(IOException ex)
+    {
+      LOGGER.log(Level.WARNING, "Couldn't close the server socket", ex);
+    }
+    for(Connection connection : connections)
+    {
+      connection.close();
+    }
+  }
+  
+  
+  /**
+   * @return The port on which the server listens
+   */
+  public int getPort()
+  {
+    return serverSocket.getLocalPort();
+  }
+  
+  
+  long getEpoch()
+  {
+    return epoch;
+  }
+  
+  
+  /**
+   * @return The sequence number of the latest change
+   */
+  public long getSequence()
+  {
+    synchronized(lock)
+    {
+      return history.size();
+    }
+  }
+  
+  
+  public int getFollowerCount()
+  {
+    return connections.size();
+  }
+  
+  
+  private void publish(LogChange change)
+  {
+    synchronized(lock)
+    {
+      history.add(change);
+      for(Connection connection : connections)
+      {
+        connection.send(Outgoing.change(history.size(), change));
+      }
+    }
+  }
+  
+  
+  private void acceptLoop()
+  {
+    while(!serverSocket.isClosed())
+    {
+      try
+      {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        new Connection(socket).start();
+      }
+      catch(IOException ex)
+      {
+        if(!serverSocket.isClosed())
+        {
+          LOGGER.log(Level.WARNING, "Error while accepting a follower", ex);
+        }
+      }
+    }
+  }
+  
+  
+  /**
+   * Message waiting to be sent to a follower
+   */
+  private static class Outgoing
+  {
+    static final Outgoing CLOSE = new Outgoing((byte) 0, 0, null, null, 0); // Stops the writer
+    
+    final byte        type;
+    final long        number;    // epoch, sequence or request number
+    final LogChange   change;
+    final LogSnapshot snapshot;
+    final long        snapshotSequence;
+    
+    private Outgoing(byte type, long number, LogChange change, LogSnapshot snapshot, long snapshotSequence)
+    {
+      this.type             = type;
+      this.number           = number;
+      this.change           = change;
+      this.snapshot         = snapshot;
+      this.snapshotSequence = snapshotSequence;
+    }
+    
+    /**
+     * @param sequence - the sequence number of the latest change inside the snapshot
+     * @param snapshot - null if the follower can catch up with CHANGE messages 
+     */
+    static Outgoing welcome(long epoch, long sequence, LogSnapshot snapshot)
+    {
+      return new Outgoing(SyncProtocol.MSG_WELCOME, epoch, null, snapshot, sequence);
+    }
+    
+    static Outgoing change(long sequence, LogChange change)
+    {
+      return new Outgoing(SyncProtocol.MSG_CHANGE, sequence, change, null, 0);
+    }
+    
+    static Outgoing ack(long requestNumber)
+    {
+      return new Outgoing(SyncProtocol.MSG_ACK, requestNumber, null, null, 0);
+    }
+  }
+  
+  
+  /**
+   * A connected follower. Has one thread for reading the requests and one for
+   * writing the changes, so a slow follower doesn't delay the others.
+   */
+  private class Connection
+  {
+    private final Socket           socket;
+    private final DataInputStream  in;
+    private final DataOutputStream out;
+    private final LinkedBlockingQueue<Outgoing> queue = new LinkedBlockingQueue<>();
+    
+    Connection(Socket socket) throws IOException
+    {
+      this.socket = socket;
+      this.in     = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out    = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+    
+    void start()
+    {
+      Thread reader = new Thread(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          readLoop();
+        }
+      }, "LogSyncServer reader " + socket.getRemoteSocketAddress());
+      reader.setDaemon(true);
+      reader.start();
+    }
+    
+    void send(Outgoing message)
+    {
+      queue.add(message);
+    }
+    
+    void close()
+    {
+      connections.remove(this);
+      try
+      {
+        socket.close();
+      }
+      catch(IOException ex)
+      {
+        // Nothing to do
+      }
+    }
+    
+    private void readLoop()
+    {
+      try
+      {
+        handshake();
+        
+        Thread writer = new Thread(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            writeLoop();
+          }
+        }, "LogSyncServer writer " + socket.getRemoteSocketAddress());
+        writer.setDaemon(true);
+        writer.start();
+        
+        while(true)
+        {
+          byte type = in.readByte();
+          if(type != SyncProtocol.MSG_REQUEST)
+          {
+            throw new IOException("Unexpected message: " + type);
+          }
+          final long requestNumber = in.readLong();
+          final LogChange change = LogChange.read(in);
+          
+          logExecutor.execute(new Runnable()
+          {
+            @Override
+            public void run()
+            {
+              tracker.apply(change); // The change itself is sent back through publish()
+              send(Outgoing.ack(requestNumber));
+            }
+          });
+        }
+      }
+      catch(IOException ex)
+      {
+        if(!socket.isClosed())
+        {
+          LOGGER.log(Level.INFO, "Follower disconnected: " + socket.getRemoteSocketAddress(), ex);
+        }
+      }
+      finally
+      {
+        close();
+        queue.add(Outgoing.CLOSE);
+      }
+    }
+    
+    /**
+     * Reads the HELLO of the follower and queues the changes it is missing
+     */
+    private void handshake() throws IOException
+    {
+      if(in.readByte() != SyncProtocol.MSG_HELLO || in.readInt() != SyncProtocol.MAGIC)
+      {
+        throw new IOException("Not a log sync client");
+      }
+      if(in.readInt() != SyncProtocol.VERSION)
+      {
+        throw new IOException("Unsupported protocol version");
+      }
+      long followerEpoch = in.readLong();
+      long lastSequence  = in.readLong();
+      
+      // Taking the Log lock first guarantees that the snapshot and the history
+      // match (changes are published while the Log is locked)
+      synchronized(log)
+      {
+        synchronized(lock)
+        {
+          boolean isCatchUpPossible = followerEpoch == epoch && lastSequence >= 0 && lastSequence <= history.size();
+          
+          if(isCatchUpPossible)
+          {
+            send(Outgoing.welcome(epoch, history.size(), null));
+            for(int i = (int) lastSequence; i < history.size(); i++)
+            {
+              send(Outgoing.change(i + 1, history.get(i)));
+            }
+          }
+          else
+          {
+            send(Outgoing.welcome(epoch, history.size(), log.getSnapshot()));
+          }
+          connections.add(this);
+        }
+      }
+      LOGGER.log(Level.INFO, "Follower connected: {0}", socket.getRemoteSocketAddress());
+    }
+    
+    private void writeLoop()
+    {
+      try
+      {
+        Outgoing message;
+        while((message = queue.take()) != Outgoing.CLOSE)
+        {
+          write(message);
+          if(queue.isEmpty())
+          {
+            out.flush(); // Send everything that was queued at once
+          }
+        }
+      }
+      catch(IOException | InterruptedException ex)
+      {
+        close();
+      }
+    }
+    
+    private void write(Outgoing message) throws IOException
+    {
+      out.writeByte(message.type);
+      out.writeLong(message.number);
+      switch(message.type)
+      {
+        case SyncProtocol.MSG_WELCOME:
+          out.writeBoolean(message.snapshot != null);
+          if(message.snapshot != null)
+          {
+            writeSnapshot(message.snapshot, message.snapshotSequence);
+          }
+          break;
+          
+        case SyncProtocol.MSG_CHANGE:
+          message.change.write(out);
+          break;
+          
+        default:
+          break;
+      }
+    }
+    
+    private void writeSnapshot(LogSnapshot snapshot, long sequence) throws IOException
+    {
+      out.writeByte(SyncProtocol.MSG_SNAPSHOT);
+      out.writeLong(sequence);
+      out.writeInt(snapshot.getSize());
+      for(int i = 0; i < snapshot.getSize(); i++)
+      {
+        QsoSerializer.write(out, snapshot.get(i));
+      }
+    }
+  }
+}
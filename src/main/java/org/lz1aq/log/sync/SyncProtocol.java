@@ -0,0 +1,54 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.sync;
+
+/**
+ * Constants of the protocol used between LogSyncServer and LogSyncClient.
+ *
+ * Every message starts with its type (byte):
+ *   HELLO    (client) - magic (int), version (int), epoch (long), last applied sequence (long)
+ *   WELCOME  (server) - epoch (long), reset (boolean). When reset is true it
+ *                       is followed by a SNAPSHOT, otherwise by the CHANGEs
+ *                       the client is missing.
+ *   SNAPSHOT (server) - sequence (long), count (int), count x Qso (see QsoSerializer)
+ *   CHANGE   (server) - sequence (long), LogChange
+ *   REQUEST  (client) - request number (long), LogChange
+ *   ACK      (server) - request number (long). Sent after the request was applied.
+ *
+ * The epoch identifies the change history of the server. It is new each time
+ * the server is started, so a client which was following another run of the
+ * server gets a full snapshot instead of a catch-up.
+ */
+final class SyncProtocol
+{
+  static final int  MAGIC   = 0x4C5A5331; // "LZS1"
+  static final int  VERSION = 1;
+  
+  static final byte MSG_HELLO    = 1;
+  static final byte MSG_WELCOME  = 2;
+  static final byte MSG_SNAPSHOT = 3;
+  static final byte MSG_CHANGE   = 4;
+  static final byte MSG_REQUEST  = 5;
+  static final byte MSG_ACK      = 6;
+  
+  private SyncProtocol()
+  {
+  }
+}
@@ -26,9 +26,12 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.lz1aq.log.sync.LogSyncServer;
 import org.lz1aq.ptt.PttTypes;
+import org.lz1aq.radio.Radio;
 
 /**
  *
@@ -69,6 +72,11 @@ public final class ApplicationSettings
   static final String PROPERTY_AUTO_CQ_FREQ_JUMP = "auto_cq_freq_jump";
   static final String PROPERTY_BANDMAP_SHOW_FREQ_COLUMNS = "bandmap_show_freq_columns";
   static final String PROPERTY_BANDMAP_AUTO_FREQ = "bandmap_auto_freq";
+  static final String PROPERTY_LOG_SYNC_ROLE = "log_sync_role";
+  static final String PROPERTY_LOG_SYNC_HOST = "log_sync_host";
+  static final String PROPERTY_LOG_SYNC_PORT = "log_sync_port";
+  static final String PROPERTY_STATION_ID = "station_id";
+  static final String PROPERTY_RADIO_COALESCING_WINDOW = "radio_coalescing_window_ms";
     
   public static final int FUNCTION_KEYS_COUNT = 12; // The number of function keys
   
@@ -89,6 +97,16 @@ public final class ApplicationSettings
     public int toInt() { return code; }
   }
   
+  /**
+   * The part this instance plays when several operating positions share one log
+   */
+  public enum LogSyncRole
+  {
+    NONE,      // Stand-alone
+    PRIMARY,   // Keeps the log and streams the changes to the followers
+    FOLLOWER   // Keeps a copy of the log of the primary
+  }
+  
    public enum FontIndex
   {
     CALLSIGN(0),
@@ -134,6 +152,11 @@ public final class ApplicationSettings
   private int bandmapColumnCount;
   private boolean isShowBandmapFreqColumnsEnabled;
   private boolean isBandmapAutoFreq;
+  private LogSyncRole logSyncRole;
+  private String logSyncHost;  // Where the primary is (used by the followers)
+  private int logSyncPort;
+  private String stationId;    // Identifies this operating position when logs are merged
+  private int    radioCoalescingWindow; // [ms] Min time between two frequency updates from the radio
   
   
   private final Properties prop;
@@ -487,6 +510,46 @@ public final class ApplicationSettings
   {
     return incomingQsoHiderAfter;
   }
+  
+  public LogSyncRole getLogSyncRole()
+  {
+    return logSyncRole;
+  }
+  
+  public void setLogSyncRole(LogSyncRole role)
+  {
+    this.logSyncRole = role;
+  }
+  
+  public String getLogSyncHost()
+  {
+    return logSyncHost;
+  }
+  
+  public void setLogSyncHost(String host)
+  {
+    this.logSyncHost = host;
+  }
+  
+  public int getLogSyncPort()
+  {
+    return logSyncPort;
+  }
+  
+  public void setLogSyncPort(int port)
+  {
+    this.logSyncPort = port;
+  }
+  
+  public String getStationId()
+  {
+    return stationId;
+  }
+  
+  public int getRadioCoalescingWindow()
+  {
+    return radioCoalescingWindow;
+  }
 
   /**
    * Stores the array of values into properties which are named using key+index of the value
@@ -630,6 +693,13 @@ public final class ApplicationSettings
     prop.setProperty(PROPERTY_BANDMAP_SHOW_FREQ_COLUMNS, Boolean.toString(isShowBandmapFreqColumnsEnabled));
     prop.setProperty(PROPERTY_BANDMAP_AUTO_FREQ, Boolean.toString(isBandmapAutoFreq));
     
+    // Save the log sync settings
+    prop.setProperty(PROPERTY_LOG_SYNC_ROLE, logSyncRole.name());
+    prop.setProperty(PROPERTY_LOG_SYNC_HOST, logSyncHost);
+    prop.setProperty(PROPERTY_LOG_SYNC_PORT, Integer.toString(logSyncPort));
+    prop.setProperty(PROPERTY_STATION_ID, stationId);
+    prop.setProperty(PROPERTY_RADIO_COALESCING_WINDOW, Integer.toString(radioCoalescingWindow));
+    
     try
     {
       prop.store(new FileOutputStream(SETTINGS_FILE_NAME), null);
@@ -830,6 +900,33 @@ public final class ApplicationSettings
       else
         isBandmapAutoFreq = Boolean.parseBoolean(temp);
       
+      // Read the log sync settings
+      temp = prop.getProperty(PROPERTY_LOG_SYNC_ROLE);
+      if(temp == null)
+        SetSettingToDefault(PROPERTY_LOG_SYNC_ROLE);
+      else
+        logSyncRole = LogSyncRole.valueOf(temp);
+      
+      logSyncHost = prop.getProperty(PROPERTY_LOG_SYNC_HOST);
+      if(logSyncHost == null)
+        SetSettingToDefault(PROPERTY_LOG_SYNC_HOST);
+      
+      temp = prop.getProperty(PROPERTY_LOG_SYNC_PORT);
+      if(temp == null)
+        SetSettingToDefault(PROPERTY_LOG_SYNC_PORT);
+      else
+        logSyncPort = Integer.parseInt(temp);
+      
+      stationId = prop.getProperty(PROPERTY_STATION_ID);
+      if(stationId == null)
+        SetSettingToDefault(PROPERTY_STATION_ID);
+      
+      temp = prop.getProperty(PROPERTY_RADIO_COALESCING_WINDOW);
+      if(temp == null)
+        SetSettingToDefault(PROPERTY_RADIO_COALESCING_WINDOW);
+      else
+        radioCoalescingWindow = Integer.parseInt(temp);
+      
     }
     catch (Exception ex)
     {
@@ -870,6 +967,11 @@ public final class ApplicationSettings
     SetSettingToDefault(PROPERTY_AUTO_CQ_FREQ_JUMP);
     SetSettingToDefault(PROPERTY_BANDMAP_SHOW_FREQ_COLUMNS);
     SetSettingToDefault(PROPERTY_BANDMAP_AUTO_FREQ);
+    SetSettingToDefault(PROPERTY_LOG_SYNC_ROLE);
+    SetSettingToDefault(PROPERTY_LOG_SYNC_HOST);
+    SetSettingToDefault(PROPERTY_LOG_SYNC_PORT);
+    SetSettingToDefault(PROPERTY_STATION_ID);
+    SetSettingToDefault(PROPERTY_RADIO_COALESCING_WINDOW);
   }
     
   /**
@@ -1026,6 +1128,26 @@ public final class ApplicationSettings
         isBandmapAutoFreq = true;
         break;
         
+      case PROPERTY_LOG_SYNC_ROLE:
+        logSyncRole = LogSyncRole.NONE;
+        break;
+        
+      case PROPERTY_LOG_SYNC_HOST:
+        logSyncHost = "localhost";
+        break;
+        
+      case PROPERTY_LOG_SYNC_PORT:
+        logSyncPort = LogSyncServer.DEFAULT_PORT;
+        break;
+        
+      case PROPERTY_STATION_ID:
+        stationId = UUID.randomUUID().toString().substring(0, 8); // Must differ between the operating positions
+        break;
+        
+      case PROPERTY_RADIO_COALESCING_WINDOW:
+        radioCoalescingWindow = Radio.DEFAULT_COALESCING_WINDOW;
+        break;
+        
       default:
         LOGGER.log(Level.SEVERE, null, "Property has no default settings");
         break;
@@ -20,11 +20,14 @@
 package org.lz1aq.lzlog;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.table.AbstractTableModel;
 import org.lz1aq.log.Log;
 import org.lz1aq.log.LogListener;
+import org.lz1aq.log.LogSnapshot;
 import org.lz1aq.log.Qso;
 import org.lz1aq.radio.RadioModes;
 import org.lz1aq.utils.Misc;
@@ -45,17 +48,44 @@ public class BandmapTableModel extends AbstractTableModel
     private final Log log;
 
     //ArrayList<Qso> lastSpQsos;
-    private final CopyOnWriteArrayList<Qso> listLatestSpQso;
+    private final ConcurrentHashMap<String, Qso> mapLatestSpQso;          // Latest S&P Qso per callsign/mode (see Qso.getDupeKey())
+    private final HashMap<String, ArrayList<Qso>> mapSpQsoHistory;       // All S&P Qsos per callsign/mode - used when the latest is removed
     List<BandmapSpot> manualSpots = new ArrayList();
+    
+    private long lastRefreshLogVersion = -1;      // Log version at the last refresh()
+    private boolean isManualSpotsChanged = false; // True if addSpot() was called after the last refresh()
+
+    /**
+     * The S&P Qsos and the manual spots by frequency in Hz. A cell shows what
+     * is inside the frequency range of the cell.
+     */
+    private final TreeMap<Integer, ArrayList<Qso>> spQsoByFreq = new TreeMap<>();
+    private final TreeMap<Integer, ArrayList<BandmapSpot>> manualSpotsByFreq = new TreeMap<>();
+    private boolean isFreqIndexValid = false;     // False if the manual spots changed after the frequency index was built
+    private long freqIndexLogVersion = -1;        // Log version when the frequency index was built
+
+    /**
+     * The text of the callsign cells is cached. When the spots change, refresh()
+     * renders the cached cells again and notifies the table only about the
+     * cells whose text is different. When a callsign stops being a dupe the
+     * DupeExpiryScheduler tells us and only the cells with this callsign are
+     * rendered again. A change of the start frequency or the bandmap settings
+     * drops the whole cache.
+     */
+    private String[][] cellCache;
+    private String cellCacheSettings = "";         // The settings for which the cache was built
+    private boolean isCellCacheStale = false;      // True if all cached cells must be checked on the next refresh()
 
-    public BandmapTableModel(Log log, int startFreq, ApplicationSettings appSettings)
+    public BandmapTableModel(Log log, int startFreq, ApplicationSettings appSettings, DupeExpiryScheduler dupeExpiryScheduler)
     {
         this.log = log;
         this.startFreqInHz = startFreq;
         this.appSettings = appSettings;
 
-        listLatestSpQso = new CopyOnWriteArrayList<>();
+        mapLatestSpQso = new ConcurrentHashMap<>();
+        mapSpQsoHistory = new HashMap<>();
         this.log.addEventListener(new BandmapTableModel.LocalLogListener());
+        dupeExpiryScheduler.addEventListener(new BandmapTableModel.LocalDupeExpiryListener());
         //lastSpQsos = log.getLastSpContacts();
     }
 
@@ -72,10 +102,8 @@ public class BandmapTableModel extends AbstractTableModel
     }
 
     @Override
-    public Object getValueAt(int rowIndex, int columnIndex)
+    public synchronized Object getValueAt(int rowIndex, int columnIndex)
     {
-        CellStringBuilder cellBuilder = new CellStringBuilder();
-
         // If frequency cell ...
         // ---------------------
         if (appSettings.isShowBandmapFreqColumns() && columnIndex % 2 == 0)
@@ -85,19 +113,44 @@ public class BandmapTableModel extends AbstractTableModel
 
         // If Callsign cell...
         // ---------------------
+        if (cellCache == null || rowIndex >= cellCache.length || columnIndex >= cellCache[rowIndex].length)
+        {
+            cellCache = new String[getRowCount()][getColumnCount()];
+        }
+
+        if (cellCache[rowIndex][columnIndex] == null)
+        {
+            cellCache[rowIndex][columnIndex] = buildCell(rowIndex, columnIndex);
+        }
+
+        return cellCache[rowIndex][columnIndex];
+    }
+
+    /**
+     * Creates the text of a callsign cell out of the S&P Qsos and the manual
+     * spots which are within the frequency range of the cell.
+     */
+    private String buildCell(int row, int col)
+    {
+        CellStringBuilder cellBuilder = new CellStringBuilder();
+
+        int cellFreq = cellToFreq(row, col);
+        int lowRange = cellFreq - (appSettings.getBandmapStepInHz() / 2);
+        int highRange = cellFreq + (appSettings.getBandmapStepInHz() / 2);
+
         // Last worked SP
-        for (Qso qso : listLatestSpQso)
+        for (ArrayList<Qso> qsos : spQsoByFreq.subMap(lowRange, true, highRange, false).values())
         {
-            if (isCurrentFreqInThisCell(rowIndex, columnIndex, qso.getFrequencyInt()))
+            for (Qso qso : qsos)
             {
                 cellBuilder.addWorkedOnSp(qso);
             }
         }
 
         // Manual Spots
-        for (BandmapSpot spot : manualSpots)
+        for (ArrayList<BandmapSpot> spots : manualSpotsByFreq.subMap(lowRange, true, highRange, false).values())
         {
-            if (isCurrentFreqInThisCell(rowIndex, columnIndex, spot.getFreq()))
+            for (BandmapSpot spot : spots)
             {
                 cellBuilder.addSpot(spot.getCallsign(), spot.getMode());
             }
@@ -106,7 +159,116 @@ public class BandmapTableModel extends AbstractTableModel
         return cellBuilder.getResult();
     }
 
-    public void addSpot(String callsign, int freq, RadioModes mode)
+    /**
+     * Renders a cached cell again and notifies the table if the text has
+     * changed. Cells that are not cached (i.e. were never shown) are skipped.
+     */
+    private void updateCell(int row, int col)
+    {
+        if (cellCache == null || row >= cellCache.length || col >= cellCache[row].length || cellCache[row][col] == null)
+        {
+            return;
+        }
+
+        String text = buildCell(row, col);
+        if (!text.equals(cellCache[row][col]))
+        {
+            cellCache[row][col] = text;
+            this.fireTableCellUpdated(row, col);
+        }
+    }
+
+    /**
+     * Renders again the cells which show this callsign/mode.
+     *
+     * @param qso - the latest Qso with the station
+     */
+    private synchronized void updateCellsOf(Qso qso)
+    {
+        ArrayList<Integer> freqs = new ArrayList<>();
+
+        Qso spQso = mapLatestSpQso.get(qso.getDupeKey());
+        if (spQso != null)
+        {
+            freqs.add(spQso.getFrequencyInt());
+        }
+        for (BandmapSpot spot : manualSpots)
+        {
+            if (spot.getMode() == qso.getMode() && spot.getCallsign().equalsIgnoreCase(qso.getHisCallsign()))
+            {
+                freqs.add(spot.getFreq());
+            }
+        }
+
+        for (Integer freq : freqs)
+        {
+            int[] cell = freqToCell(freq);
+            if (cell == null)
+            {
+                isCellCacheStale = true; // Should not happen - check all cells on the next refresh
+            }
+            else
+            {
+                updateCell(cell[0], cell[1]);
+            }
+        }
+    }
+
+    /**
+     * Builds the frequency index again if the log or the manual spots have
+     * changed. The cached cells must be checked afterwards.
+     *
+     * @return true if the index was built again
+     */
+    private boolean updateFreqIndex()
+    {
+        long logVersion = log.getSnapshot().getVersion();
+        if (isFreqIndexValid && logVersion == freqIndexLogVersion)
+        {
+            return false;
+        }
+
+        spQsoByFreq.clear();
+        for (Qso qso : mapLatestSpQso.values())
+        {
+            ArrayList<Qso> qsos = spQsoByFreq.get(qso.getFrequencyInt());
+            if (qsos == null)
+            {
+                qsos = new ArrayList<>(1);
+                spQsoByFreq.put(qso.getFrequencyInt(), qsos);
+            }
+            qsos.add(qso);
+        }
+
+        manualSpotsByFreq.clear();
+        for (BandmapSpot spot : manualSpots)
+        {
+            ArrayList<BandmapSpot> spots = manualSpotsByFreq.get(spot.getFreq());
+            if (spots == null)
+            {
+                spots = new ArrayList<>(1);
+                manualSpotsByFreq.put(spot.getFreq(), spots);
+            }
+            spots.add(spot);
+        }
+
+        isFreqIndexValid = true;
+        freqIndexLogVersion = logVersion;
+        return true;
+    }
+
+    /**
+     * @return The settings on which the text of the cells depends
+     */
+    private String getCellCacheSettings()
+    {
+        return startFreqInHz + " " + appSettings.getBandmapStepInHz() + " "
+                + appSettings.getBandmapRowCount() + " " + appSettings.getBandmapColumnCount() + " "
+                + appSettings.isShowBandmapFreqColumns() + " " + appSettings.isQuickCallsignModeEnabled() + " "
+                + appSettings.getDefaultPrefix() + " " + appSettings.getQsoRepeatPeriod();
+    }
+
+    public synchronized void addSpot(String callsign, int freq, RadioModes mode)
     {
         BandmapSpot newspot = new BandmapSpot(callsign, freq, mode);
 
@@ -116,15 +278,20 @@ public class BandmapTableModel extends AbstractTableModel
             if (spot.equals(newspot))
             {
                 spot.setFreq(freq);
+                isManualSpotsChanged = true;
+                isFreqIndexValid = false;
                 return;
             }
         }
 
         manualSpots.add(newspot);
+        isManualSpotsChanged = true;
+        isFreqIndexValid = false;
     }
 
     /**
-     * Updates content of the table.
+     * Updates content of the table. Only the cells which have changed since
+     * the last call are repainted.
      *
      * @param startFreq
      */
@@ -132,12 +299,49 @@ public class BandmapTableModel extends AbstractTableModel
     {
         startFreqInHz = startFreq;
 
-        for (Qso spQso : listLatestSpQso)
+        // Spots need to be checked again only if the log or the manual spots have changed
+        long logVersion = log.getSnapshot().getVersion();
+        if (logVersion != lastRefreshLogVersion || isManualSpotsChanged)
         {
-            RemoveSpotOnSameFreq(spQso); // If S&P spot and Manual spot for the same station share the same frequency - remove the Manual spot
+            lastRefreshLogVersion = logVersion;
+            isManualSpotsChanged = false;
+
+            for (Qso spQso : mapLatestSpQso.values())
+            {
+                RemoveSpotOnSameFreq(spQso); // If S&P spot and Manual spot for the same station share the same frequency - remove the Manual spot
+            }
+            isFreqIndexValid = false;
         }
 
-        this.fireTableDataChanged();
+        boolean isIndexChanged = updateFreqIndex() || isCellCacheStale;
+        isCellCacheStale = false;
+
+        // Cached cells are not valid for another start frequency or other settings
+        String settings = getCellCacheSettings();
+        if (!settings.equals(cellCacheSettings))
+        {
+            cellCacheSettings = settings;
+            cellCache = null;
+        }
+
+        // Nothing was shown yet or everything has moved
+        if (cellCache == null)
+        {
+            this.fireTableDataChanged();
+            return;
+        }
+
+        // Update only the shown cells whose text has changed
+        if (isIndexChanged)
+        {
+            for (int row = 0; row < cellCache.length; row++)
+            {
+                for (int col = 0; col < cellCache[row].length; col++)
+                {
+                    updateCell(row, col);
+                }
+            }
+        }
     }
 
     /**
@@ -200,6 +404,33 @@ public class BandmapTableModel extends AbstractTableModel
         }
     }
 
+    /**
+     * The opposite of cellToFreq()
+     *
+     * @param freq - frequency in Hz
+     * @return the row and the column of the callsign cell which contains this
+     * frequency or null if the frequency is not shown on the bandmap
+     */
+    private int[] freqToCell(int freq)
+    {
+        int step = appSettings.getBandmapStepInHz();
+        int rows = getRowCount();
+        if (freq < startFreqInHz - step / 2 || rows <= 0)
+        {
+            return null;
+        }
+
+        int cellIndex = (freq - startFreqInHz + step / 2) / step;
+        int row = cellIndex % rows;
+        int col = appSettings.isShowBandmapFreqColumns() ? (cellIndex / rows) * 2 + 1 : cellIndex / rows;
+
+        if (col >= getColumnCount() || !isCurrentFreqInThisCell(row, col, freq))
+        {
+            return null;
+        }
+        return new int[]{row, col};
+    }
+
     /**
      * Checks if the supplied "freq" fits the cell frequency
      *
@@ -218,19 +449,6 @@ public class BandmapTableModel extends AbstractTableModel
         return freq >= lowRange && freq < highTange;
     }
 
-    /**
-     * Check is the frequency of the Qso fits the cell frequency
-     *
-     * @param row
-     * @param col
-     * @param qso
-     * @return
-     */
-    private boolean isQsoInThisCell(int row, int col, Qso qso)
-    {
-        return isCurrentFreqInThisCell(row, col, qso.getFrequencyInt());
-    }
-
     /**
      * Helper class for creating a string that will be inserted in the cell
      * inside the bandmap
@@ -319,115 +537,127 @@ public class BandmapTableModel extends AbstractTableModel
 
     
     
-     /**
-     * Finds a S&P QSO within listLatestSpQso[] which has the same combination of callsign/mode
-     * @param call
-     * @param mode
-     * @return 
+    /**
+     * Inserts the Qso in the history of its callsign/mode and makes it the
+     * latest one if it is not older than the current latest.
+     *
+     * @param qso - Qso from the log. Qsos which are not S&P are ignored.
+     */
+    private void addSpQso(Qso qso)
+    {
+        if (qso.getType().equalsIgnoreCase("SP") == false)
+        {
+            return;
+        }
+
+        String key = qso.getDupeKey();
+
+        ArrayList<Qso> history = mapSpQsoHistory.get(key);
+        if (history == null)
+        {
+            history = new ArrayList<>();
+            mapSpQsoHistory.put(key, history);
+        }
+        history.add(qso);
+
+        Qso latest = mapLatestSpQso.get(key);
+        if (latest == null || qso.getEpochSeconds() >= latest.getEpochSeconds())
+        {
+            mapLatestSpQso.put(key, qso);
+        }
+    }
+
+    /**
+     * Removes the Qso from the history of its callsign/mode. If it was the
+     * latest one the next latest from the history takes its place.
+     *
+     * @param qso - Qso that was removed from the log
      */
-    private int find(String call, RadioModes mode)
+    private void removeSpQso(Qso qso)
     {
-        for(int i=0; i<listLatestSpQso.size(); i++)
+        String key = qso.getDupeKey();
+
+        ArrayList<Qso> history = mapSpQsoHistory.get(key);
+        if (history == null || history.remove(qso) == false)
+        {
+            return; // Not a S&P Qso
+        }
+
+        if (history.isEmpty())
+        {
+            mapSpQsoHistory.remove(key);
+            mapLatestSpQso.remove(key);
+            return;
+        }
+
+        if (mapLatestSpQso.get(key) == qso)
         {
-            if(call.equalsIgnoreCase(listLatestSpQso.get(i).getHisCallsign()) && 
-               mode==listLatestSpQso.get(i).getMode())
+            Qso latest = history.get(0);
+            for (Qso candidate : history)
             {
-                return i;
+                if (candidate.getEpochSeconds() >= latest.getEpochSeconds())
+                {
+                    latest = candidate;
+                }
             }
+            mapLatestSpQso.put(key, latest);
         }
-        return -1;
     }
-    
+
     private class LocalLogListener implements LogListener
     {
         /**
-         * Insert all the latest S&P QSOs per callsign/mode inside the list
+         * Insert all the latest S&P QSOs per callsign/mode inside the map
          */
         @Override
         public void eventInit()
         {
-            listLatestSpQso.clear();
+            mapLatestSpQso.clear();
+            mapSpQsoHistory.clear();
 
-            // For each logged QSO check if it is the latest per callsign/mode
-            for (int i = 0; i < log.getSize(); i++)
+            LogSnapshot snapshot = log.getSnapshot();
+            for (int i = 0; i < snapshot.getSize(); i++)
             {
-                if(log.get(i).getType().equalsIgnoreCase("SP") == false)
-                {
-                    continue;
-                }
-                String call = log.get(i).getHisCallsign();
-                RadioModes mode = log.get(i).getMode();
-                int local_index = find(call, mode);
-
-                // Callsign/Mode combination already available inside listTimeToNextQso
-                if (local_index >= 0)
-                {
-                    // Make sure that the locally found QSO has an older date before substituting
-                    if (listLatestSpQso.get(local_index).getElapsedSeconds() > log.get(i).getElapsedSeconds())
-                    {
-                        listLatestSpQso.remove(local_index);
-                        listLatestSpQso.add(log.get(i));
-                    }
-                } // Callsign/Mode not available inside listTimeToNextQso --> add
-                else
-                {
-                    listLatestSpQso.add(log.get(i));
-                }
+                addSpQso(snapshot.get(i));
             }
         }
 
         @Override
-        public void eventQsoAdded(Qso qso)
+        public void eventQsoAdded(Qso qso, int row)
         {
-            if(qso.getType().equalsIgnoreCase("SP") == false)
-            {
-                return;
-            }
-            
-            int local_index = find(qso.getHisCallsign(), qso.getMode());
-
-            // Callsign/Mode combination already available inside listTimeToNextQso
-            if (local_index >= 0)
-            {
-                // Make sure that the locally found QSO has an older date before substituting
-                if (listLatestSpQso.get(local_index).getElapsedSeconds() > qso.getElapsedSeconds())
-                {
-                    listLatestSpQso.remove(local_index);
-                    listLatestSpQso.add(qso);
-                }
-            } // Callsign/Mode not available inside listTimeToNextQso --> add
-            else
-            {
-                listLatestSpQso.add(qso);
-            }
+            addSpQso(qso);
         }
 
         @Override
-        public void eventQsoRemoved(Qso qso)
+        public void eventQsoRemoved(Qso qso, int row)
         {
-            if(qso.getType().equalsIgnoreCase("SP") == false)
-            {
-                return;
-            }
-            
-            // Remove QSO from list
-            boolean res = listLatestSpQso.remove(qso);
+            removeSpQso(qso);
+        }
 
-            // The QSO which was removed from the log was not inside the local list
-            if (res == false)
+        @Override
+        public void eventQsoModified(Qso qso, int row, int col, String oldValue)
+        {
+            // The Qso could now belong to another callsign/mode - build the maps again
+            if (Qso.affectsDupeCheck(col))
             {
-                return;
+                eventInit();
             }
+        }
 
-            // Search for substitution of this entry
-            for (int i = 0; i < log.getSize(); i++)
-            {
-                eventQsoAdded(log.get(i));
-            }
+        @Override
+        public void eventBulkChange()
+        {
+            eventInit();
         }
+    }
+
+    private class LocalDupeExpiryListener implements DupeExpiryListener
+    {
 
         @Override
-        public void eventQsoModified(Qso qso)
-        {}
+        public void eventBecameWorkable(Qso qso)
+        {
+            updateCellsOf(qso); // The callsign must become blue
+        }
     }
 }
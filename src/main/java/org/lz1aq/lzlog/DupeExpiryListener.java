@@ -0,0 +1,37 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.lzlog;
+
+import java.util.EventListener;
+import org.lz1aq.log.Qso;
+
+/**
+ * Receives notifications from the DupeExpiryScheduler
+ */
+public interface DupeExpiryListener extends EventListener
+{
+    /**
+     * Called when a callsign/mode can be worked again.
+     *
+     * @param qso - the latest Qso with this callsign/mode. The removed Qso if
+     * there are no more Qsos with this callsign/mode inside the log.
+     */
+    public void eventBecameWorkable(Qso qso);
+}
@@ -0,0 +1,263 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.lzlog;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.swing.Timer;
+import org.lz1aq.log.Log;
+import org.lz1aq.log.LogListener;
+import org.lz1aq.log.LogSnapshot;
+import org.lz1aq.log.Qso;
+import org.lz1aq.utils.TimeUtils;
+
+/**
+ * Knows when each callsign/mode stops being a dupe and notifies the listeners
+ * exactly at that moment. This way the table models don't need to poll the
+ * dupe status of all their callsigns.
+ *
+ * The latest Qso per callsign/mode is kept in a queue ordered by the time when
+ * the repeat period ends. A Swing timer is set for the first one. Entries for
+ * Qsos that are no longer the latest for their callsign/mode are skipped when
+ * they reach the head of the queue.
+ *
+ * The scheduler is driven by the events of the Log and must be used from the
+ * Swing thread only.
+ */
+public class DupeExpiryScheduler
+{
+
+    private final Log log;
+    private final ApplicationSettings appSettings;
+    private final PriorityQueue<Qso> queue;
+    private final Timer timer;
+    private final CopyOnWriteArrayList<DupeExpiryListener> listeners;
+    private int scheduledRepeatPeriod; // The repeat period used for the Qsos inside the queue
+
+    public DupeExpiryScheduler(Log log, ApplicationSettings appSettings)
+    {
+        this.log = log;
+        this.appSettings = appSettings;
+        this.listeners = new CopyOnWriteArrayList<>();
+
+        queue = new PriorityQueue<>(64, new Comparator<Qso>()
+        {
+            @Override
+            public int compare(Qso q1, Qso q2)
+            {
+                return Long.compare(q1.getEpochSeconds(), q2.getEpochSeconds());
+            }
+        });
+
+        timer = new Timer(0, new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                processExpired();
+            }
+        });
+        timer.setRepeats(false);
+
+        this.log.addEventListener(new LocalLogListener());
+    }
+
+    public void addEventListener(DupeExpiryListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeEventListener(DupeExpiryListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Should be called when the settings have changed. The queue is built
+     * again if the repeat period is different.
+     */
+    public void reschedule()
+    {
+        if (scheduledRepeatPeriod != appSettings.getQsoRepeatPeriod())
+        {
+            rebuild();
+        }
+    }
+
+    /**
+     * Stops the timer
+     */
+    public void stop()
+    {
+        timer.stop();
+    }
+
+    /**
+     * @return The time (see TimeUtils.getCoarseUtcSeconds()) when the Qso
+     * stops being a dupe
+     */
+    private long getExpiry(Qso qso)
+    {
+        return qso.getEpochSeconds() + scheduledRepeatPeriod * 60L;
+    }
+
+    private boolean isLatest(Qso qso)
+    {
+        return log.getLatestQso(qso.getHisCallsign(), qso.getMode()) == qso;
+    }
+
+    /**
+     * Inserts into the queue all Qsos which are the latest for their
+     * callsign/mode and are still dupes.
+     */
+    private void rebuild()
+    {
+        queue.clear();
+        scheduledRepeatPeriod = appSettings.getQsoRepeatPeriod();
+
+        long now = TimeUtils.getCoarseUtcSeconds();
+        LogSnapshot snapshot = log.getSnapshot();
+        for (int i = 0; i < snapshot.getSize(); i++)
+        {
+            Qso qso = snapshot.get(i);
+            if (getExpiry(qso) > now && isLatest(qso))
+            {
+                queue.add(qso);
+            }
+        }
+
+        scheduleNext();
+    }
+
+    /**
+     * Notifies the listeners for all callsigns which are no longer dupes and
+     * sets the timer for the next one.
+     */
+    private void processExpired()
+    {
+        TimeUtils.tickClock();
+
+        if (scheduledRepeatPeriod != appSettings.getQsoRepeatPeriod())
+        {
+            rebuild();
+            return;
+        }
+
+        long now = TimeUtils.getCoarseUtcSeconds();
+        while (!queue.isEmpty() && getExpiry(queue.peek()) <= now)
+        {
+            Qso qso = queue.poll();
+            if (isLatest(qso))
+            {
+                notifyBecameWorkable(qso);
+            }
+        }
+
+        scheduleNext();
+    }
+
+    private void scheduleNext()
+    {
+        timer.stop();
+
+        if (queue.isEmpty())
+        {
+            return;
+        }
+
+        long delay = getExpiry(queue.peek()) * 1000 - System.currentTimeMillis();
+        delay = Math.max(0, Math.min(delay, Integer.MAX_VALUE));
+        timer.setInitialDelay((int) delay);
+        timer.start();
+    }
+
+    private void notifyBecameWorkable(Qso qso)
+    {
+        for (DupeExpiryListener listener : listeners)
+        {
+            listener.eventBecameWorkable(qso);
+        }
+    }
+
+    private class LocalLogListener implements LogListener
+    {
+
+        @Override
+        public void eventInit()
+        {
+            rebuild();
+        }
+
+        @Override
+        public void eventQsoAdded(Qso qso, int row)
+        {
+            if (getExpiry(qso) > TimeUtils.getCoarseUtcSeconds())
+            {
+                queue.add(qso);
+                scheduleNext();
+            }
+        }
+
+        @Override
+        public void eventQsoRemoved(Qso qso, int row)
+        {
+            // If the removed Qso was not a dupe the status of the station stays the same
+            if (getExpiry(qso) <= TimeUtils.getCoarseUtcSeconds())
+            {
+                return;
+            }
+
+            // The previous Qso with this station is now the latest one
+            Qso latest = log.getLatestQso(qso.getHisCallsign(), qso.getMode());
+
+            if (latest == null)
+            {
+                notifyBecameWorkable(qso);
+            }
+            else if (getExpiry(latest) <= TimeUtils.getCoarseUtcSeconds())
+            {
+                notifyBecameWorkable(latest);
+            }
+            else
+            {
+                queue.add(latest); // Could be inside already - duplicates are harmless
+                scheduleNext();
+            }
+        }
+
+        @Override
+        public void eventQsoModified(Qso qso, int row, int col, String oldValue)
+        {
+            if (Qso.affectsDupeCheck(col))
+            {
+                rebuild();
+            }
+        }
+
+        @Override
+        public void eventBulkChange()
+        {
+            rebuild();
+        }
+    }
+}
@@ -45,6 +45,19 @@ public class JythonObjectFactory
         this(new PySystemState(), interfaceType, moduleName, className);
     }
 
+    /**
+     * Reads an attribute of the python class (e.g. a user configuration field)
+     * 
+     * @param name - name of the class attribute
+     * @param type - Java type to which the value will be converted
+     * @return the value of the attribute
+     * @throws ClassCastException if the value can't be converted to the type
+     */
+    public <T> T getClassAttribute(String name, Class<T> type)
+    {
+        return type.cast(klass.__getattr__(name).__tojava__(type));
+    }
+
     // All of the followng methods return
     // a coerced Jython object based upon the pieces of information
     // that were passed into the factory. The differences are
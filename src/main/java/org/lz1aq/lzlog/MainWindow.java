@@ -34,11 +34,14 @@ import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.KeyEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.DefaultComboBoxModel;
@@ -47,6 +50,8 @@ import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JTable;
 import javax.swing.JToggleButton;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.Timer;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.DefaultTableCellRenderer;
@@ -60,10 +65,21 @@ import org.lz1aq.keyer.Keyer;
 import org.lz1aq.keyer.KeyerFactory;
 import org.lz1aq.keyer.VoiceKeyer;
 import org.lz1aq.log.Log;
+import org.lz1aq.log.Db4oLogDatabase;
+import org.lz1aq.log.JournalLogDatabase;
 import org.lz1aq.log.LogDatabase;
+import org.lz1aq.log.LogDatabaseFactory;
 import org.lz1aq.log.LogListener;
+import org.lz1aq.log.LogMerger;
 import org.lz1aq.log.LogTableModel;
 import org.lz1aq.log.Qso;
+import org.lz1aq.log.export.AdifExporter;
+import org.lz1aq.log.export.CabrilloExporter;
+import org.lz1aq.log.export.LogExportWorker;
+import org.lz1aq.log.export.LogExporter;
+import org.lz1aq.log.importer.LogImportWorker;
+import org.lz1aq.log.sync.LogSyncClient;
+import org.lz1aq.log.sync.LogSyncServer;
 import org.lz1aq.ptt.DtrRtsPtt;
 import org.lz1aq.ptt.Ptt;
 import org.lz1aq.ptt.PttTypes;
@@ -93,6 +109,12 @@ public class MainWindow extends javax.swing.JFrame
     private LogTableModel jtablemodelLog;
     private TimeToNextQsoTableModel jtablemodelIncomingQso;
     private BandmapTableModel jtablemodelBandmap;
+    private DupeExpiryScheduler dupeExpiryScheduler;
+    private LogExportWorker exportWorker;
+    private LogImportWorker importWorker;
+    private SwingWorker<List<Qso>, Void> mergeWorker;
+    private LogSyncServer logSyncServer; // Not null if this is the primary operating position
+    private LogSyncClient logSyncClient; // Not null if this is a follower
     private final ApplicationSettings settings;
     private final RadioController radioController;
     private Keyer keyer;
@@ -116,14 +138,22 @@ public class MainWindow extends javax.swing.JFrame
     private DocumentFilter dontShowAfterFilter = new DigitsOnlyFilter();
 
     private static final Logger LOGGER = Logger.getLogger(MainWindow.class.getName());
+
+    // What the callsign status label was computed for - see updateCallsignStatus()
+    private String statusCallsign = "";
+    private RadioModes statusMode;
+    private long statusLogVersion = -1;
+    private boolean isStatusCountingDown = false;
     
     private final ActionListener timer1secListener = new ActionListener()
     {
         @Override
         public void actionPerformed(ActionEvent evt)
         {
+            TimeUtils.tickClock();
             jtablemodelIncomingQso.refresh();
             jtablemodelBandmap.refresh(getBandmapStartFreq());
+            updateLogFrameTitle();
         }
     };
 
@@ -133,8 +163,8 @@ public class MainWindow extends javax.swing.JFrame
         public void actionPerformed(ActionEvent evt)
         {
             // On every second update the callsign status
-            String status = getCallsignStatusText(getCallsignFromTextField());
-            jlabelCallsignStatus.setText(status);
+            TimeUtils.tickClock();
+            updateCallsignStatus();
         }
     };
 
@@ -185,7 +215,15 @@ public class MainWindow extends javax.swing.JFrame
         try
         {
             Qso example = new Qso(14190000, RadioModes.CW, "lz1abc", "lz0fs", "200091", "200091", "cq"); // We need to supply an example QSO whwn creating/opening new
-            log = new Log(new LogDatabase(logDbFile), example);
+            LogDatabase logDb = LogDatabaseFactory.create(logDbFile);
+            log = new Log(logDb, example, true); // Database writes are done in the background
+            log.setStationId(settings.getStationId());
+            if(logDb instanceof JournalLogDatabase)
+            {
+                // Shows how long the recovery took if the program was not closed properly last time
+                JournalLogDatabase journal = (JournalLogDatabase) logDb;
+                jLabelStatus.setText("Log opened in " + journal.getOpenTimeMillis() + " ms (" + journal.getReplayedRecordCount() + " records replayed)");
+            }
         } catch(Exception ex)
         {
             LOGGER.log(Level.SEVERE, "Couldn't open the log database!", ex);
@@ -199,32 +237,41 @@ public class MainWindow extends javax.swing.JFrame
             }
 
             @Override
-            public void eventQsoAdded(Qso qso)
+            public void eventQsoAdded(Qso qso, int row)
             { 
             }
 
             @Override
-            public void eventQsoRemoved(Qso qso)
+            public void eventQsoRemoved(Qso qso, int row)
             {
                 initEntryFields(); // We need to update the Snt field in case we deleted the last contact
             }
 
             @Override
-            public void eventQsoModified(Qso qso)
+            public void eventQsoModified(Qso qso, int row, int col, String oldValue)
             {
                 initEntryFields(); // We need to update the Snt field in case we deleted the last contact
             }
+
+            @Override
+            public void eventBulkChange()
+            {
+                initEntryFields();
+            }
         });
         
+        // Tells the bandmap and the incoming Qso table when a station can be worked again
+        dupeExpiryScheduler = new DupeExpiryScheduler(log, settings);
+
         // Init TableModels
         jtablemodelLog = new LogTableModel(log);
         jtablemodelLog.setInvisible(4); // Hide myCall
         jtableLog.setModel(jtablemodelLog);
 
-        jtablemodelIncomingQso = new TimeToNextQsoTableModel(log, settings);
+        jtablemodelIncomingQso = new TimeToNextQsoTableModel(log, settings, dupeExpiryScheduler);
         jtableIncomingQso.setModel(jtablemodelIncomingQso);
 
-        jtablemodelBandmap = new BandmapTableModel(log, getBandmapStartFreq(), settings);
+        jtablemodelBandmap = new BandmapTableModel(log, getBandmapStartFreq(), settings, dupeExpiryScheduler);
         jtableBandmap.setModel(jtablemodelBandmap);
 
         // Renderer for the bandmap
@@ -232,6 +279,9 @@ public class MainWindow extends javax.swing.JFrame
         jtableIncomingQso.setDefaultRenderer(Object.class, new IncomingQsoTableCellRender());
         jtableLog.setDefaultRenderer(Object.class, new LogTableCellRender());
 
+        // Sharing the log with the other operating positions
+        startLogSync();
+
         // Communicating with the radio
         radioController = new RadioController();
         keyer = radioController.getKeyer(); // Radio will be the default keyer
@@ -555,6 +605,8 @@ public class MainWindow extends javax.swing.JFrame
         jMenu1 = new javax.swing.JMenu();
         jmenuGenerateCabrillo = new javax.swing.JMenuItem();
         jMenuItem7 = new javax.swing.JMenuItem();
+        jmenuImportLog = new javax.swing.JMenuItem();
+        jmenuMergeLog = new javax.swing.JMenuItem();
         jMenu2 = new javax.swing.JMenu();
         jmenuSettings = new javax.swing.JMenuItem();
         jmenuFonts = new javax.swing.JMenuItem();
@@ -2306,6 +2358,26 @@ public class MainWindow extends javax.swing.JFrame
         });
         jMenu1.add(jMenuItem7);
 
+        jmenuImportLog.setText("Import Adif/Cabrillo File");
+        jmenuImportLog.addActionListener(new java.awt.event.ActionListener()
+        {
+            public void actionPerformed(java.awt.event.ActionEvent evt)
+            {
+                jmenuImportLogActionPerformed(evt);
+            }
+        });
+        jMenu1.add(jmenuImportLog);
+
+        jmenuMergeLog.setText("Merge Log From Another Position");
+        jmenuMergeLog.addActionListener(new java.awt.event.ActionListener()
+        {
+            public void actionPerformed(java.awt.event.ActionEvent evt)
+            {
+                jmenuMergeLogActionPerformed(evt);
+            }
+        });
+        jMenu1.add(jmenuMergeLog);
+
         jMenuBar1.add(jMenu1);
 
         jMenu2.setText("Tools");
@@ -2446,6 +2518,9 @@ public class MainWindow extends javax.swing.JFrame
       storeFonts();
 
       settings.SaveSettingsToDisk(); // Save all settings to disk
+      
+      stopLogSync();
+      log.close(); // Flush and compact the log database
   }//GEN-LAST:event_formWindowClosing
 
   private void jmenuSettingsActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jmenuSettingsActionPerformed
@@ -2467,8 +2542,7 @@ public class MainWindow extends javax.swing.JFrame
   private void jtextfieldCallsignKeyReleased(java.awt.event.KeyEvent evt)//GEN-FIRST:event_jtextfieldCallsignKeyReleased
   {//GEN-HEADEREND:event_jtextfieldCallsignKeyReleased
       // On every key press update the callsign status
-      String status = getCallsignStatusText(getCallsignFromTextField());
-      jlabelCallsignStatus.setText(status);
+      updateCallsignStatus();
   }//GEN-LAST:event_jtextfieldCallsignKeyReleased
 
   private void jtextfieldCallsignKeyTyped(java.awt.event.KeyEvent evt)//GEN-FIRST:event_jtextfieldCallsignKeyTyped
@@ -2750,6 +2824,7 @@ public class MainWindow extends javax.swing.JFrame
   private void jbuttonSetCqFreqActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jbuttonSetCqFreqActionPerformed
   {//GEN-HEADEREND:event_jbuttonSetCqFreqActionPerformed
       cqFrequency = getFreq();
+      jtableBandmap.repaint(); // The CQ frequency marker has moved
       jlabelCqFreq.setText(Misc.formatFrequency(Integer.toString(cqFrequency)));
   }//GEN-LAST:event_jbuttonSetCqFreqActionPerformed
 
@@ -2823,30 +2898,7 @@ public class MainWindow extends javax.swing.JFrame
           return;
       }
 
-      // Write the cabrillo file
-      try(PrintWriter printWriter = new PrintWriter(absPath))
-      {
-          printWriter.println("START-OF-LOG: 2.0");
-          printWriter.println("CALLSIGN: " + settings.getMyCallsign());
-          printWriter.println("CONTEST: ");
-          printWriter.println("CATEGORY: ");
-          printWriter.println("CLAIMED-SCORE: ");
-          printWriter.println("OPERATORS: ");
-          printWriter.println("NAME: ");
-          printWriter.println("ADDRESS: ");
-          printWriter.println("ADDRESS: ");
-          printWriter.println("CREATED-BY: " + PROGRAM_NAME + " " + PROGRAM_VERSION);
-          for(int i = 0; i < log.getQsoCount(); i++)
-          {
-              printWriter.println(log.get(i).toStringCabrillo());
-          }
-          printWriter.println("END-OF-LOG:");
-      } catch(FileNotFoundException ex)
-      {
-          JOptionPane.showMessageDialog(null, "Couldn't generate the Cabrillo file", "Error", JOptionPane.ERROR_MESSAGE);
-      }
-
-      JOptionPane.showMessageDialog(null, "Cabrilo file created successfully.", "Success...", JOptionPane.INFORMATION_MESSAGE);
+      startExport(new CabrilloExporter(settings.getMyCallsign(), PROGRAM_NAME + " " + PROGRAM_VERSION), file, "Cabrillo");
   }//GEN-LAST:event_jmenuGenerateCabrilloActionPerformed
 
   private void jbuttonKeyerUPActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jbuttonKeyerUPActionPerformed
@@ -3133,23 +3185,58 @@ public class MainWindow extends javax.swing.JFrame
           return;
       }
 
-      // Write the cabrillo file
-      try(PrintWriter printWriter = new PrintWriter(absPath))
+      startExport(new AdifExporter(PROGRAM_NAME, PROGRAM_VERSION), file, "Adif");
+  }//GEN-LAST:event_jMenuItem7ActionPerformed
+
+  private void jmenuImportLogActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jmenuImportLogActionPerformed
+  {//GEN-HEADEREND:event_jmenuImportLogActionPerformed
+      JFileChooser fc = new JFileChooser();
+      fc.setFileFilter(new FileNameExtensionFilter("Adif and Cabrillo files (*.adi, *.adif, *.log, *.cbr)", "adi", "adif", "log", "cbr"));
+      fc.setCurrentDirectory(Paths.get(pathToWorkingDir, "/logs/").toFile());
+      try
       {
-          printWriter.println("<programid>" + PROGRAM_NAME);
-          printWriter.println("<programversion>" + PROGRAM_VERSION);
-          printWriter.println("<eoh>");
-          for(int i = 0; i < log.getQsoCount(); i++)
+          int returnVal = fc.showOpenDialog(this.getParent());
+          if(returnVal != JFileChooser.APPROVE_OPTION)
           {
-              printWriter.println(log.get(i).toStringAdif());
+              return;
           }
-      } catch(FileNotFoundException ex)
+      } catch(Exception exc)
       {
-          JOptionPane.showMessageDialog(null, "Couldn't generate the adif file", "Error", JOptionPane.ERROR_MESSAGE);
+          JOptionPane.showMessageDialog(null, "Error when trying to acquire log file.", "Error", JOptionPane.ERROR_MESSAGE);
+          return;
       }
 
-      JOptionPane.showMessageDialog(null, "Adif file created successfully.", "Success...", JOptionPane.INFORMATION_MESSAGE);
-  }//GEN-LAST:event_jMenuItem7ActionPerformed
+      startImport(fc.getSelectedFile());
+  }//GEN-LAST:event_jmenuImportLogActionPerformed
+
+  private void jmenuMergeLogActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jmenuMergeLogActionPerformed
+  {//GEN-HEADEREND:event_jmenuMergeLogActionPerformed
+      JFileChooser fc = new JFileChooser();
+      fc.setFileFilter(new FileNameExtensionFilter("Log files (*." + JournalLogDatabase.FILE_EXTENSION + ", *." + Db4oLogDatabase.FILE_EXTENSION + ")",
+                                                   JournalLogDatabase.FILE_EXTENSION, Db4oLogDatabase.FILE_EXTENSION));
+      fc.setCurrentDirectory(Paths.get(pathToWorkingDir, "/logs/").toFile());
+      try
+      {
+          int returnVal = fc.showOpenDialog(this.getParent());
+          if(returnVal != JFileChooser.APPROVE_OPTION)
+          {
+              return;
+          }
+      } catch(Exception exc)
+      {
+          JOptionPane.showMessageDialog(null, "Error when trying to acquire log file.", "Error", JOptionPane.ERROR_MESSAGE);
+          return;
+      }
+
+      File file = fc.getSelectedFile();
+      if(file.getAbsolutePath().equals(new File(logDbFile).getAbsolutePath()))
+      {
+          JOptionPane.showMessageDialog(null, "This is the currently opened log.", "Error", JOptionPane.ERROR_MESSAGE);
+          return;
+      }
+
+      startMerge(file);
+  }//GEN-LAST:event_jmenuMergeLogActionPerformed
 
   private void jComboBoxKeyerTypeItemStateChanged(java.awt.event.ItemEvent evt)//GEN-FIRST:event_jComboBoxKeyerTypeItemStateChanged
   {//GEN-HEADEREND:event_jComboBoxKeyerTypeItemStateChanged
@@ -3166,6 +3253,202 @@ public class MainWindow extends javax.swing.JFrame
 //    }
   }//GEN-LAST:event_jComboBoxKeyerTypeItemStateChanged
 
+    /**
+     * Writes the log into a file on a background thread. The progress is shown
+     * in the status label and the result in a message dialog.
+     *
+     * @param exporter - defines the file format
+     * @param file - destination file, must not exist
+     * @param formatName - used in the messages shown to the user
+     */
+    private void startExport(LogExporter exporter, File file, final String formatName)
+    {
+        if(exportWorker != null && !exportWorker.isDone())
+        {
+            JOptionPane.showMessageDialog(null, "Another export is still running.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        // The snapshot is taken here so the file contains the log as it is right now
+        exportWorker = new LogExportWorker(exporter, log.getSnapshot(), file.toPath())
+        {
+            @Override
+            protected void done()
+            {
+                try
+                {
+                    get();
+                    jLabelStatus.setText(formatName + " export done");
+                    JOptionPane.showMessageDialog(null, formatName + " file created successfully.", "Success...", JOptionPane.INFORMATION_MESSAGE);
+                }
+                catch(InterruptedException | ExecutionException ex)
+                {
+                    LOGGER.log(Level.SEVERE, "Export failed", ex);
+                    jLabelStatus.setText(formatName + " export failed");
+                    JOptionPane.showMessageDialog(null, "Couldn't generate the " + formatName + " file", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        exportWorker.addPropertyChangeListener(new PropertyChangeListener()
+        {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt)
+            {
+                if("progress".equals(evt.getPropertyName()))
+                {
+                    jLabelStatus.setText(formatName + " export: " + evt.getNewValue() + "%");
+                }
+            }
+        });
+        exportWorker.execute();
+    }
+
+    /**
+     * Reads a log file on a background thread and then adds all of its Qsos to
+     * the log at once.
+     *
+     * @param file - ADIF or Cabrillo file
+     */
+    private void startImport(File file)
+    {
+        if(importWorker != null && !importWorker.isDone())
+        {
+            JOptionPane.showMessageDialog(null, "Another import is still running.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        jLabelStatus.setText("Importing " + file.getName());
+        importWorker = new LogImportWorker(file.toPath())
+        {
+            @Override
+            protected void done()
+            {
+                List<Qso> qsos;
+                try
+                {
+                    qsos = get();
+                }
+                catch(InterruptedException | ExecutionException ex)
+                {
+                    LOGGER.log(Level.SEVERE, "Import failed", ex);
+                    jLabelStatus.setText("Import failed");
+                    JOptionPane.showMessageDialog(null, "Couldn't read the log file", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                log.addAll(qsos); // Single commit and single event for the whole file
+                jLabelStatus.setText("Import done");
+                JOptionPane.showMessageDialog(null, "Imported " + qsos.size() + " Qsos (" + getSkippedCount() + " invalid records skipped).", "Success...", JOptionPane.INFORMATION_MESSAGE);
+            }
+        };
+        importWorker.execute();
+    }
+
+    /**
+     * Reads another log file in the background and merges it into the log
+     * (see LogMerger). Only the merge itself is done on the Swing thread.
+     *
+     * @param file - log file of another operating position
+     */
+    private void startMerge(final File file)
+    {
+        if(mergeWorker != null && !mergeWorker.isDone())
+        {
+            JOptionPane.showMessageDialog(null, "Another merge is still running.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        jLabelStatus.setText("Reading " + file.getName());
+        mergeWorker = new SwingWorker<List<Qso>, Void>()
+        {
+            @Override
+            protected List<Qso> doInBackground() throws Exception
+            {
+                // Only read - the other log could be opened by another operating position
+                List<Qso> qsos = LogDatabaseFactory.readAll(file.getAbsolutePath());
+                for(Qso qso : qsos)
+                {
+                    qso.getParamsCount(); // Qsos from a snapshot file are read here and not on the Swing thread
+                }
+                return qsos;
+            }
+
+            @Override
+            protected void done()
+            {
+                LogMerger.Result result;
+                try
+                {
+                    result = LogMerger.merge(log, get());
+                }
+                catch(InterruptedException | ExecutionException | RuntimeException ex)
+                {
+                    LOGGER.log(Level.SEVERE, "Merge failed", ex);
+                    jLabelStatus.setText("Merge failed");
+                    JOptionPane.showMessageDialog(null, "Couldn't merge the log file", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                jLabelStatus.setText("Merge done");
+                JOptionPane.showMessageDialog(null, "Added " + result.getAddedCount() + " Qsos, updated " + result.getUpdatedCount() + " Qsos.", "Success...", JOptionPane.INFORMATION_MESSAGE);
+            }
+        };
+        mergeWorker.execute();
+    }
+
+    /**
+     * Starts the log replication according to the settings. Changes coming
+     * from the other operating positions are applied on the Swing thread.
+     */
+    private void startLogSync()
+    {
+        Executor swingExecutor = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                SwingUtilities.invokeLater(command);
+            }
+        };
+
+        switch(settings.getLogSyncRole())
+        {
+            case PRIMARY:
+                logSyncServer = new LogSyncServer(log, settings.getLogSyncPort(), swingExecutor);
+                try
+                {
+                    logSyncServer.start();
+                }
+                catch(IOException ex)
+                {
+                    LOGGER.log(Level.SEVERE, "Couldn't start the log sync server", ex);
+                    JOptionPane.showMessageDialog(null, "Couldn't open port " + settings.getLogSyncPort() + " for the other operating positions.", "Error", JOptionPane.ERROR_MESSAGE);
+                    logSyncServer = null;
+                }
+                break;
+
+            case FOLLOWER:
+                logSyncClient = new LogSyncClient(log, settings.getLogSyncHost(), settings.getLogSyncPort(), swingExecutor);
+                logSyncClient.start();
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private void stopLogSync()
+    {
+        if(logSyncServer != null)
+        {
+            logSyncServer.stop();
+        }
+        if(logSyncClient != null)
+        {
+            logSyncClient.stop();
+        }
+    }
+
     private void increaseKeyerSpeed()
     {
         if(keyerSpeed > 45)
@@ -3309,6 +3592,7 @@ public class MainWindow extends javax.swing.JFrame
 
         try
         {
+            radioController.setCoalescingWindow(settings.getRadioCoalescingWindow());
             result = radioController.connect(new LocalRadioControllerListener(),
                     serialportShare.getPort(settings.getRadioCommportName()),
                     settings.getRadioCommportBaudRate());
@@ -3535,6 +3819,31 @@ public class MainWindow extends javax.swing.JFrame
         return callsign;
     }
 
+    /**
+     * Updates the callsign status label. The status is computed again only if
+     * the callsign, the mode or the log have changed, or if the label is 
+     * counting down the time left till the next QSO.
+     */
+    private void updateCallsignStatus()
+    {
+        String callsign = getCallsignFromTextField();
+        RadioModes mode = getMode();
+        long logVersion = log.getSnapshot().getVersion();
+
+        if(callsign.equals(statusCallsign) && mode == statusMode && logVersion == statusLogVersion && !isStatusCountingDown)
+        {
+            return;
+        }
+
+        statusCallsign = callsign;
+        statusMode = mode;
+        statusLogVersion = logVersion;
+
+        String status = getCallsignStatusText(callsign);
+        isStatusCountingDown = status.startsWith("<html>"); // Only DUPE is shown in html
+        jlabelCallsignStatus.setText(status);
+    }
+
     /**
      * Prints info concerning the callsign: NEW - If no qso before OK - Qso
      * before but the required time has elapsed DUPE time left... - Qso before
@@ -3599,10 +3908,34 @@ public class MainWindow extends javax.swing.JFrame
         jtextfieldRcv.setText("");
         // Clean the callsign status
         jlabelCallsignStatus.setText("NEW");
+        statusLogVersion = -1; // The status must be computed again on the next update
         // Set focus to callsign field
         jtextfieldCallsign.requestFocusInWindow();
 
         jtablemodelIncomingQso.init();
+        dupeExpiryScheduler.reschedule(); // In case the repeat period was changed
+    }
+
+    /**
+     * Shows inside the title of the Log frame the number of Qsos which are not
+     * yet written to the disk (and why, if writing has failed).
+     */
+    private void updateLogFrameTitle()
+    {
+        int pendingWrites = log.getPendingWriteCount();
+        String writeError = log.getLastWriteError();
+        if(writeError != null)
+        {
+            intframeLog.setTitle("Log (NOT SAVED: " + pendingWrites + " changes - " + writeError + ")");
+        }
+        else if(pendingWrites > 0)
+        {
+            intframeLog.setTitle("Log (saving " + pendingWrites + ")");
+        }
+        else
+        {
+            intframeLog.setTitle("Log");
+        }
     }
 
     private void setSntField()
@@ -3610,7 +3943,7 @@ public class MainWindow extends javax.swing.JFrame
         String snt = settings.getContestExchange();
 
         // {#} - is [serial number]
-        String serial = String.format("%03d", log.getQsoCount() + 1);
+        String serial = String.format("%03d", log.getOwnQsoCount() + 1);
         snt = snt.replaceAll("\\{#\\}", serial);
 
         // {$} - is [first part of last Rcv] 
@@ -3974,6 +4307,7 @@ public class MainWindow extends javax.swing.JFrame
         else
         {
             cqFrequency = getFreq();
+            jtableBandmap.repaint(); // The CQ frequency marker has moved
             jlabelCqFreq.setText(Misc.formatFrequency(Integer.toString(cqFrequency)));
         }
 
@@ -4339,15 +4673,15 @@ public class MainWindow extends javax.swing.JFrame
     }
 
     /**
-     * Will return true if new db4o log file can be created. Theabsolute path
+     * Will return true if new log file can be created. Theabsolute path
      * for the log file will be written in logDbFile.
      *
-     * @return true in case the db4o file can be created
+     * @return true in case the log file can be created
      */
     private boolean createNewLog()
     {
         JFileChooser fc = new JFileChooser();
-        fc.setFileFilter(new FileNameExtensionFilter("Log database files (*.db4o)", "db4o"));
+        fc.setFileFilter(new FileNameExtensionFilter("Log files (*." + JournalLogDatabase.FILE_EXTENSION + ")", JournalLogDatabase.FILE_EXTENSION));
         fc.setCurrentDirectory(Paths.get(pathToWorkingDir, "/logs/").toFile());
         try
         {
@@ -4363,9 +4697,9 @@ public class MainWindow extends javax.swing.JFrame
         }
 
         logDbFile = fc.getSelectedFile().getAbsolutePath();
-        if(!logDbFile.endsWith(".db4o"))
+        if(!logDbFile.endsWith("." + JournalLogDatabase.FILE_EXTENSION))
         {
-            logDbFile = logDbFile + ".db4o";
+            logDbFile = logDbFile + "." + JournalLogDatabase.FILE_EXTENSION;
         }
 
         File file = new File(logDbFile);
@@ -4379,15 +4713,18 @@ public class MainWindow extends javax.swing.JFrame
     }
 
     /**
-     * Will return true if existing .db4o log file was found. The log file
+     * Will return true if existing log file was found. The log file
      * absolute path will be written in logDbFile.
+     * 
+     * Old .db4o logs can be optionally converted to the journal format.
      *
-     * @return true in case the db4o file was found.
+     * @return true in case the log file was found.
      */
     private boolean findExistingLog()
     {
         JFileChooser fc = new JFileChooser();
-        fc.setFileFilter(new FileNameExtensionFilter("Log database files (*.db4o)", "db4o"));
+        fc.setFileFilter(new FileNameExtensionFilter("Log files (*." + JournalLogDatabase.FILE_EXTENSION + ", *." + Db4oLogDatabase.FILE_EXTENSION + ")",
+                                                     JournalLogDatabase.FILE_EXTENSION, Db4oLogDatabase.FILE_EXTENSION));
         fc.setCurrentDirectory(Paths.get(pathToWorkingDir, "/logs/").toFile());
         try
         {
@@ -4410,6 +4747,55 @@ public class MainWindow extends javax.swing.JFrame
             JOptionPane.showMessageDialog(null, "Log file not found: " + file.getAbsolutePath(), "Error", JOptionPane.ERROR_MESSAGE);
             return false;
         }
+        
+        if(logDbFile.endsWith("." + Db4oLogDatabase.FILE_EXTENSION))
+        {
+            return convertDb4oLog();
+        }
+        return true;
+    }
+    
+    /**
+     * Offers the user to convert the .db4o log pointed by logDbFile into the
+     * journal format. If the conversion is done logDbFile will point to the new
+     * log file. The .db4o file is kept untouched.
+     * 
+     * @return false if the conversion failed
+     */
+    private boolean convertDb4oLog()
+    {
+        String journalFile = logDbFile.substring(0, logDbFile.length() - Db4oLogDatabase.FILE_EXTENSION.length()) + JournalLogDatabase.FILE_EXTENSION;
+        
+        // Converted on a previous start
+        if(new File(journalFile).exists())
+        {
+            int response = JOptionPane.showConfirmDialog(null, "The log has already been converted to the new format:\n" + journalFile + "\nOpen the converted log?", "Convert log",
+                  JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+            if(response == JOptionPane.YES_OPTION)
+            {
+                logDbFile = journalFile;
+            }
+            return true; // Otherwise continue with the db4o file
+        }
+        
+        int response = JOptionPane.showConfirmDialog(null, "The log is in the old db4o format. Convert it to the new faster log format?\n(The original file will be kept)", "Convert log",
+              JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+        if(response != JOptionPane.YES_OPTION)
+        {
+            return true; // Continue with the db4o file
+        }
+        
+        try
+        {
+            JournalLogDatabase.importDb4o(logDbFile, journalFile);
+        } catch(Exception ex)
+        {
+            LOGGER.log(Level.SEVERE, "Couldn't convert the log", ex);
+            JOptionPane.showMessageDialog(null, "Couldn't convert the log: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        
+        logDbFile = journalFile;
         return true;
     }
 
@@ -4439,6 +4825,7 @@ public class MainWindow extends javax.swing.JFrame
                             || System.currentTimeMillis() - lastCtrlAltPressed < 100)  // sometimes people release the Alt key earlier
                     {
                         cqFrequency = getFreq();
+                        jtableBandmap.repaint(); // The CQ frequency marker has moved
                         jlabelCqFreq.setText(Misc.formatFrequency(Integer.toString(cqFrequency)));
                         evt.consume();
                     }
@@ -4901,6 +5288,8 @@ public class MainWindow extends javax.swing.JFrame
     private javax.swing.JLabel jlabelKeyerSpeed;
     private javax.swing.JMenuItem jmenuFonts;
     private javax.swing.JMenuItem jmenuGenerateCabrillo;
+    private javax.swing.JMenuItem jmenuImportLog;
+    private javax.swing.JMenuItem jmenuMergeLog;
     private javax.swing.JMenuItem jmenuSettings;
     private javax.swing.JMenu jmenuWindows;
     private javax.swing.JPanel jpanelCallsign;
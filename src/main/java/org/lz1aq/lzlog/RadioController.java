@@ -32,6 +32,12 @@ import org.lz1aq.ptt.Ptt;
 import org.lz1aq.py.rig.I_Radio;
 import org.lz1aq.py.rig.I_SerialSettings;
 import org.lz1aq.radio.Radio;
+import org.lz1aq.radio.RadioEventDispatcher;
+import org.lz1aq.radio.codec.ElecraftCodec;
+import org.lz1aq.radio.codec.IcomCodec;
+import org.lz1aq.radio.codec.KenwoodCodec;
+import org.lz1aq.radio.codec.RadioCodec;
+import org.lz1aq.radio.codec.YaesuCodec;
 import org.lz1aq.radio.event.ActiveVfoEvent;
 import org.lz1aq.radio.event.ConfirmationEvent;
 import org.lz1aq.radio.event.FrequencyEvent;
@@ -52,15 +58,17 @@ import org.lz1aq.utils.MorseCode;
 public class RadioController
 {
   private boolean isConnected = false;
-  private int freqVfoA = 14000000;
-  private int freqVfoB = 14000000; 
-  private RadioModes modeVfoA = RadioModes.CW;
-  private RadioModes modeVfoB = RadioModes.CW;
-  private RadioVfos activeVfo = RadioVfos.A;
+  // Updated on the radio event thread
+  private volatile int freqVfoA = 14000000;
+  private volatile int freqVfoB = 14000000; 
+  private volatile RadioModes modeVfoA = RadioModes.CW;
+  private volatile RadioModes modeVfoB = RadioModes.CW;
+  private volatile RadioVfos activeVfo = RadioVfos.A;
   private final CopyOnWriteArrayList<RadioControllerListener>  eventListeners;
   private Radio         radio;
   private I_Radio       radioParser;  
   private final Keyer   keyer = new RadioKeyer();
+  private int           coalescingWindow = Radio.DEFAULT_COALESCING_WINDOW;
   
   
   private static final Logger logger = Logger.getLogger(RadioController.class.getName());
@@ -93,7 +101,7 @@ public class RadioController
 
       // Create radioParser object from the python Class
       JythonObjectFactory f2 = new JythonObjectFactory(I_Radio.class, moduleName, className);
-      radioParser = (I_Radio) f2.createObject();
+      radioParser = createNativeParser(className, (I_Radio) f2.createObject(), f2);
       return true;
       
     }catch(Exception exc)
@@ -103,6 +111,34 @@ public class RadioController
     }
   }
   
+  /**
+   * The rigs from pyrig have protocol parsers written in Java which are much
+   * faster than the jython ones. The python object is still used for the 
+   * settings that the user might have changed (serial port settings, CIV address etc.).
+   * 
+   * @param className - name of the python class
+   * @param pythonParser - object created from the python class
+   * @param factory - factory that created pythonParser
+   * @return a Java parser or pythonParser if there is no Java parser for this rig
+   */
+  private static I_Radio createNativeParser(String className, I_Radio pythonParser, JythonObjectFactory factory)
+  {
+    switch(className)
+    {
+      case "Icom":
+        return new IcomCodec(pythonParser, factory.getClassAttribute("CIV_ADDRESS", Integer.class));
+      case "Kenwood":
+        return new KenwoodCodec(pythonParser, factory.getClassAttribute("AUTO_INFO_MODE", String.class));
+      case "Elecraft":
+        return new ElecraftCodec(pythonParser, factory.getClassAttribute("AUTO_INFO_MODE", String.class));
+      case "Yaesu":
+        return new YaesuCodec(pythonParser);
+      default:
+        return pythonParser;
+    }
+  }
+  
+  
   /**
    * Establishes connection with the Radio.
    * Preconditions:
@@ -128,8 +164,9 @@ public class RadioController
     {
       //Create the radio object using the selected Com port
       radio = new Radio(radioParser, commport);
+      radio.setCoalescingWindow(coalescingWindow);
       setComPortParams(commport, baudRate);
-      radio.addEventListener(new RadioController.LocalRadioListener());
+      radio.addEventListener(new RadioController.LocalRadioListener(), RadioEventDispatcher.Policy.COALESCE); // Only the latest values matter
       radio.connect(); // Let's not forget to call connect(). Calling disconnects() later will close the Com Port
       eventListeners.add(listener);
       
@@ -193,6 +230,18 @@ public class RadioController
   }
   
   
+  /**
+   * Limits the frequency and mode updates to one per VFO within the window. 
+   * Takes effect on the next connect().
+   * 
+   * @param millis - length of the window. 0 disables it.
+   */
+  public void setCoalescingWindow(int millis)
+  {
+    coalescingWindow = millis;
+  }
+  
+  
   /**
    * Read the frequency from the VFO that is currently in use
    * 
@@ -379,6 +428,8 @@ public class RadioController
                   "model: " + radioParser.getModel() +
                   "\n"+
                   "serial port settings: " + serialSettings.toString()+
+                  "\n" +
+                  "protocol parser: " + (radioParser instanceof RadioCodec ? "Java" : "jython") +
                   "\n";
    return info;
   }
@@ -19,18 +19,33 @@
 // ***************************************************************************
 package org.lz1aq.lzlog;
 
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 import org.lz1aq.log.Log;
 import org.lz1aq.log.LogListener;
+import org.lz1aq.log.LogSnapshot;
 import org.lz1aq.log.Qso;
 import org.lz1aq.radio.RadioModes;
 import org.lz1aq.utils.Misc;
 import org.lz1aq.utils.TimeUtils;
 
 /**
+ * Shows the latest QSO per callsign/mode and the time left until the station
+ * can be worked again.
+ * 
+ * The rows are kept sorted by the time of the QSO (i.e. by expiry time) so 
+ * the QSOs that are to be hidden are always at the beginning of the list. 
+ * A hash index by callsign/mode is used for finding the QSO which is to be 
+ * replaced by a newer one.
+ * 
+ * The model is accessed only from the Swing thread (timers and log changes
+ * which are made by the GUI).
  *
  * @author potty
  */
@@ -38,22 +53,29 @@ public class TimeToNextQsoTableModel extends AbstractTableModel
 {
 
     private final static int NUMBER_OF_COLUMNS = 5;
+    private final static int TIME_LEFT_COLUMN = 4;
     private static final Logger LOGGER = Logger.getLogger(TimeToNextQsoTableModel.class.getName());
 
     private final Log log;
-    private final CopyOnWriteArrayList<Qso> listTimeToNextQso;
+    private final ArrayList<Qso> listTimeToNextQso;        // Sorted by Qso time - oldest first
+    private final HashMap<String, Qso> mapTimeToNextQso;   // The Qsos from listTimeToNextQso by callsign/mode (see Qso.getDupeKey())
     private final ApplicationSettings appSettings;
     private final TimeToNextQsoTableModel.LocalLogListener logListener;
+    
+    private int initRepeatPeriod;  // Settings used when the list was built - the list is built again if they change
+    private int initHideAfter;
 
-    public TimeToNextQsoTableModel(Log log, ApplicationSettings appsettings)
+    public TimeToNextQsoTableModel(Log log, ApplicationSettings appsettings, DupeExpiryScheduler dupeExpiryScheduler)
     {
         this.log = log;
         this.appSettings = appsettings;
 
-        listTimeToNextQso = new CopyOnWriteArrayList<>();
+        listTimeToNextQso = new ArrayList<>();
+        mapTimeToNextQso = new HashMap<>();
         logListener = new TimeToNextQsoTableModel.LocalLogListener();
 
         this.log.addEventListener(logListener);
+        dupeExpiryScheduler.addEventListener(new TimeToNextQsoTableModel.LocalDupeExpiryListener());
     }
 
     @Override
@@ -123,7 +145,7 @@ public class TimeToNextQsoTableModel extends AbstractTableModel
 
     public int getFrequency(int row) throws Exception
     {
-        return Integer.parseInt(listTimeToNextQso.get(row).getFrequency());
+        return listTimeToNextQso.get(row).getFrequencyInt();
     }
 
     public RadioModes getMode(int row) throws Exception
@@ -161,35 +183,131 @@ public class TimeToNextQsoTableModel extends AbstractTableModel
      */
     public void refresh()
     {
+        // The QSOs to be hidden are at the beginning of the list
+        int hiddenCount = 0;
+        while(hiddenCount < listTimeToNextQso.size() && isHidden(listTimeToNextQso.get(hiddenCount)))
+        {
+            mapTimeToNextQso.remove(listTimeToNextQso.get(hiddenCount).getDupeKey());
+            hiddenCount++;
+        }
+        
+        if(hiddenCount > 0)
+        {
+            listTimeToNextQso.subList(0, hiddenCount).clear();
+            this.fireTableRowsDeleted(0, hiddenCount - 1);
+        }
+        
+        // Only the "time left" column changes for all rows. The color of a row
+        // changes when the DupeExpiryScheduler tells us.
+        if(listTimeToNextQso.size() > 0)
+        {
+            this.fireTableChanged(new TableModelEvent(this, 0, listTimeToNextQso.size() - 1, TIME_LEFT_COLUMN));
+        }
+    }
 
-        for(Qso qso : listTimeToNextQso)
+    /**
+     * Builds the list again if the settings for the repeat period or for the 
+     * hiding of old QSOs have changed.
+     */
+    public void init()
+    {
+        if(initRepeatPeriod != appSettings.getQsoRepeatPeriod()
+           || initHideAfter != appSettings.getIncomingQsoHiderAfter())
         {
-            if(Misc.getSecondsLeft(qso.getElapsedSeconds(), appSettings.getQsoRepeatPeriod()) < appSettings.getIncomingQsoHiderAfter() * (-1))
+            logListener.eventInit();
+        }
+    }
+
+    /**
+     * @param qso
+     * @return true if the QSO is older than what should be shown (see "appSettings.getIncomingQsoHiderAfter")
+     */
+    private boolean isHidden(Qso qso)
+    {
+        return Misc.getSecondsLeft(qso.getElapsedSeconds(), appSettings.getQsoRepeatPeriod()) < appSettings.getIncomingQsoHiderAfter() * (-1);
+    }
+
+    /**
+     * Inserts the QSO in listTimeToNextQso[] keeping the list sorted by time
+     * and notifies the table.
+     *
+     * @param qso
+     */
+    private void insert(Qso qso)
+    {
+        long epoch = qso.getEpochSeconds();
+
+        // Find the first QSO which is newer - usually the new QSO goes at the end
+        int low = 0;
+        int high = listTimeToNextQso.size();
+        while(low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if(listTimeToNextQso.get(mid).getEpochSeconds() <= epoch)
             {
-                listTimeToNextQso.remove(qso);
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
             }
         }
-        this.fireTableDataChanged();
+
+        listTimeToNextQso.add(low, qso);
+        mapTimeToNextQso.put(qso.getDupeKey(), qso);
+        this.fireTableRowsInserted(low, low);
     }
 
-    public void init()
+    /**
+     * Removes the QSO from listTimeToNextQso[] and notifies the table.
+     *
+     * @param qso
+     * @return false if the QSO was not found
+     */
+    private boolean delete(Qso qso)
     {
-        logListener.eventInit();
+        int row = indexOf(qso);
+        if(row < 0)
+        {
+            return false;
+        }
+
+        listTimeToNextQso.remove(row);
+        if(mapTimeToNextQso.get(qso.getDupeKey()) == qso)
+        {
+            mapTimeToNextQso.remove(qso.getDupeKey());
+        }
+        this.fireTableRowsDeleted(row, row);
+        return true;
     }
 
     /**
-     * Finds a QSO within listTimeToNextQso[] which has the same combination of
-     * callsign/mode
-     *
-     * @param call
-     * @param mode
-     * @return
+     * @param qso
+     * @return The row of the QSO inside listTimeToNextQso[] or -1 if not found
      */
-    private int find(String call, RadioModes mode)
+    private int indexOf(Qso qso)
     {
-        for(int i = 0; i < listTimeToNextQso.size(); i++)
+        long epoch = qso.getEpochSeconds();
+
+        // Find the first QSO with the same time
+        int low = 0;
+        int high = listTimeToNextQso.size();
+        while(low < high)
         {
-            if(call.equalsIgnoreCase(listTimeToNextQso.get(i).getHisCallsign()) && mode == listTimeToNextQso.get(i).getMode())
+            int mid = (low + high) >>> 1;
+            if(listTimeToNextQso.get(mid).getEpochSeconds() < epoch)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+
+        for(int i = low; i < listTimeToNextQso.size() && listTimeToNextQso.get(i).getEpochSeconds() == epoch; i++)
+        {
+            if(listTimeToNextQso.get(i) == qso)
             {
                 return i;
             }
@@ -207,91 +325,106 @@ public class TimeToNextQsoTableModel extends AbstractTableModel
         public void eventInit()
         {
             listTimeToNextQso.clear();
+            mapTimeToNextQso.clear();
+            initRepeatPeriod = appSettings.getQsoRepeatPeriod();
+            initHideAfter = appSettings.getIncomingQsoHiderAfter();
 
             // For each logged QSO check if it is the latest per callsign/mode
-            for(int i = 0; i < log.getSize(); i++)
+            LogSnapshot snapshot = log.getSnapshot();
+            for(int i = 0; i < snapshot.getSize(); i++)
             {
-
-                if(Misc.getSecondsLeft(log.get(i).getElapsedSeconds(), appSettings.getQsoRepeatPeriod()) < appSettings.getIncomingQsoHiderAfter() * (-1))
+                Qso qso = snapshot.get(i);
+                
+                if(isHidden(qso))
                 {
                     // Do not insert QSOs older than "appSettings.getIncomingQsoHiderAfter"
                     continue;
                 }
 
-                String call = log.get(i).getHisCallsign();
-                RadioModes mode = log.get(i).getMode();
-                int local_index = find(call, mode);
+                Qso local = mapTimeToNextQso.get(qso.getDupeKey());
 
-                // Callsign/Mode combination already available inside listTimeToNextQso
-                if(local_index >= 0)
+                // Make sure that the locally found QSO has an older date before substituting
+                if(local == null || local.getEpochSeconds() < qso.getEpochSeconds())
                 {
-                    // Make sure that the locally found QSO has an older date before substituting
-                    if(listTimeToNextQso.get(local_index).getElapsedSeconds() > log.get(i).getElapsedSeconds())
-                    {
-                        listTimeToNextQso.remove(local_index);
-                        listTimeToNextQso.add(log.get(i));
-                    }
+                    mapTimeToNextQso.put(qso.getDupeKey(), qso);
                 }
-                // Callsign/Mode not available inside listTimeToNextQso --> add
-                else
+            }
+            
+            listTimeToNextQso.addAll(mapTimeToNextQso.values());
+            Collections.sort(listTimeToNextQso, new Comparator<Qso>()
+            {
+                @Override
+                public int compare(Qso q1, Qso q2)
                 {
-                    listTimeToNextQso.add(log.get(i));
+                    return Long.compare(q1.getEpochSeconds(), q2.getEpochSeconds());
                 }
-            }
+            });
+            
+            fireTableDataChanged();
         }
 
         @Override
-        public void eventQsoAdded(Qso qso)
+        public void eventQsoAdded(Qso qso, int row)
         {
-            int local_index = find(qso.getHisCallsign(), qso.getMode());
+            Qso local = mapTimeToNextQso.get(qso.getDupeKey());
 
             // Callsign/Mode combination already available inside listTimeToNextQso
-            if(local_index >= 0)
+            if(local != null)
             {
-                listTimeToNextQso.remove(local_index);
-                listTimeToNextQso.add(qso);
-            }
-            // Callsign/Mode not available inside listTimeToNextQso --> add
-            else
-            {
-                listTimeToNextQso.add(qso);
+                delete(local);
             }
+            
+            insert(qso);
         }
 
         @Override
-        public void eventQsoRemoved(Qso qso)
+        public void eventQsoRemoved(Qso qso, int row)
         {
             // Remove QSO from list
-            boolean res = listTimeToNextQso.remove(qso);
-
-            // The QSO which was removed from the log was not inside the local list
-            if(res == false)
+            if(delete(qso) == false)
             {
+                // The QSO which was removed from the log was not inside the local list
                 LOGGER.log(Level.INFO, "Deleted QSO not in listTimeToNextQso[]");
                 return;
             }
 
-            String call = qso.getHisCallsign();
-            RadioModes mode = qso.getMode();
-
-            // Sanity check
-            int local_index = find(call, mode);
-            if(local_index >= 0)
+            // Substitute with the previous QSO with this station (the Log has already updated its index)
+            Qso substitute = log.getLatestQso(qso.getHisCallsign(), qso.getMode());
+            if(substitute != null && !isHidden(substitute))
             {
-                LOGGER.log(Level.SEVERE, "Second combination of callsign/mode was found!");
+                insert(substitute);
             }
+        }
 
-            // Search for substitution of this entry
-            for(int i = 0; i < log.getSize(); i++)
+        @Override
+        public void eventQsoModified(Qso qso, int row, int col, String oldValue)
+        {
+            // The Qso could now belong to another callsign/mode - build the list again
+            if(Qso.affectsDupeCheck(col))
             {
-                eventQsoAdded(log.get(i));
+                eventInit();
             }
+        }
 
+        @Override
+        public void eventBulkChange()
+        {
+            eventInit();
         }
+    }
+
+    private class LocalDupeExpiryListener implements DupeExpiryListener
+    {
 
         @Override
-        public void eventQsoModified(Qso qso)
+        public void eventBecameWorkable(Qso qso)
         {
+            // The row must be painted in blue
+            int row = indexOf(qso);
+            if(row >= 0)
+            {
+                fireTableRowsUpdated(row, row);
+            }
         }
     }
 
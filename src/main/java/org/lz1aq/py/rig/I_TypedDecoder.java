@@ -0,0 +1,40 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.py.rig;
+
+/**
+ * Optional interface for protocol parsers which can decode into a 
+ * RadioEventRecord instead of JSON. 
+ * 
+ * A python parser may implement it next to I_Radio, e.g.
+ * "class Ft857(Radio, I_TypedDecoder)". The JSON decode() is then used only
+ * by parsers that don't implement this interface.
+ */
+public interface I_TypedDecoder
+{
+  /**
+   * Decodes the first transaction found within the supplied buffer.
+   * 
+   * @param data The data coming from the Rig
+   * @param record Empty record to be filled with the decoded transaction
+   * @return The amount of bytes that were read. 0 if no complete transaction was found.
+   */
+  public int decodeTyped(byte[] data, RadioEventRecord record);
+}
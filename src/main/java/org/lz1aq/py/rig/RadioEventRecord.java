@@ -0,0 +1,173 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.py.rig;
+
+/**
+ * Decoded transaction in binary form. 
+ * 
+ * One transaction may contain several things at once (e.g. frequency, mode 
+ * and active VFO) so the kind is a combination of the flags below. Frequency
+ * and mode share the same VFO.
+ * 
+ * The same object is reused for every transaction - call clear() before
+ * filling it again.
+ */
+public class RadioEventRecord
+{
+  public static final int NONE          = 0;
+  public static final int FREQUENCY     = 1;
+  public static final int MODE          = 1 << 1;
+  public static final int ACTIVE_VFO    = 1 << 2;
+  public static final int CONFIRMATION  = 1 << 3;
+  public static final int SMETER        = 1 << 4;
+  public static final int NOT_SUPPORTED = 1 << 5;
+  
+  public static final int VFO_NONE = -1;
+  
+  private int     kind;
+  private int     vfo;           // VFO of the frequency and mode (0 - VFO A, 1 - VFO B etc.)
+  private long    frequency;
+  private int     mode;          // Ordinal of org.lz1aq.radio.RadioModes
+  private int     activeVfo;
+  private boolean isPositiveConfirmation;
+  private int     smeter;
+  private String  data;          // What couldn't be decoded
+  
+  
+  public RadioEventRecord()
+  {
+    clear();
+  }
+  
+  
+  public void clear()
+  {
+    kind      = NONE;
+    vfo       = VFO_NONE;
+    frequency = 0;
+    mode      = -1;
+    activeVfo = VFO_NONE;
+    isPositiveConfirmation = false;
+    smeter    = 0;
+    data      = null;
+  }
+  
+  
+  public void setFrequency(long frequency, int vfo)
+  {
+    this.kind     |= FREQUENCY;
+    this.frequency = frequency;
+    this.vfo       = vfo;
+  }
+  
+  
+  /**
+   * @param mode - ordinal of org.lz1aq.radio.RadioModes
+   * @param vfo - VFO which mode has changed
+   */
+  public void setMode(int mode, int vfo)
+  {
+    this.kind |= MODE;
+    this.mode  = mode;
+    this.vfo   = vfo;
+  }
+  
+  
+  public void setActiveVfo(int vfo)
+  {
+    this.kind     |= ACTIVE_VFO;
+    this.activeVfo = vfo;
+  }
+  
+  
+  public void setConfirmation(boolean isPositive)
+  {
+    this.kind                  |= CONFIRMATION;
+    this.isPositiveConfirmation = isPositive;
+  }
+  
+  
+  public void setSmeter(int smeter)
+  {
+    this.kind  |= SMETER;
+    this.smeter = smeter;
+  }
+  
+  
+  /**
+   * @param data - the data that couldn't be decoded
+   */
+  public void setNotSupported(String data)
+  {
+    this.kind |= NOT_SUPPORTED;
+    this.data  = data;
+  }
+  
+  
+  public int getKind()
+  {
+    return kind;
+  }
+  
+  
+  /**
+   * @param flag - one of the kinds (e.g. FREQUENCY)
+   * @return true if the record contains this kind of data
+   */
+  public boolean has(int flag)
+  {
+    return (kind & flag) != 0;
+  }
+
+  public int getVfo()
+  {
+    return vfo;
+  }
+
+  public long getFrequency()
+  {
+    return frequency;
+  }
+
+  public int getMode()
+  {
+    return mode;
+  }
+
+  public int getActiveVfo()
+  {
+    return activeVfo;
+  }
+
+  public boolean isPositiveConfirmation()
+  {
+    return isPositiveConfirmation;
+  }
+
+  public int getSmeter()
+  {
+    return smeter;
+  }
+
+  public String getData()
+  {
+    return data;
+  }
+}
@@ -27,7 +27,7 @@ import org.lz1aq.radio.event.ConfirmationEvent;
 import org.lz1aq.radio.event.SmeterEvent;
 import org.lz1aq.radio.event.RadioListener;
 import java.util.Iterator;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.json.JSONObject;
@@ -60,7 +60,7 @@ class JsonMsgParser
    * @param jsoString - JSON formatted string of the type: {"some_command_name": { ...data...}}
    * @param listeners - Listeners which will be notified for the content of the JSON message
    */
-  public static void parseAndNotify(String jsoString, CopyOnWriteArrayList<RadioListener> listeners)
+  public static void parseAndNotify(String jsoString, List<RadioListener> listeners)
   {
     
      // Get the command (i.e. the name of the object) that the radio has sent us
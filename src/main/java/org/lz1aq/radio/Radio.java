@@ -24,12 +24,14 @@ import org.lz1aq.radio.event.RadioListener;
 import org.lz1aq.radio.event.ConfirmationEvent;
 import org.lz1aq.py.rig.I_EncodedTransaction;
 import org.lz1aq.py.rig.I_DecodedTransaction;
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import org.lz1aq.utils.DynamicByteArray;
+import org.lz1aq.utils.ByteRingBuffer;
 import org.lz1aq.py.rig.I_Radio;
+import org.lz1aq.py.rig.I_TypedDecoder;
+import org.lz1aq.py.rig.RadioEventRecord;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,6 +39,7 @@ import jssc.SerialPort;
 import jssc.SerialPortEvent;
 import jssc.SerialPortEventListener;
 import jssc.SerialPortException;
+import org.lz1aq.radio.codec.RadioCodec;
 import org.lz1aq.radio.event.EmptyRadioListener;
 import org.lz1aq.utils.Misc;
 
@@ -54,12 +57,19 @@ public class Radio
   private static final Logger       LOGGER = Logger.getLogger(Radio.class.getName());
   
   private static final int QUEUE_SIZE = 30;   // Max number of commands that queueWithTransactions can hold
+  private static final int RECEIVE_BUFFER_SIZE = 1024; // More undecoded bytes than this are considered garbage
   
-  private final CopyOnWriteArrayList<RadioListener>  eventListeners;      
+  public static final int DEFAULT_COALESCING_WINDOW = 50; // [ms] See setCoalescingWindow()
+  
+  private final RadioEventDispatcher eventDispatcher;   // Delivers the decoded events to the listeners on its own threads
+  private final List<RadioListener>  decodedEventSink;  // The eventDispatcher - the serial port thread only puts events into its queues
   private       SerialPort          serialPort;           // Used for writing to serialPort
   private final I_Radio             radioProtocolParser;  // Used for decoding/encoding msg from/to the radio (jython object)
+  private final RadioCodec          nativeParser;         // The same as radioProtocolParser if it is written in Java, otherwise null
+  private final I_TypedDecoder      typedParser;          // The same as radioProtocolParser if it can decode without JSON, otherwise null
+  private final RadioEventRecord    decodedRecord;        // Reused for every transaction decoded by typedParser
   private final Thread              threadPortWriter;     // Thread that writes transaction to the serial port
-  private final DynamicByteArray    receiveBuffer;        // Where bytes received through the serial port will be put
+  private final ByteRingBuffer      receiveBuffer;        // Where bytes received through the serial port will be put
    
   private final BlockingQueue<I_EncodedTransaction>  queueWithTransactions; // Transactions waiting to be sent to the radio
   
@@ -77,11 +87,16 @@ public class Radio
   public Radio(I_Radio protocolParser, SerialPort commport)
   {
     radioProtocolParser   = protocolParser;           // Store the reference to the jython object
+    nativeParser          = protocolParser instanceof RadioCodec ? (RadioCodec) protocolParser : null;
+    typedParser           = protocolParser instanceof I_TypedDecoder ? (I_TypedDecoder) protocolParser : null;
+    decodedRecord         = new RadioEventRecord();
     serialPort            = commport;
     queueWithTransactions = new LinkedBlockingQueue<>(); 
     threadPortWriter      = new Thread(new PortWriter(), "threadPortWrite");    
-    receiveBuffer         = new DynamicByteArray(200);  // Set the initial size to some reasonable value
-    eventListeners        = new CopyOnWriteArrayList<>();
+    receiveBuffer         = new ByteRingBuffer(RECEIVE_BUFFER_SIZE);
+    eventDispatcher       = new RadioEventDispatcher();
+    eventDispatcher.setCoalescingWindow(DEFAULT_COALESCING_WINDOW);
+    decodedEventSink      = Collections.<RadioListener>singletonList(eventDispatcher);
     
     LOGGER.setLevel(Level.WARNING);
   }
@@ -109,7 +124,8 @@ public class Radio
       throw new Exception("Please create a new Radio object");
     
     // Register a local listener - this class is interested in the confirmation events
-    eventListeners.add(new LocalRadioListener());
+    eventDispatcher.addListener(new LocalRadioListener(), RadioEventDispatcher.Policy.DROP_OLDEST);
+    eventDispatcher.start();
     
     // Start Writer thread responsible of sending the data to the radio
     threadPortWriter.start();
@@ -141,6 +157,7 @@ public class Radio
     
     threadPortWriter.interrupt();
     serialPort.removeEventListener();    
+    eventDispatcher.stop();
   }
   
   
@@ -271,15 +288,48 @@ public class Radio
   
   
   
+  /**
+   * The listener is notified on its own thread and gets every event unless it
+   * falls behind by more than 100 events - then the oldest ones are dropped
+   * (see RadioEventDispatcher.Policy.DROP_OLDEST).
+   * 
+   * @param listener - listener to be notified for the radio events
+   * @throws Exception 
+   */
   public void addEventListener(RadioListener listener) throws Exception
   {
-    this.eventListeners.add(listener);
+    addEventListener(listener, RadioEventDispatcher.Policy.DROP_OLDEST);
+  }
+  
+  
+  /**
+   * @param listener - listener to be notified (on its own thread) for the radio events
+   * @param policy - what to do with the events while the listener is busy
+   * @throws Exception 
+   */
+  public void addEventListener(RadioListener listener, RadioEventDispatcher.Policy policy) throws Exception
+  {
+    this.eventDispatcher.addListener(listener, policy);
+  }
+  
+  
+  /**
+   * While the VFO knob is being turned the radio sends lots of frequency 
+   * updates. Listeners added with the COALESCE policy will get at most one
+   * frequency (and mode) update per VFO within this window. The last value is
+   * always delivered.
+   * 
+   * @param millis - length of the window. 0 disables it.
+   */
+  public void setCoalescingWindow(int millis)
+  {
+    eventDispatcher.setCoalescingWindow(millis);
   }
   
   
   public void removeEventListener(RadioListener listener)
   { 
-    this.eventListeners.remove(listener);
+    this.eventDispatcher.removeListener(listener);
   }
   
   public SerialPort getSerialPort()
@@ -317,33 +367,60 @@ public class Radio
         
         LOGGER.log(Level.INFO, "Incoming bytes ("+b.length+") <------ " + Misc.toHexString(b) );
         
-        // Read all there is and add it to our receive buffer
-        receiveBuffer.write(b);
+        // Read all there is and add it to our receive buffer. If it is full 
+        // the oldest bytes are garbage which couldn't be decoded.
+        int dropped = receiveBuffer.writeDroppingOldest(b);
+        if(dropped > 0)
+        {
+          LOGGER.warning("Discarding " + dropped + " undecoded bytes - receive buffer is full");
+        }
        
-      } catch (SerialPortException | IOException ex)
+      } catch (SerialPortException ex)
       {
         LOGGER.log(Level.WARNING, ex.toString(), ex);
       }
       
       // Do parsing till there is nothing to be parsed...
-      while(true)
+      while(receiveBuffer.size() > 0)
       {
-        // Pass the received data to the protocol parser for decoding
-        I_DecodedTransaction trans = radioProtocolParser.decode(receiveBuffer.toByteArray());
-      
-        if(trans.getBytesRead() > 0) 
+        int bytesRead;
+        
+        if(typedParser != null)
         {
-          // This will parseAndNotify the JSON string and notify all the interested parties
-          JsonMsgParser.parseAndNotify(trans.getTransaction(), eventListeners);
-          // Remove the processed bytes from the received buffer
-          receiveBuffer.remove(trans.getBytesRead());
+          decodedRecord.clear();
+          if(nativeParser != null)
+          {
+            // Java parsers decode the bytes in place
+            bytesRead = nativeParser.decode(receiveBuffer.view(), decodedRecord);
+          }
+          else
+          {
+            bytesRead = typedParser.decodeTyped(receiveBuffer.toByteArray(), decodedRecord);
+          }
+          if(bytesRead > 0)
+          {
+            RecordNotifier.notify(decodedRecord, decodedEventSink);
+          }
         }
         else
         {
-          if(receiveBuffer.size()>1000) // Lots of incoming garabge - clean the buffer
-            receiveBuffer.reset();
+          // Pass the received data to the protocol parser for decoding. The
+          // jython parser needs the unread bytes as an array.
+          I_DecodedTransaction trans = radioProtocolParser.decode(receiveBuffer.toByteArray());
+          bytesRead = trans.getBytesRead();
+          if(bytesRead > 0)
+          {
+            // This will parseAndNotify the JSON string and notify all the interested parties
+            JsonMsgParser.parseAndNotify(trans.getTransaction(), decodedEventSink);
+          }
+        }
+      
+        if(bytesRead == 0)
+        {
           break;
         }
+        // Consume the processed bytes (nothing is moved inside the buffer)
+        receiveBuffer.consume(bytesRead);
       }
     }
   }
@@ -0,0 +1,383 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.lz1aq.radio.event.ActiveVfoEvent;
+import org.lz1aq.radio.event.ConfirmationEvent;
+import org.lz1aq.radio.event.FrequencyEvent;
+import org.lz1aq.radio.event.ModeEvent;
+import org.lz1aq.radio.event.NotsupportedEvent;
+import org.lz1aq.radio.event.RadioListener;
+import org.lz1aq.radio.event.SmeterEvent;
+
+
+/**
+ * Delivers the events decoded on the serial port thread to the listeners.
+ * 
+ * The serial port thread only puts the events into the queues (through the 
+ * RadioListener methods of this class). Every listener has its own queue and 
+ * thread so a slow listener delays neither the reading from the serial port
+ * nor the other listeners.
+ * 
+ * Listeners with the COALESCE policy can additionally be limited to one 
+ * frequency and one mode update per VFO within a time window (see 
+ * setCoalescingWindow()). The last value is always delivered - at the latest
+ * when the window expires.
+ */
+public class RadioEventDispatcher implements RadioListener
+{
+  private static final Logger LOGGER = Logger.getLogger(RadioEventDispatcher.class.getName());
+  
+  private static final int QUEUE_SIZE = 100; // Max number of events waiting for a listener
+  
+  // Coalescing keys of the frequency and mode updates - one per VFO so that no key is allocated per event
+  private static final Map<RadioVfos, Object> FREQUENCY_KEYS = newKeys();
+  private static final Map<RadioVfos, Object> MODE_KEYS      = newKeys();
+  
+  /**
+   * What to do with the events while the listener is busy
+   */
+  public enum Policy
+  {
+    /** Every event is delivered. If the queue gets full the oldest event is dropped. */
+    DROP_OLDEST,
+    /** Only the latest frequency and mode per VFO, active VFO and S-meter 
+     *  wait to be delivered. Confirmations and not supported data are never coalesced.
+     *  Frequency and mode updates are also subject to the coalescing window. */
+    COALESCE
+  }
+  
+  private final CopyOnWriteArrayList<ListenerQueue> queues = new CopyOnWriteArrayList<>();
+  private boolean isStarted = false;
+  private volatile long coalescingWindow = 0; // [ns] Min time between two frequency (or mode) updates for the same VFO
+  
+  
+  /**
+   * @param listener - listener to be notified for the radio events
+   * @param policy - what to do with the events while the listener is busy
+   */
+  public synchronized void addListener(RadioListener listener, Policy policy)
+  {
+    ListenerQueue queue = new ListenerQueue(listener, policy);
+    queues.add(queue);
+    if(isStarted)
+    {
+      queue.thread.start();
+    }
+  }
+  
+  
+  public synchronized void removeListener(RadioListener listener)
+  {
+    for(ListenerQueue queue : queues)
+    {
+      if(queue.listener == listener)
+      {
+        queues.remove(queue);
+        queue.thread.interrupt();
+      }
+    }
+  }
+  
+  
+  /**
+   * Frequency and mode updates for the same VFO will be delivered to the
+   * COALESCE listeners at most once per window.
+   * 
+   * @param millis - length of the window. 0 disables it.
+   */
+  public void setCoalescingWindow(int millis)
+  {
+    coalescingWindow = TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+  
+  
+  /**
+   * Starts delivering the events
+   */
+  public synchronized void start()
+  {
+    if(isStarted)
+    {
+      return;
+    }
+    isStarted = true;
+    for(ListenerQueue queue : queues)
+    {
+      queue.thread.start();
+    }
+  }
+  
+  
+  /**
+   * Stops the delivery threads. Events that are still waiting are discarded.
+   */
+  public synchronized void stop()
+  {
+    for(ListenerQueue queue : queues)
+    {
+      queue.thread.interrupt();
+    }
+    queues.clear();
+  }
+  
+  
+  //----------------------------------------------------------------------
+  //       Called on the serial port thread - only queue the events
+  //----------------------------------------------------------------------
+  
+  @Override
+  public void eventNotsupported(NotsupportedEvent e)
+  {
+    offer(null, false, e);
+  }
+
+  @Override
+  public void eventConfirmation(ConfirmationEvent e)
+  {
+    offer(null, false, e);
+  }
+
+  @Override
+  public void eventFrequency(FrequencyEvent e)
+  {
+    offer(FREQUENCY_KEYS.get(e.getVfo()), true, e);
+  }
+
+  @Override
+  public void eventMode(ModeEvent e)
+  {
+    offer(MODE_KEYS.get(e.getVfo()), true, e);
+  }
+
+  @Override
+  public void eventActiveVfo(ActiveVfoEvent e)
+  {
+    offer(ActiveVfoEvent.class, false, e);
+  }
+
+  @Override
+  public void eventSmeter(SmeterEvent e)
+  {
+    offer(SmeterEvent.class, false, e);
+  }
+  
+  
+  //----------------------------------------------------------------------
+  //                           Private stuff
+  //----------------------------------------------------------------------
+  
+  private static Map<RadioVfos, Object> newKeys()
+  {
+    Map<RadioVfos, Object> keys = new EnumMap<>(RadioVfos.class);
+    for(RadioVfos vfo : RadioVfos.values())
+    {
+      keys.put(vfo, new Object());
+    }
+    return keys;
+  }
+  
+  
+  /**
+   * @param key - events with equal keys can be coalesced. Null if the event 
+   *              must not be coalesced.
+   * @param isWindowed - if the coalescing window applies to the event
+   */
+  private void offer(Object key, boolean isWindowed, Object event)
+  {
+    for(ListenerQueue queue : queues)
+    {
+      queue.put(key, isWindowed, event);
+    }
+  }
+  
+  
+  /**
+   * Event waiting to be delivered
+   */
+  private static class Pending
+  {
+    final Object  event;
+    final boolean isWindowed;
+    
+    Pending(Object event, boolean isWindowed)
+    {
+      this.event      = event;
+      this.isWindowed = isWindowed;
+    }
+  }
+  
+  
+  /**
+   * Events waiting for one listener together with the thread delivering them
+   */
+  private class ListenerQueue implements Runnable
+  {
+    final RadioListener listener;
+    final Policy        policy;
+    final Thread        thread;
+    
+    private final LinkedHashMap<Object, Pending> pending = new LinkedHashMap<>(); // Oldest first
+    private final Map<Object, Long> lastDelivery = new HashMap<>();  // [ns] When a windowed event with this key was delivered
+    private int droppedCount = 0;
+    
+    
+    ListenerQueue(RadioListener listener, Policy policy)
+    {
+      this.listener = listener;
+      this.policy   = policy;
+      this.thread   = new Thread(this, "RadioEventDispatcher-" + listener.getClass().getSimpleName());
+      this.thread.setDaemon(true);
+    }
+    
+    
+    synchronized void put(Object key, boolean isWindowed, Object event)
+    {
+      if(key == null || policy != Policy.COALESCE)
+      {
+        key        = new Object(); // Unique - never replaced
+        isWindowed = false;
+      }
+      
+      // The replacing event goes to the end so that it stays after the events 
+      // that came before it (e.g. frequency for VFO NONE after active VFO)
+      pending.remove(key);
+      
+      if(pending.size() >= QUEUE_SIZE)
+      {
+        Iterator<Object> oldest = pending.keySet().iterator();
+        oldest.next();
+        oldest.remove();
+        if(droppedCount++ % QUEUE_SIZE == 0)
+        {
+          LOGGER.warning(thread.getName() + " is too slow - " + droppedCount + " events dropped so far");
+        }
+      }
+      
+      pending.put(key, new Pending(event, isWindowed));
+      notify();
+    }
+    
+    
+    /**
+     * @return the oldest event that can be delivered now. Windowed events wait
+     *         till the window since the previous delivery with the same key expires.
+     */
+    synchronized Object take() throws InterruptedException
+    {
+      while(true)
+      {
+        long now     = System.nanoTime();
+        long window  = coalescingWindow;
+        long waitFor = Long.MAX_VALUE; // [ns] Till the first windowed event can be delivered
+        
+        Iterator<Map.Entry<Object, Pending>> it = pending.entrySet().iterator();
+        while(it.hasNext())
+        {
+          Map.Entry<Object, Pending> entry = it.next();
+          Long last = entry.getValue().isWindowed ? lastDelivery.get(entry.getKey()) : null;
+          
+          if(last == null || now - last >= window)
+          {
+            it.remove();
+            if(entry.getValue().isWindowed)
+            {
+              lastDelivery.put(entry.getKey(), now);
+            }
+            return entry.getValue().event;
+          }
+          waitFor = Math.min(waitFor, last + window - now);
+        }
+        
+        if(waitFor == Long.MAX_VALUE)
+        {
+          wait();
+        }
+        else
+        {
+          TimeUnit.NANOSECONDS.timedWait(this, waitFor);
+        }
+      }
+    }
+    
+    
+    @Override
+    public void run()
+    {
+      try
+      {
+        while(true)
+        {
+          Object event = take();
+          try
+          {
+            deliver(event);
+          }
+          catch(RuntimeException exc)
+          {
+            LOGGER.log(Level.SEVERE, "Listener failed to process " + event.getClass().getSimpleName(), exc);
+          }
+        }
+      }
+      catch(InterruptedException exc)
+      {
+        // stop() or removeListener() was called
+      }
+    }
+    
+    
+    private void deliver(Object event)
+    {
+      if(event instanceof FrequencyEvent)
+      {
+        listener.eventFrequency((FrequencyEvent) event);
+      }
+      else if(event instanceof ModeEvent)
+      {
+        listener.eventMode((ModeEvent) event);
+      }
+      else if(event instanceof ActiveVfoEvent)
+      {
+        listener.eventActiveVfo((ActiveVfoEvent) event);
+      }
+      else if(event instanceof SmeterEvent)
+      {
+        listener.eventSmeter((SmeterEvent) event);
+      }
+      else if(event instanceof ConfirmationEvent)
+      {
+        listener.eventConfirmation((ConfirmationEvent) event);
+      }
+      else if(event instanceof NotsupportedEvent)
+      {
+        listener.eventNotsupported((NotsupportedEvent) event);
+      }
+    }
+  }
+}
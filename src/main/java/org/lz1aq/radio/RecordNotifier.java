@@ -0,0 +1,131 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio;
+
+import java.util.List;
+import java.util.logging.Logger;
+import org.lz1aq.py.rig.RadioEventRecord;
+import org.lz1aq.radio.event.ActiveVfoEvent;
+import org.lz1aq.radio.event.ConfirmationEvent;
+import org.lz1aq.radio.event.FrequencyEvent;
+import org.lz1aq.radio.event.ModeEvent;
+import org.lz1aq.radio.event.NotsupportedEvent;
+import org.lz1aq.radio.event.RadioListener;
+import org.lz1aq.radio.event.SmeterEvent;
+
+
+/**
+ *  The binary counterpart of JsonMsgParser - notifies the interested parties
+ *  for the content of a RadioEventRecord
+ */
+class RecordNotifier
+{
+  private static final Logger logger = Logger.getLogger(RecordNotifier.class.getName());
+  
+  
+  /**
+   * @param record - decoded transaction
+   * @param listeners - Listeners which will be notified for the content of the record
+   */
+  public static void notify(RadioEventRecord record, List<RadioListener> listeners)
+  {
+    if(record.getKind() == RadioEventRecord.NONE)
+    {
+      logger.severe("We received an empty decoded transaction");
+      return;
+    }
+    
+    if(record.has(RadioEventRecord.NOT_SUPPORTED))
+    {
+      NotsupportedEvent unsupportedEv = new NotsupportedEvent(record.getData());
+      for (RadioListener listener : listeners)
+      {
+        listener.eventNotsupported(unsupportedEv);
+      }
+    }
+    
+    if(record.has(RadioEventRecord.CONFIRMATION))
+    {
+      ConfirmationEvent cfmEv = new ConfirmationEvent(record.isPositiveConfirmation());
+      for (RadioListener listener : listeners)
+      {
+        listener.eventConfirmation(cfmEv);
+      }
+    }
+    
+    if(record.has(RadioEventRecord.FREQUENCY))
+    {
+      FrequencyEvent freqEv = new FrequencyEvent(Long.toString(record.getFrequency()), toVfo(record.getVfo()));
+      for (RadioListener listener : listeners)
+      {
+        listener.eventFrequency(freqEv);
+      }
+    }
+    
+    if(record.has(RadioEventRecord.MODE))
+    {
+      RadioModes[] modes = RadioModes.values();
+      if(record.getMode() >= 0 && record.getMode() < modes.length)
+      {
+        ModeEvent modeEv = new ModeEvent(modes[record.getMode()], toVfo(record.getVfo()));
+        for (RadioListener listener : listeners)
+        {
+          listener.eventMode(modeEv);
+        }
+      }
+      else
+      {
+        logger.severe("Decoded transaction contained an unknown mode: " + record.getMode());
+      }
+    }
+    
+    if(record.has(RadioEventRecord.ACTIVE_VFO))
+    {
+      ActiveVfoEvent activeVfoEv = new ActiveVfoEvent(toVfo(record.getActiveVfo()));
+      for (RadioListener listener : listeners)
+      {
+        listener.eventActiveVfo(activeVfoEv);
+      }
+    }
+    
+    if(record.has(RadioEventRecord.SMETER))
+    {
+      SmeterEvent smeterEv = new SmeterEvent(record.getSmeter());
+      for (RadioListener listener : listeners)
+      {
+        listener.eventSmeter(smeterEv);
+      }
+    }
+  }
+  
+  
+  /**
+   * @return RadioVfos.NONE if the value is not known
+   */
+  private static RadioVfos toVfo(int value)
+  {
+    for(RadioVfos vfo: RadioVfos.values())
+    {
+      if(vfo.getValue() == value)
+        return vfo;
+    }
+    return RadioVfos.NONE;
+  }
+}
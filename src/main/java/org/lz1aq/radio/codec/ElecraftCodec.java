@@ -0,0 +1,89 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio.codec;
+
+import org.lz1aq.py.rig.I_EncodedTransaction;
+import org.lz1aq.py.rig.I_Rig;
+import org.lz1aq.py.rig.RadioEventRecord;
+import org.lz1aq.radio.RadioVfos;
+
+/**
+ * Elecraft protocol - the same as elecraft.py
+ * 
+ * Differs from Kenwood mainly in the way VFO B is addressed (e.g. "MD$1;").
+ */
+public class ElecraftCodec extends KenwoodCodec
+{
+  /**
+   * @param settings - jython object loaded from elecraft.py
+   * @param autoInfoMode - the AUTO_INFO_MODE as set in elecraft.py
+   */
+  public ElecraftCodec(I_Rig settings, String autoInfoMode)
+  {
+    super(settings, autoInfoMode, "FT");
+  }
+  
+  
+  @Override
+  public I_EncodedTransaction[] encodeSetMode(String mode, int vfo)
+  {
+    return encode(String.format("MD%s%d;", vfo == RadioVfos.B.getValue() ? "$" : "", getModeCode(mode)));
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeGetMode(int vfo)
+  {
+    return encode(vfo == RadioVfos.B.getValue() ? "MD$;" : "MD;");
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSendCW(String text)
+  {
+    if(text.length() > CW_TEXT_LENGTH)
+    {
+      text = text.substring(0, CW_TEXT_LENGTH);
+    }
+    return encode("KY " + text + ";");
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeInterruptSendCW()
+  {
+    // An empty extra command so that the Elecraft won't get stuck in transmit mode
+    return encode("KY @ ;");
+  }
+  
+  
+  /**
+   * Parses "MD1;" (VFO A) or "MD$1;" (VFO B)
+   */
+  @Override
+  protected void parseMode(String command, RadioEventRecord record)
+  {
+    if(command.charAt(2) != '$')
+    {
+      setMode(record, getMode(parseDigit(command, 2)), RadioVfos.A, command);
+    }
+    else
+    {
+      setMode(record, getMode(parseDigit(command, 3)), RadioVfos.B, command);
+    }
+  }
+}
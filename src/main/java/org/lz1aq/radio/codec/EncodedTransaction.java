@@ -0,0 +1,100 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio.codec;
+
+import java.nio.charset.StandardCharsets;
+import org.lz1aq.py.rig.I_EncodedTransaction;
+
+/**
+ * Java counterpart of encoded_transaction.py
+ */
+public class EncodedTransaction implements I_EncodedTransaction
+{
+  private static final int DEFAULT_TIMEOUT = 200;  // [ms] Same as in encoded_transaction.py
+  
+  private final byte[]  transaction;
+  private final boolean isConfirmationExpected;
+  private final int     postWriteDelay;
+  
+  
+  /**
+   * @param transaction - bytes ready to be send to the rig
+   * @param isConfirmationExpected - if the rig will send confirmation after receiving this transaction
+   * @param postWriteDelay - delay after the transaction is sent [ms]
+   */
+  public EncodedTransaction(byte[] transaction, boolean isConfirmationExpected, int postWriteDelay)
+  {
+    this.transaction            = transaction;
+    this.isConfirmationExpected = isConfirmationExpected;
+    this.postWriteDelay         = postWriteDelay;
+  }
+  
+  
+  public EncodedTransaction(byte[] transaction)
+  {
+    this(transaction, false, 0);
+  }
+  
+  
+  /**
+   * @param transaction - ASCII command (e.g. "FA;")
+   */
+  public EncodedTransaction(String transaction)
+  {
+    this(transaction.getBytes(StandardCharsets.US_ASCII));
+  }
+  
+  
+  @Override
+  public byte[] getTransaction()
+  {
+    return transaction;
+  }
+
+  @Override
+  public int getWriteDelay()
+  {
+    return 0;
+  }
+
+  @Override
+  public int getPostWriteDelay()
+  {
+    return postWriteDelay;
+  }
+
+  @Override
+  public int getTimeout()
+  {
+    return DEFAULT_TIMEOUT;
+  }
+
+  @Override
+  public int getRetry()
+  {
+    return 0;
+  }
+
+  @Override
+  public boolean isConfirmationExpected()
+  {
+    return isConfirmationExpected;
+  }
+}
@@ -0,0 +1,315 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio.codec;
+
+import java.nio.ByteBuffer;
+import org.lz1aq.py.rig.I_EncodedTransaction;
+import org.lz1aq.py.rig.I_Rig;
+import org.lz1aq.py.rig.RadioEventRecord;
+import org.lz1aq.radio.RadioModes;
+import org.lz1aq.radio.RadioVfos;
+
+/**
+ * Icom CI-V protocol - the same as icom.py
+ * 
+ * Transactions are: [0xFE, 0xFE, to-address, from-address, command, sub_command/data...., 0xFD]
+ */
+public class IcomCodec extends RadioCodec
+{
+  private static final int PREAMBLE     = 0xFE;
+  private static final int END          = 0xFD;
+  private static final int CTRL_ADDRESS = 0xE0; // Controller's address
+  
+  private static final int SEND_FREQ    = 0x00; // Transfer operating frequency data
+  private static final int SEND_MODE    = 0x01; // Transfer operating mode data
+  private static final int READ_FREQ    = 0x03; // Read operating frequency data
+  private static final int READ_MODE    = 0x04; // Read operating mode data
+  private static final int SET_FREQ     = 0x05; // Set frequency data
+  private static final int SET_MODE     = 0x06; // Set mode data
+  private static final int CFM_POSITIVE = 0xFB; // Positive confirmation
+  private static final int CFM_NEGATIVE = 0xFA; // Negative confirmation
+  
+  private static final int FREQ_BCD_DIGITS  = 10;
+  private static final int READ_DELAY       = 50;  // [ms] Gives the radio time to send back the value
+  
+  private static final RadioModes[] MODES = {RadioModes.LSB, RadioModes.USB, RadioModes.AM, RadioModes.CW, 
+                                             RadioModes.RTTY, RadioModes.FM, RadioModes.CWR, RadioModes.RTTYR};
+  private static final int[] MODE_CODES   = {0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x07, 0x08};
+  
+  private final int civAddress;
+  
+  
+  /**
+   * @param settings - jython object loaded from icom.py
+   * @param civAddress - the CIV_ADDRESS of the rig as set in icom.py
+   */
+  public IcomCodec(I_Rig settings, int civAddress)
+  {
+    super(settings, MODES, MODE_CODES);
+    this.civAddress = civAddress;
+  }
+  
+  
+  @Override
+  public int decode(ByteBuffer data, RadioEventRecord record)
+  {
+    // Find the beginning of the transaction (0xFE 0xFE)
+    int start = -1;
+    for(int i = data.position(); i < data.limit() - 1; i++)
+    {
+      if((data.get(i) & 0xFF) == PREAMBLE && (data.get(i+1) & 0xFF) == PREAMBLE)
+      {
+        start = i;
+        break;
+      }
+    }
+    if(start == -1)
+    {
+      return 0;
+    }
+    
+    // Find the end of the transaction
+    int end = -1;
+    for(int i = start + 2; i < data.limit(); i++)
+    {
+      if((data.get(i) & 0xFF) == END)
+      {
+        end = i;
+        break;
+      }
+    }
+    if(end == -1)
+    {
+      return 0;
+    }
+    
+    int cmdIdx = start + 4;
+    int cmd    = cmdIdx < end ? data.get(cmdIdx) & 0xFF : -1;
+    
+    // Check if Icom is sending this transaction - 3rd byte is Icom address (CIV_ADDRESS)
+    if(cmd == -1 || (data.get(start+3) & 0xFF) != civAddress)
+    {
+      record.setNotSupported(toHex(data, start, end));
+    }
+    else if(cmd == CFM_POSITIVE)
+    {
+      record.setConfirmation(true);
+    }
+    else if(cmd == CFM_NEGATIVE)
+    {
+      record.setConfirmation(false);
+    }
+    else if(cmd == SEND_FREQ || cmd == READ_FREQ)
+    {
+      record.setFrequency(fromBcd(data, cmdIdx+1, end), RadioVfos.NONE.getValue());
+    }
+    else if((cmd == SEND_MODE || cmd == READ_MODE) && cmdIdx+1 < end)
+    {
+      setMode(record, getMode(data.get(cmdIdx+1) & 0xFF), RadioVfos.NONE, toHex(data, start, end));
+    }
+    else
+    {
+      record.setNotSupported(toHex(data, start, end));
+    }
+    
+    return end + 1 - data.position();
+  }
+  
+  
+  @Override
+  public I_EncodedTransaction[] encodeInit()
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeCleanup()
+  {
+    return new I_EncodedTransaction[0];
+  }
+  
+  @Override
+  public I_EncodedTransaction[] encodeSetFreq(long freq, int vfo)
+  {
+    byte[] trans = transaction(SET_FREQ, -1, toBcd(freq, FREQ_BCD_DIGITS));
+    return new I_EncodedTransaction[]{new EncodedTransaction(trans, true, 0)};
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeGetFreq(int vfo)
+  {
+    return new I_EncodedTransaction[]{read(READ_FREQ)};
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSetMode(String mode, int vfo)
+  {
+    byte[] trans = transaction(SET_MODE, getModeCode(mode), new byte[0]);
+    return new I_EncodedTransaction[]{new EncodedTransaction(trans, true, 0)};
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeGetMode(int vfo)
+  {
+    return new I_EncodedTransaction[]{read(READ_MODE)};
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeGetActiveVfo()
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSendCW(String text)
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeInterruptSendCW()
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSetKeyerSpeed(int keyerSpeed)
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodePoll()
+  {
+    return new I_EncodedTransaction[]{read(READ_FREQ), read(READ_MODE)};
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeDisableAutomaticInfo()
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeEnableAutomaticInfo()
+  {
+    return new I_EncodedTransaction[0];
+  }
+  
+  
+  //----------------------------------------------------------------------
+  //                           Private stuff
+  //----------------------------------------------------------------------
+  
+  private I_EncodedTransaction read(int command)
+  {
+    return new EncodedTransaction(transaction(command, -1, new byte[0]), false, READ_DELAY);
+  }
+  
+  
+  /**
+   * Assembles an Icom transaction ready to be send to the transceiver
+   * 
+   * @param subCommand - -1 if there is no sub command
+   */
+  private byte[] transaction(int command, int subCommand, byte[] data)
+  {
+    int    len   = 6 + (subCommand == -1 ? 0 : 1) + data.length;
+    byte[] trans = new byte[len];
+    int    i     = 0;
+    
+    trans[i++] = (byte) PREAMBLE;
+    trans[i++] = (byte) PREAMBLE;
+    trans[i++] = (byte) civAddress;
+    trans[i++] = (byte) CTRL_ADDRESS;
+    trans[i++] = (byte) command;
+    if(subCommand != -1)
+    {
+      trans[i++] = (byte) subCommand;
+    }
+    System.arraycopy(data, 0, trans, i, data.length);
+    trans[len-1] = (byte) END;
+    
+    return trans;
+  }
+  
+  
+  /**
+   * Converts a number to little endian BCD (4 bits per digit)
+   * Example: 14100231 with 10 digits is converted to [0x31, 0x02, 0x10, 0x14, 0x00]
+   */
+  static byte[] toBcd(long number, int digits)
+  {
+    if(number < 0 || Long.toString(number).length() > digits)
+    {
+      throw new IllegalArgumentException("Number is too big: " + number);
+    }
+    
+    byte[] result = new byte[digits/2];
+    for(int i = 0; i < result.length; i++)
+    {
+      int low  = (int) (number % 10);
+      number /= 10;
+      int high = (int) (number % 10);
+      number /= 10;
+      result[i] = (byte) ((high << 4) | low);
+    }
+    return result;
+  }
+  
+  
+  /**
+   * Converts little endian BCD to a number
+   * 
+   * @param from - index of the first byte
+   * @param to - index after the last byte
+   */
+  static long fromBcd(ByteBuffer data, int from, int to)
+  {
+    long result = 0;
+    long multi  = 1;
+    for(int i = from; i < to; i++)
+    {
+      result += (data.get(i) & 0x0F) * multi;
+      multi  *= 10;
+      result += ((data.get(i) >> 4) & 0x0F) * multi;
+      multi  *= 10;
+    }
+    return result;
+  }
+  
+  
+  /**
+   * @return the bytes from first to last (inclusive) as "0xfe 0xfe ..."
+   */
+  private static String toHex(ByteBuffer data, int first, int last)
+  {
+    StringBuilder result = new StringBuilder();
+    for(int i = first; i <= last; i++)
+    {
+      if(i > first)
+      {
+        result.append(' ');
+      }
+      result.append(String.format("0x%02x", data.get(i) & 0xFF));
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,315 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.lz1aq.py.rig.I_EncodedTransaction;
+import org.lz1aq.py.rig.I_Rig;
+import org.lz1aq.py.rig.RadioEventRecord;
+import org.lz1aq.radio.RadioModes;
+import org.lz1aq.radio.RadioVfos;
+
+/**
+ * Kenwood protocol - the same as kenwood.py
+ * 
+ * Commands are ASCII strings ending with ';' (e.g. "FA00014000000;"). Elecraft
+ * and Yaesu use variations of this protocol and extend this class.
+ */
+public class KenwoodCodec extends RadioCodec
+{
+  private static final RadioModes[] MODES = {RadioModes.LSB, RadioModes.USB, RadioModes.CW, RadioModes.FM, 
+                                             RadioModes.AM, RadioModes.RTTY, RadioModes.CWR, RadioModes.RTTYR};
+  private static final int[] MODE_CODES   = {1, 2, 3, 4, 5, 6, 7, 9};
+  
+  protected static final int CW_TEXT_LENGTH = 24; // Max number of chars in one KY command
+  
+  private final String autoInfoMode;      // Sent to the radio on init (e.g. "AI2;")
+  private final String activeVfoCommand;  // Command for reading the active VFO
+  
+  
+  /**
+   * @param settings - jython object loaded from kenwood.py
+   * @param autoInfoMode - the AUTO_INFO_MODE as set in kenwood.py
+   */
+  public KenwoodCodec(I_Rig settings, String autoInfoMode)
+  {
+    this(settings, autoInfoMode, "FR");
+  }
+  
+  
+  protected KenwoodCodec(I_Rig settings, String autoInfoMode, String activeVfoCommand)
+  {
+    super(settings, MODES, MODE_CODES);
+    this.autoInfoMode     = autoInfoMode;
+    this.activeVfoCommand = activeVfoCommand;
+  }
+  
+  
+  @Override
+  public int decode(ByteBuffer data, RadioEventRecord record)
+  {
+    // Find the character ";" which signals the end of the command
+    int end = -1;
+    for(int i = data.position(); i < data.limit(); i++)
+    {
+      if(data.get(i) == ';')
+      {
+        end = i;
+        break;
+      }
+    }
+    if(end == -1)
+    {
+      return 0;
+    }
+    
+    byte[] bytes = new byte[end + 1 - data.position()];
+    data.duplicate().get(bytes);
+    String command = new String(bytes, StandardCharsets.US_ASCII);
+    
+    try
+    {
+      if(!parse(command, record))
+      {
+        record.setNotSupported(command);
+      }
+    }
+    catch(NumberFormatException | IndexOutOfBoundsException exc)
+    {
+      record.clear(); // Drop whatever was parsed before the error
+      record.setNotSupported("Unknown character found in the data coming from the radio.");
+    }
+    
+    return bytes.length;
+  }
+  
+  
+  @Override
+  public I_EncodedTransaction[] encodeInit()
+  {
+    return encode(autoInfoMode);
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeCleanup()
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSetFreq(long freq, int vfo)
+  {
+    return encode(String.format("F%c%011d;", toVfoLetter(vfo), freq));
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeGetFreq(int vfo)
+  {
+    return encode(String.format("F%c;", toVfoLetter(vfo)));
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSetMode(String mode, int vfo)
+  {
+    return encode(String.format("MD%d;", getModeCode(mode)));
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeGetMode(int vfo)
+  {
+    return encode("MD;");
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeGetActiveVfo()
+  {
+    return encode(activeVfoCommand + ";");
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSendCW(String text)
+  {
+    return encode(String.format("KY %-" + CW_TEXT_LENGTH + "s;", text));
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeInterruptSendCW()
+  {
+    return encode("KY0;");
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSetKeyerSpeed(int keyerSpeed)
+  {
+    return encode(String.format("KS%03d;", keyerSpeed));
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodePoll()
+  {
+    return encode("IF;");
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeDisableAutomaticInfo()
+  {
+    return encode("AI0;");
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeEnableAutomaticInfo()
+  {
+    return encode("AI2;");
+  }
+  
+  
+  //----------------------------------------------------------------------
+  //                     Overridden by the variations
+  //----------------------------------------------------------------------
+  
+  /**
+   * Parses one command into the record
+   * 
+   * @param command - complete command including the ';'
+   * @param record - to be filled
+   * @return false if the command is not known
+   */
+  protected boolean parse(String command, RadioEventRecord record)
+  {
+    if(command.startsWith("FA"))
+    {
+      record.setFrequency(parseNumber(command, 2, command.length()-1), RadioVfos.A.getValue());
+    }
+    else if(command.startsWith("FB"))
+    {
+      record.setFrequency(parseNumber(command, 2, command.length()-1), RadioVfos.B.getValue());
+    }
+    else if(command.startsWith(activeVfoCommand))
+    {
+      record.setActiveVfo((command.charAt(2) == '0' ? RadioVfos.A : RadioVfos.B).getValue());
+    }
+    else if(command.startsWith("MD"))
+    {
+      parseMode(command, record);
+    }
+    else if(command.startsWith("IF"))
+    {
+      parseInfo(command, record);
+    }
+    else if(command.startsWith("SM"))
+    {
+      record.setSmeter((int) parseNumber(command, 2, command.length()-1));
+    }
+    else
+    {
+      return false;
+    }
+    return true;
+  }
+  
+  
+  /**
+   * Parses "MD1;"
+   */
+  protected void parseMode(String command, RadioEventRecord record)
+  {
+    setMode(record, getMode(parseDigit(command, 2)), RadioVfos.NONE, command);
+  }
+  
+  
+  /**
+   * Parses the IF command.
+   * 
+   * command IF00003530220      019000000030000080;
+   * index   0123456789012345678901234567890
+   * 
+   * [2-12] - frequency
+   * [29]   - operating mode (refer to the MD command)
+   * [30]   - VFO
+   */
+  protected void parseInfo(String command, RadioEventRecord record)
+  {
+    long       freq = parseNumber(command, 2, 13);
+    RadioModes mode = getMode(parseDigit(command, 29));
+    RadioVfos  vfo  = toVfo(parseDigit(command, 30));
+    
+    record.setFrequency(freq, vfo.getValue());
+    setMode(record, mode, vfo, command);
+    record.setActiveVfo((command.charAt(30) == '0' ? RadioVfos.A : RadioVfos.B).getValue());
+  }
+  
+  
+  //----------------------------------------------------------------------
+  //                     Helpers for the variations
+  //----------------------------------------------------------------------
+  
+  protected static I_EncodedTransaction[] encode(String command)
+  {
+    return new I_EncodedTransaction[]{new EncodedTransaction(command)};
+  }
+  
+  
+  /**
+   * Example: 0-->"A"; 1-->"B"; anything else is "A"
+   */
+  protected static char toVfoLetter(int vfo)
+  {
+    return vfo == RadioVfos.B.getValue() ? 'B' : 'A';
+  }
+  
+  
+  protected static RadioVfos toVfo(int value)
+  {
+    for(RadioVfos vfo : RadioVfos.values())
+    {
+      if(vfo.getValue() == value)
+      {
+        return vfo;
+      }
+    }
+    return RadioVfos.NONE;
+  }
+  
+  
+  /**
+   * @throws NumberFormatException if the char is not a digit
+   */
+  protected static int parseDigit(String command, int index)
+  {
+    int digit = Character.digit(command.charAt(index), 10);
+    if(digit < 0)
+    {
+      throw new NumberFormatException("Not a digit: " + command.charAt(index));
+    }
+    return digit;
+  }
+  
+  
+  /**
+   * @param from - index of the first digit
+   * @param to - index after the last digit
+   * @throws NumberFormatException if there is something else but digits
+   */
+  protected static long parseNumber(String command, int from, int to)
+  {
+    return Long.parseLong(command.substring(from, to));
+  }
+}
@@ -0,0 +1,235 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio.codec;
+
+import java.nio.ByteBuffer;
+import org.json.JSONObject;
+import org.lz1aq.py.rig.I_DecodedTransaction;
+import org.lz1aq.py.rig.I_Radio;
+import org.lz1aq.py.rig.I_Rig;
+import org.lz1aq.py.rig.I_SerialSettings;
+import org.lz1aq.py.rig.I_TypedDecoder;
+import org.lz1aq.py.rig.RadioEventRecord;
+import org.lz1aq.radio.RadioModes;
+import org.lz1aq.radio.RadioVfos;
+
+/**
+ * Base class for protocol parsers written in Java.
+ * 
+ * A codec fulfills the same I_Radio contract as the python files in pyrig but
+ * decodes the incoming bytes straight into a RadioEventRecord - there is no 
+ * call to jython and no JSON on the serial port thread. 
+ * 
+ * The fields that the user is expected to edit (serial port settings, model
+ * etc.) are still read from the python file that was selected by the user.
+ */
+public abstract class RadioCodec implements I_Radio, I_TypedDecoder
+{
+  private final I_Rig        settings;   // The jython object loaded from the python file
+  private final RadioModes[] modes;      // modes[i] is encoded as modeCodes[i]
+  private final int[]        modeCodes;
+  
+  
+  /**
+   * @param settings - the jython object from which manufacturer, model and 
+   *                   serial port settings are taken
+   * @param modes - the modes that the radio supports
+   * @param modeCodes - how each of the modes is encoded in the protocol
+   */
+  protected RadioCodec(I_Rig settings, RadioModes[] modes, int[] modeCodes)
+  {
+    this.settings  = settings;
+    this.modes     = modes;
+    this.modeCodes = modeCodes;
+  }
+  
+  
+  /**
+   * Decodes the first transaction found within the supplied buffer.
+   * 
+   * @param data - the unread bytes (between position and limit). The position
+   *               of the buffer is not changed.
+   * @param record - empty record to be filled with the decoded transaction
+   * @return the amount of bytes that were read. 0 if the buffer did not 
+   *         contain a complete transaction.
+   */
+  public abstract int decode(ByteBuffer data, RadioEventRecord record);
+  
+  
+  @Override
+  public int decodeTyped(byte[] data, RadioEventRecord record)
+  {
+    return decode(ByteBuffer.wrap(data), record);
+  }
+  
+  
+  /**
+   * Kept for compatibility with the python parsers - the decoded transaction
+   * is converted to JSON.
+   */
+  @Override
+  public I_DecodedTransaction decode(byte[] data)
+  {
+    RadioEventRecord record = new RadioEventRecord();
+    int bytesRead = decode(ByteBuffer.wrap(data), record);
+    
+    if(bytesRead == 0)
+    {
+      return new DecodedTransaction(null, 0);
+    }
+    return new DecodedTransaction(toJson(record), bytesRead);
+  }
+  
+  
+  @Override
+  public String getManufacturer()
+  {
+    return settings.getManufacturer();
+  }
+
+  @Override
+  public String getModel()
+  {
+    return settings.getModel();
+  }
+
+  @Override
+  public I_SerialSettings getSerialPortSettings()
+  {
+    return settings.getSerialPortSettings();
+  }
+  
+  
+  @Override
+  public String getAvailableModes()
+  {
+    StringBuilder result = new StringBuilder();
+    for(RadioModes mode : modes)
+    {
+      if(result.length() > 0)
+      {
+        result.append(' ');
+      }
+      result.append(mode.toString().toLowerCase());
+    }
+    return result.toString();
+  }
+  
+  
+  //----------------------------------------------------------------------
+  //                     Helpers for the subclasses
+  //----------------------------------------------------------------------
+  
+  /**
+   * @param mode - mode name as passed to encodeSetMode() (e.g. "cw")
+   * @return the code of the mode in the protocol
+   * @throws IllegalArgumentException if the radio doesn't support the mode
+   */
+  protected int getModeCode(String mode)
+  {
+    for(int i = 0; i < modes.length; i++)
+    {
+      if(modes[i].toString().equalsIgnoreCase(mode))
+      {
+        return modeCodes[i];
+      }
+    }
+    throw new IllegalArgumentException("Unsupported mode: " + mode + "!");
+  }
+  
+  
+  /**
+   * @param code - the code of the mode in the protocol
+   * @return the mode or null if the code is unknown
+   */
+  protected RadioModes getMode(int code)
+  {
+    for(int i = 0; i < modeCodes.length; i++)
+    {
+      if(modeCodes[i] == code)
+      {
+        return modes[i];
+      }
+    }
+    return null;
+  }
+  
+  
+  /**
+   * Unknown modes (mode is null) are recorded as not supported
+   */
+  protected static void setMode(RadioEventRecord record, RadioModes mode, RadioVfos vfo, String data)
+  {
+    if(mode == null)
+    {
+      record.setNotSupported(data);
+    }
+    else
+    {
+      record.setMode(mode.ordinal(), vfo.getValue());
+    }
+  }
+  
+  
+  /**
+   * Builds the same JSON as decoded_transaction.py
+   */
+  private static String toJson(RadioEventRecord record)
+  {
+    JSONObject jso = new JSONObject();
+    
+    if(record.has(RadioEventRecord.NOT_SUPPORTED))
+    {
+      jso.put("not_supported", record.getData());
+    }
+    if(record.has(RadioEventRecord.CONFIRMATION))
+    {
+      jso.put("confirmation", record.isPositiveConfirmation() ? "1" : "0");
+    }
+    if(record.has(RadioEventRecord.FREQUENCY))
+    {
+      JSONObject sub = new JSONObject();
+      sub.put("frequency", Long.toString(record.getFrequency()));
+      sub.put("vfo", Integer.toString(record.getVfo()));
+      jso.put("frequency", sub);
+    }
+    if(record.has(RadioEventRecord.MODE))
+    {
+      JSONObject sub = new JSONObject();
+      sub.put("mode", RadioModes.values()[record.getMode()].toString().toLowerCase());
+      sub.put("vfo", Integer.toString(record.getVfo()));
+      jso.put("mode", sub);
+    }
+    if(record.has(RadioEventRecord.ACTIVE_VFO))
+    {
+      JSONObject sub = new JSONObject();
+      sub.put("vfo", Integer.toString(record.getActiveVfo()));
+      jso.put("active_vfo", sub);
+    }
+    if(record.has(RadioEventRecord.SMETER))
+    {
+      JSONObject sub = new JSONObject();
+      sub.put("smeter", Integer.toString(record.getSmeter()));
+      jso.put("smeter", sub);
+    }
+    
+    return jso.toString();
+  }
+}
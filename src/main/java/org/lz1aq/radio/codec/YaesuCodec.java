@@ -0,0 +1,125 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio.codec;
+
+import org.lz1aq.py.rig.I_EncodedTransaction;
+import org.lz1aq.py.rig.I_Rig;
+import org.lz1aq.py.rig.RadioEventRecord;
+import org.lz1aq.radio.RadioModes;
+import org.lz1aq.radio.RadioVfos;
+
+/**
+ * Yaesu protocol (newer rigs with ASCII CAT commands) - the same as yaesu.py
+ */
+public class YaesuCodec extends KenwoodCodec
+{
+  private static final String AUTO_INFO_ON = "AI1;";
+  
+  
+  /**
+   * @param settings - jython object loaded from yaesu.py
+   */
+  public YaesuCodec(I_Rig settings)
+  {
+    super(settings, AUTO_INFO_ON, "VS");
+  }
+  
+  
+  @Override
+  public I_EncodedTransaction[] encodeSetFreq(long freq, int vfo)
+  {
+    return encode(String.format("F%c%08d;", toVfoLetter(vfo), freq));
+  }
+
+  /**
+   * VFO param is not taken into account - we always set the currently active VFO
+   */
+  @Override
+  public I_EncodedTransaction[] encodeSetMode(String mode, int vfo)
+  {
+    return encode(String.format("MD0%d;", getModeCode(mode)));
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeGetMode(int vfo)
+  {
+    return encode("MD0;");
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSendCW(String text)
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeInterruptSendCW()
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeSetKeyerSpeed(int keyerSpeed)
+  {
+    return new I_EncodedTransaction[0];
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodePoll()
+  {
+    return encode("FA;FB;MD0;VS;");
+  }
+
+  @Override
+  public I_EncodedTransaction[] encodeEnableAutomaticInfo()
+  {
+    return encode(AUTO_INFO_ON);
+  }
+  
+  
+  /**
+   * Parses "MD01;"
+   */
+  @Override
+  protected void parseMode(String command, RadioEventRecord record)
+  {
+    setMode(record, getMode(parseDigit(command, 3)), RadioVfos.NONE, command);
+  }
+  
+  
+  /**
+   * Parses the IF command.
+   * 
+   * I F P1 P1 P1 P2 P2 P2 P2 P2 P2 P2 P2 P3 P3 P3 P3 P3 P4 P5 P6 P7 P8 P9 P9 P10  ;
+   * 0 1  2  3  4  5  6  7  8  9 10 11 12 13 14 15 16 17 18 19 20 21 22 23 24 25  26
+   * 
+   * [5-12] - VFO A frequency
+   * [20]   - operating mode (refer to the MD command)
+   */
+  @Override
+  protected void parseInfo(String command, RadioEventRecord record)
+  {
+    long       freq = parseNumber(command, 5, 13);
+    RadioModes mode = getMode(parseDigit(command, 20));
+    
+    record.setFrequency(freq, RadioVfos.NONE.getValue());
+    setMode(record, mode, RadioVfos.NONE, command);
+  }
+}
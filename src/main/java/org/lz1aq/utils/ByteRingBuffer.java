@@ -0,0 +1,211 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-capacity FIFO of bytes with separate read and write cursors. 
+ * 
+ * Unlike DynamicByteArray nothing is shifted when bytes are consumed - the
+ * read cursor is just moved forward. The unread bytes can be accessed in place 
+ * through get() and view().
+ * 
+ * Not thread safe.
+ */
+public class ByteRingBuffer
+{
+  private final byte[] buf;
+  private int readPos;   // Index of the first unread byte
+  private int count;     // Number of unread bytes
+  
+  
+  public ByteRingBuffer(int capacity)
+  {
+    buf = new byte[capacity];
+  }
+  
+  
+  /**
+   * @return Number of unread bytes
+   */
+  public int size()
+  {
+    return count;
+  }
+  
+  
+  public int capacity()
+  {
+    return buf.length;
+  }
+  
+  
+  /**
+   * @return Number of bytes that can be written
+   */
+  public int free()
+  {
+    return buf.length - count;
+  }
+  
+  
+  /**
+   * Appends bytes after the unread ones.
+   * 
+   * @param src - bytes to be written
+   * @return false if there is not enough free space (nothing is written then)
+   */
+  public boolean write(byte[] src)
+  {
+    if(src.length > free())
+    {
+      return false;
+    }
+    
+    int writePos = (readPos + count) % buf.length;
+    int firstPart = Math.min(src.length, buf.length - writePos);
+    System.arraycopy(src, 0, buf, writePos, firstPart);
+    System.arraycopy(src, firstPart, buf, 0, src.length - firstPart); // Wraps to the beginning
+    count += src.length;
+    return true;
+  }
+  
+  
+  /**
+   * Appends bytes after the unread ones. If there is not enough free space 
+   * the oldest unread bytes are dropped. If src is longer than the capacity
+   * only its last capacity() bytes are written.
+   * 
+   * @param src - bytes to be written
+   * @return number of bytes that were dropped (unread ones and ones from src)
+   */
+  public int writeDroppingOldest(byte[] src)
+  {
+    int dropped = 0;
+    int from = 0;
+    if(src.length > buf.length)
+    {
+      from = src.length - buf.length;
+      dropped += from;
+    }
+    
+    int length = src.length - from;
+    if(length > free())
+    {
+      int oldest = length - free();
+      consume(oldest);
+      dropped += oldest;
+    }
+    
+    int writePos = (readPos + count) % buf.length;
+    int firstPart = Math.min(length, buf.length - writePos);
+    System.arraycopy(src, from, buf, writePos, firstPart);
+    System.arraycopy(src, from + firstPart, buf, 0, length - firstPart); // Wraps to the beginning
+    count += length;
+    return dropped;
+  }
+  
+  
+  /**
+   * @param index - 0 is the oldest unread byte
+   * @return the byte at the specified position
+   */
+  public byte get(int index)
+  {
+    if(index < 0 || index >= count)
+    {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+    }
+    return buf[(readPos + index) % buf.length];
+  }
+  
+  
+  /**
+   * Gives access to the unread bytes without copying them. The view is valid
+   * until the buffer is changed.
+   * 
+   * If the unread bytes wrap around the end of the buffer they are first moved
+   * to its beginning. This is rare as the bytes are usually consumed soon after
+   * they are written.
+   * 
+   * @return read-only buffer with the unread bytes between its position and limit
+   */
+  public ByteBuffer view()
+  {
+    if(readPos + count > buf.length)
+    {
+      linearize();
+    }
+    return ByteBuffer.wrap(buf, readPos, count).asReadOnlyBuffer();
+  }
+  
+  
+  /**
+   * Marks bytes as read.
+   * 
+   * @param bytesCount - number of bytes to be consumed. If there are less
+   * unread bytes all of them are consumed.
+   */
+  public void consume(int bytesCount)
+  {
+    bytesCount = Math.min(bytesCount, count);
+    readPos = (readPos + bytesCount) % buf.length;
+    count  -= bytesCount;
+    if(count == 0)
+    {
+      readPos = 0; // Keeps the next bytes from wrapping
+    }
+  }
+  
+  
+  /**
+   * Discards all unread bytes
+   */
+  public void clear()
+  {
+    readPos = 0;
+    count   = 0;
+  }
+  
+  
+  /**
+   * @return copy of the unread bytes
+   */
+  public byte[] toByteArray()
+  {
+    byte[] copy = new byte[count];
+    int firstPart = Math.min(count, buf.length - readPos);
+    System.arraycopy(buf, readPos, copy, 0, firstPart);
+    System.arraycopy(buf, 0, copy, firstPart, count - firstPart);
+    return copy;
+  }
+  
+  
+  /**
+   * Moves the unread bytes to the beginning of the buffer
+   */
+  private void linearize()
+  {
+    byte[] unread = toByteArray();
+    System.arraycopy(unread, 0, buf, 0, count);
+    readPos = 0;
+  }
+}
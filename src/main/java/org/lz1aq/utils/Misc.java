@@ -186,6 +186,39 @@ public class Misc
         }
     }
 
+    /**
+     * The opposite of freqToBand()
+     *
+     * @param band - the band in meters (e.g. "80")
+     * @return The lowest frequency of the band in Hz or 0 if the band is unknown
+     */
+    public static int bandToFreq(String band)
+    {
+        switch (band)
+        {
+            case "160":
+                return 1800000;
+            case "80":
+                return 3500000;
+            case "40":
+                return 7000000;
+            case "30":
+                return 10100000;
+            case "20":
+                return 14000000;
+            case "17":
+                return 18068000;
+            case "15":
+                return 21000000;
+            case "12":
+                return 24890000;
+            case "10":
+                return 28000000;
+            default:
+                return 0;
+        }
+    }
+
     public static long getSecondsLeft(long elapsedTimeInSeconds, long repeatPeriod)
     {
         return repeatPeriod * 60 - elapsedTimeInSeconds;
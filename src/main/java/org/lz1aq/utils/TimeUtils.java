@@ -34,6 +34,31 @@ public class TimeUtils
   private static final DateTimeFormatter qsoDate = DateTimeFormat.forPattern("yyyy-MM-dd");
   private static final DateTimeFormatter qsoDateAndTime = DateTimeFormat.forPattern("yyyy-MM-dd HHmm ZZZ");
   
+  /**
+   * Coarse UTC clock in seconds since 1970-01-01. It is advanced by tickClock()
+   * (called on every refresh of the UI) so that elapsed time checks don't need 
+   * to ask the system for the time and allocate objects on every call.
+   */
+  private static volatile long coarseUtcSeconds = System.currentTimeMillis() / 1000;
+  
+  
+  /**
+   * Advances the coarse clock to the current time.
+   */
+  static public void tickClock()
+  {
+    coarseUtcSeconds = System.currentTimeMillis() / 1000;
+  }
+  
+  
+  /**
+   * @return The UTC time in seconds since 1970-01-01 as of the last call to tickClock()
+   */
+  static public long getCoarseUtcSeconds()
+  {
+    return coarseUtcSeconds;
+  }
+  
   static public DateTime getUTC()
   {
     return new DateTime(DateTimeZone.UTC);
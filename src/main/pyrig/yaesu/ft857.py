@@ -3,6 +3,8 @@ from serial_settings import SerialSettings
 from encoded_transaction import EncodedTransaction
 from decoded_transaction import DecodedTransaction
 import misc_utils
+from org.lz1aq.py.rig import I_TypedDecoder
+from org.lz1aq.radio import RadioModes
 import logging
 import logging.config
 
@@ -10,7 +12,7 @@ logging.config.fileConfig(misc_utils.get_logging_config(), disable_existing_logg
 logger = logging.getLogger(__name__)
 
 
-class Ft857(Radio):
+class Ft857(Radio, I_TypedDecoder):
     """
     Configuration file for Ft857 transceivers
     """
@@ -342,6 +344,39 @@ class Ft857(Radio):
         return DecodedTransaction(result_json, trans.__len__())
 
 
+    @classmethod
+    def decodeTyped(cls, data, record):
+        """
+        The same as decode() but the result is put directly into the supplied record instead of JSON.
+
+        :param data: Series of bytes from which we must extract the incoming command.
+        :type data: array
+        :param record: Empty record to be filled with the decoded transaction
+        :type record: RadioEventRecord
+        :return: The amount of bytes that were read from the supplied buffer
+        :rtype: int
+        """
+
+        trans = bytearray(data)
+
+        #  Discard all bytes if we don't get exactly 5
+        if trans.__len__() != 5:
+            record.setNotSupported("Unknown character found in the data coming from the radio.")
+            return trans.__len__()
+
+        # Mode
+        mode = cls.__mode_from_byte_to_string(trans[4])
+        if mode == "none":
+            record.setNotSupported("Unknown character found in the data coming from the radio.")
+        else:
+            record.setMode(RadioModes.valueOf(mode.upper()).ordinal(), cls.VFO_NONE)
+        # Frequency
+        freq = misc_utils.fromBcd(trans[0:4], "big")
+        record.setFrequency(freq * 10, cls.VFO_NONE)  # ft857 does not send the least significant digit for the HZ
+
+        return trans.__len__()
+
+
     #+--------------------------------------------------------------------------+
     #|   Private methods                                                        |
     #+--------------------------------------------------------------------------+
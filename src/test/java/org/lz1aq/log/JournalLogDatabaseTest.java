@@ -0,0 +1,241 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import junit.framework.TestCase;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Tests for the JournalLogDatabase class
+ */
+public class JournalLogDatabaseTest extends TestCase
+{
+  private File journalFile;
+  
+  public JournalLogDatabaseTest(String testName)
+  {
+    super(testName);
+  }
+  
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    journalFile = File.createTempFile("journaltest", "." + JournalLogDatabase.FILE_EXTENSION);
+    journalFile.delete();
+  }
+  
+  @Override
+  protected void tearDown() throws Exception
+  {
+    journalFile.delete();
+    new File(journalFile.getAbsolutePath() + QsoSnapshotFile.FILE_SUFFIX).delete();
+    super.tearDown();
+  }
+  
+  private static Qso newQso(String hisCall) throws Exception
+  {
+    return new Qso(3520000, RadioModes.CW, "LZ1ABC", hisCall, "001 001", "002 002", "CQ");
+  }
+  
+  
+  /**
+   * Changes must survive closing and reopening of the journal
+   */
+  public void testReopen() throws Exception
+  {
+    JournalLogDatabase db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    Qso first = newQso("LZ2AA");
+    Qso second = newQso("LZ2BB");
+    Qso third = newQso("LZ2CC");
+    db.add(first);
+    db.add(second);
+    db.add(third);
+    db.commit();
+    
+    second.setParamValue(5, "LZ2XX");
+    db.modify(second);
+    db.remove(first);
+    db.commit();
+    db.close();
+    
+    db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    List<Qso> all = db.getAll();
+    assertEquals(2, all.size());
+    assertEquals("LZ2XX", all.get(0).getHisCallsign());
+    assertEquals("LZ2CC", all.get(1).getHisCallsign());
+    assertEquals(third.toString(), all.get(1).toString());
+    
+    // The loaded Qsos must be usable for further changes
+    db.remove(all.get(0));
+    db.commit();
+    db.close();
+    
+    db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    assertEquals(1, db.getAll().size());
+    db.close();
+    db.close(); // Does nothing
+  }
+  
+  
+  /**
+   * After clean close the log must be opened from the snapshot file
+   */
+  public void testSnapshot() throws Exception
+  {
+    JournalLogDatabase db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    Qso cq = newQso("LZ2AA");
+    Qso sp = new Qso(7010000, RadioModes.LSB, "LZ1ABC", "LZ2BB", "001 001", "002 002", "SP");
+    sp.setImported(true);
+    sp.setVersion(7, "B");
+    db.add(cq);
+    db.add(sp);
+    db.commit();
+    db.close();
+    
+    File snapshot = new File(journalFile.getAbsolutePath() + QsoSnapshotFile.FILE_SUFFIX);
+    assertTrue(snapshot.exists());
+    
+    db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    List<Qso> all = db.getAll();
+    assertEquals(2, all.size());
+    
+    // Values taken from the columns
+    assertEquals("LZ2BB", all.get(1).getHisCallsign());
+    assertEquals("SP", all.get(1).getType());
+    assertEquals(RadioModes.LSB, all.get(1).getMode());
+    assertEquals(7010000, all.get(1).getFrequencyInt());
+    assertEquals(sp.getEpochSeconds(), all.get(1).getEpochSeconds());
+    assertEquals(sp.getDupeKey(), all.get(1).getDupeKey());
+    assertFalse(all.get(0).isImported());
+    assertTrue(all.get(1).isImported());
+    assertEquals(sp.getId(), all.get(1).getId());
+    assertEquals(sp.getVersion(), all.get(1).getVersion());
+    assertEquals(sp.getVersionStation(), all.get(1).getVersionStation());
+    
+    // Values read on first access
+    assertEquals(cq.toString(), all.get(0).toString());
+    assertEquals(sp.toString(), all.get(1).toString());
+    
+    all.get(0).setParamValue(5, "LZ2XX");
+    db.modify(all.get(0));
+    db.commit();
+    db.close();
+    
+    db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    assertEquals("LZ2XX", db.getAll().get(0).getHisCallsign());
+    db.close();
+  }
+  
+  
+  /**
+   * Partially written record at the end of the file must be discarded
+   */
+  public void testDamagedTail() throws Exception
+  {
+    JournalLogDatabase db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    db.add(newQso("LZ2AA"));
+    db.commit();
+    db.close();
+    
+    long validLength = journalFile.length();
+    try(RandomAccessFile raf = new RandomAccessFile(journalFile, "rw"))
+    {
+      raf.seek(validLength);
+      raf.writeInt(1000); // Record length without the record itself
+      raf.writeInt(0);
+      raf.write(new byte[] {1, 2, 3});
+    }
+    
+    db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    assertEquals(1, db.getAll().size());
+    db.add(newQso("LZ2BB"));
+    db.commit();
+    db.close();
+    
+    db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    assertEquals(2, db.getAll().size());
+    db.close();
+  }
+  
+  
+  /**
+   * Without close() the log must be opened from the last checkpoint and only
+   * the records written after it must be replayed
+   */
+  public void testCheckpoint() throws Exception
+  {
+    JournalLogDatabase crashed = new JournalLogDatabase(journalFile.getAbsolutePath(), 10);
+    Qso first = newQso("LZ2AA");
+    crashed.add(first);
+    crashed.commit();
+    for(int i = 0; i < 23; i++)
+    {
+      crashed.add(newQso("LZ3A" + i));
+      crashed.commit();
+    }
+    first.setParamValue(5, "LZ2XX"); // After the last checkpoint
+    crashed.modify(first);
+    crashed.remove(crashed.getAll().get(1));
+    crashed.commit();
+    // Not closed - as if the program was killed
+    
+    JournalLogDatabase db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    List<Qso> all = db.getAll();
+    assertEquals(23, all.size());
+    assertEquals("LZ2XX", all.get(0).getHisCallsign());
+    assertEquals("LZ3A1", all.get(1).getHisCallsign());
+    assertEquals(6, db.getReplayedRecordCount()); // 4 adds, modify and remove after the checkpoint at 20 records
+    db.close();
+    
+    db = new JournalLogDatabase(journalFile.getAbsolutePath());
+    assertEquals(23, db.getAll().size());
+    assertEquals(0, db.getReplayedRecordCount());
+    db.close();
+  }
+  
+  
+  public void testImportDb4o() throws Exception
+  {
+    File db4oFile = File.createTempFile("journaltest", "." + Db4oLogDatabase.FILE_EXTENSION);
+    db4oFile.delete();
+    try
+    {
+      Db4oLogDatabase db4o = new Db4oLogDatabase(db4oFile.getAbsolutePath());
+      db4o.add(newQso("LZ2AA"));
+      db4o.add(newQso("LZ2BB"));
+      db4o.commit();
+      db4o.close();
+      
+      JournalLogDatabase.importDb4o(db4oFile.getAbsolutePath(), journalFile.getAbsolutePath());
+      
+      JournalLogDatabase db = new JournalLogDatabase(journalFile.getAbsolutePath());
+      assertEquals(2, db.getAll().size());
+      db.close();
+    }
+    finally
+    {
+      db4oFile.delete();
+    }
+  }
+}
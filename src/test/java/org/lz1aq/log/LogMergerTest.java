@@ -0,0 +1,206 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import junit.framework.TestCase;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Tests for the LogMerger class
+ */
+public class LogMergerTest extends TestCase
+{
+  private static final int HISCALL_COLUMN = 5;
+  
+  private File fileA;
+  private File fileB;
+  private Log logA;
+  private Log logB;
+  
+  public LogMergerTest(String testName)
+  {
+    super(testName);
+  }
+  
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    fileA = File.createTempFile("mergetest", "." + JournalLogDatabase.FILE_EXTENSION);
+    fileB = File.createTempFile("mergetest", "." + JournalLogDatabase.FILE_EXTENSION);
+    fileA.delete();
+    fileB.delete();
+    logA = openLog(fileA, "A");
+    logB = openLog(fileB, "B");
+  }
+  
+  @Override
+  protected void tearDown() throws Exception
+  {
+    logA.close();
+    logB.close();
+    fileA.delete();
+    fileB.delete();
+    super.tearDown();
+  }
+  
+  private static Log openLog(File file, String stationId) throws Exception
+  {
+    Log log = new Log(new JournalLogDatabase(file.getAbsolutePath()), newQso("LZ0FS"));
+    log.setStationId(stationId);
+    return log;
+  }
+  
+  private static Qso newQso(String hisCall) throws Exception
+  {
+    return new Qso(3520000, RadioModes.CW, "LZ1ABC", hisCall, "001 001", "001 001", "SP");
+  }
+  
+  private static LogMerger.Result merge(Log to, Log from)
+  {
+    return LogMerger.merge(to, Arrays.asList(from.getSnapshot().toArray()));
+  }
+  
+  private static HashSet<String> contentOf(Log log)
+  {
+    HashSet<String> content = new HashSet<>();
+    for(int i = 0; i < log.getSize(); i++)
+    {
+      content.add(log.get(i).getId() + " " + log.get(i).toString());
+    }
+    return content;
+  }
+  
+  
+  public void testUnion() throws Exception
+  {
+    logA.add(newQso("LZ2AA"));
+    assertEquals(1, merge(logB, logA).getAddedCount());
+    
+    logB.add(newQso("LZ3BB"));
+    logA.add(newQso("LZ4CC"));
+    
+    LogMerger.Result result = merge(logA, logB);
+    assertEquals(1, result.getAddedCount());
+    assertEquals(1, result.getKeptCount());
+    merge(logB, logA);
+    
+    assertEquals(3, logA.getSize());
+    assertEquals(contentOf(logA), contentOf(logB));
+    
+    // Merging again changes nothing
+    result = merge(logA, logB);
+    assertEquals(0, result.getAddedCount());
+    assertEquals(0, result.getUpdatedCount());
+  }
+  
+  
+  public void testConcurrentEdit() throws Exception
+  {
+    logA.add(newQso("LZ2AA"));
+    merge(logB, logA);
+    
+    // Both positions edit the same Qso with the same version - the station decides
+    logA.setValueAt("LZ2AB", 0, HISCALL_COLUMN);
+    logB.setValueAt("LZ2AC", 0, HISCALL_COLUMN);
+    assertEquals(logA.get(0).getVersion(), logB.get(0).getVersion());
+    
+    assertEquals(1, merge(logA, logB).getUpdatedCount());
+    assertEquals(0, merge(logB, logA).getUpdatedCount());
+    assertEquals("LZ2AC", logA.get(0).getHisCallsign());
+    assertEquals("LZ2AC", logB.get(0).getHisCallsign());
+    assertEquals("LZ2AC", logA.getLatestQso("LZ2AC", RadioModes.CW).getHisCallsign());
+    assertNull(logA.getLatestQso("LZ2AB", RadioModes.CW));
+    
+    // The later change wins whichever station made it
+    logA.setValueAt("LZ2AD", 0, HISCALL_COLUMN);
+    merge(logB, logA);
+    assertEquals("LZ2AD", logB.get(0).getHisCallsign());
+  }
+  
+  
+  public void testVersionIsPersisted() throws Exception
+  {
+    logA.add(newQso("LZ2AA"));
+    logA.setValueAt("LZ2AB", 0, HISCALL_COLUMN);
+    String id = logA.get(0).getId();
+    long version = logA.get(0).getVersion();
+    
+    logA.close();
+    logA = openLog(fileA, "A");
+    
+    assertEquals(id, logA.get(0).getId());
+    assertEquals(version, logA.get(0).getVersion());
+    assertEquals("A", logA.get(0).getVersionStation());
+    assertEquals("LZ2AB", logA.get(0).getHisCallsign());
+  }
+  
+  
+  /**
+   * A log which is still open must only be read when merging it
+   */
+  public void testMergeFromOpenLog() throws Exception
+  {
+    logB.add(newQso("LZ2AA"));
+    logB.add(newQso("LZ3BB"));
+    long length = fileB.length();
+    
+    LogMerger.Result result = LogMerger.merge(logA, LogDatabaseFactory.readAll(fileB.getAbsolutePath()));
+    assertEquals(2, result.getAddedCount());
+    assertEquals(length, fileB.length());
+    
+    logB.add(newQso("LZ4CC")); // Still usable
+    assertEquals(3, LogDatabaseFactory.readAll(fileB.getAbsolutePath()).size());
+  }
+  
+  
+  /**
+   * Versions set by a batch must be restored when the batch fails
+   */
+  public void testVersionRollback() throws Exception
+  {
+    logA.add(newQso("LZ2AA"));
+    final long version = logA.get(0).getVersion();
+    
+    try
+    {
+      logA.runBatch(new LogBatch()
+      {
+        @Override
+        protected void run()
+        {
+          setVersion(0, version + 10, "B");
+          throw new IllegalStateException("Test");
+        }
+      });
+      fail();
+    }
+    catch(IllegalStateException ex)
+    {
+      // Expected
+    }
+    
+    assertEquals(version, logA.get(0).getVersion());
+    assertEquals("A", logA.get(0).getVersionStation());
+  }
+}
@@ -0,0 +1,85 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.io.File;
+import junit.framework.TestCase;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Tests for the LogTableModel class
+ */
+public class LogTableModelTest extends TestCase
+{
+  private File dbFile;
+  private Log log;
+  
+  public LogTableModelTest(String testName)
+  {
+    super(testName);
+  }
+  
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    dbFile = File.createTempFile("logtablemodeltest", "." + JournalLogDatabase.FILE_EXTENSION);
+    dbFile.delete();
+    log = new Log(new JournalLogDatabase(dbFile.getAbsolutePath()), newQso("LZ0FS"));
+  }
+  
+  @Override
+  protected void tearDown() throws Exception
+  {
+    log.close();
+    dbFile.delete();
+    new File(dbFile.getAbsolutePath() + QsoSnapshotFile.FILE_SUFFIX).delete();
+    super.tearDown();
+  }
+  
+  private static Qso newQso(String hisCall) throws Exception
+  {
+    return new Qso(3520000, RadioModes.CW, "LZ1ABC", hisCall, "001 001", "002 002", "SP");
+  }
+  
+  /**
+   * Hidden columns must be skipped and edits must not be hidden by the row cache
+   */
+  public void testHiddenColumnAndEdit() throws Exception
+  {
+    LogTableModel model = new LogTableModel(log);
+    model.setInvisible(4); // myCall
+    
+    model.addRow(newQso("LZ2AA"));
+    model.addRow(newQso("LZ2BB"));
+    
+    assertEquals(log.getColumnCount() - 1, model.getColumnCount());
+    assertEquals("hisCall", model.getColumnName(4));
+    assertEquals("LZ2BB", model.getValueAt(1, 4));
+    
+    model.setValueAt("LZ2XX", 1, 4);
+    assertEquals("LZ2XX", model.getValueAt(1, 4));
+    assertEquals("LZ2XX", log.get(1).getHisCallsign());
+    
+    model.removeRow(0);
+    assertEquals(1, model.getRowCount());
+    assertEquals("LZ2XX", model.getValueAt(0, 4));
+  }
+}
@@ -0,0 +1,425 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Tests for the Log class
+ */
+public class LogTest extends TestCase
+{
+  private static final int HISCALL_COLUMN = 5;
+  
+  private File dbFile;
+  private Log log;
+  
+  public LogTest(String testName)
+  {
+    super(testName);
+  }
+  
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    dbFile = File.createTempFile("logtest", ".db4o");
+    dbFile.delete();
+    log = new Log(new Db4oLogDatabase(dbFile.getAbsolutePath()), newQso("LZ0FS", RadioModes.CW));
+  }
+  
+  @Override
+  protected void tearDown() throws Exception
+  {
+    log.close();
+    dbFile.delete();
+    super.tearDown();
+  }
+  
+  private static Qso newQso(String hisCall, RadioModes mode) throws Exception
+  {
+    return new Qso(3520000, mode, "LZ1ABC", hisCall, "001 001", "001 001", "SP");
+  }
+
+  /**
+   * Test of getLatestQso method, of class Log.
+   */
+  public void testGetLatestQso() throws Exception
+  {
+    Qso first = newQso("LZ2AA", RadioModes.CW);
+    Qso second = newQso("LZ2AA", RadioModes.CW);
+    Qso ssb = newQso("LZ2AA", RadioModes.LSB);
+    
+    log.add(first);
+    log.add(ssb);
+    log.add(second);
+    
+    assertSame(second, log.getLatestQso("LZ2AA", RadioModes.CW));
+    assertSame(second, log.getLatestQso("lz2aa", RadioModes.CW));
+    assertSame(ssb, log.getLatestQso("LZ2AA", RadioModes.LSB));
+    assertNull(log.getLatestQso("LZ2AA", RadioModes.USB));
+    assertNull(log.getLatestQso("LZ3BB", RadioModes.CW));
+    
+    // Removing the latest Qso makes the previous one the latest
+    log.remove(2);
+    assertSame(first, log.getLatestQso("LZ2AA", RadioModes.CW));
+    
+    log.remove(0);
+    assertNull(log.getLatestQso("LZ2AA", RadioModes.CW));
+    assertSame(ssb, log.getLatestQso("LZ2AA", RadioModes.LSB));
+  }
+  
+  /**
+   * Editing the callsign must move the Qso to the new callsign/mode entry
+   */
+  public void testGetLatestQsoAfterEdit() throws Exception
+  {
+    Qso first = newQso("LZ2AA", RadioModes.CW);
+    Qso second = newQso("LZ2AA", RadioModes.CW);
+    
+    log.add(first);
+    log.add(second);
+    
+    log.setValueAt("LZ3BB", 1, HISCALL_COLUMN);
+    
+    assertSame(first, log.getLatestQso("LZ2AA", RadioModes.CW));
+    assertSame(second, log.getLatestQso("LZ3BB", RadioModes.CW));
+    assertTrue(log.isDupe("LZ3BB", RadioModes.CW, 30));
+    assertFalse(log.isDupe("LZ4CC", RadioModes.CW, 30));
+  }
+  
+  /**
+   * A snapshot must not change when the log is modified later
+   */
+  public void testSnapshot() throws Exception
+  {
+    Qso first = newQso("LZ2AA", RadioModes.CW);
+    log.add(first);
+    
+    LogSnapshot snapshot = log.getSnapshot();
+    log.add(newQso("LZ3BB", RadioModes.CW));
+    log.remove(0);
+    
+    assertEquals(1, snapshot.getSize());
+    assertSame(first, snapshot.get(0));
+    assertNull(snapshot.get(1));
+    assertEquals("LZ3BB", log.get(0).getHisCallsign());
+    
+    // Every change increments the version
+    long version = log.getSnapshot().getVersion();
+    log.setValueAt("LZ4CC", 0, HISCALL_COLUMN);
+    assertEquals(version + 1, log.getSnapshot().getVersion());
+    assertTrue(snapshot.getVersion() < version);
+  }
+  
+  /**
+   * Listeners must receive the row, column and old value of the change
+   */
+  public void testListenerEvents() throws Exception
+  {
+    final StringBuilder events = new StringBuilder();
+    log.addEventListener(new LogListener()
+    {
+      @Override
+      public void eventInit()
+      {
+      }
+
+      @Override
+      public void eventQsoAdded(Qso qso, int row)
+      {
+        events.append("add ").append(row).append(';');
+      }
+
+      @Override
+      public void eventQsoRemoved(Qso qso, int row)
+      {
+        events.append("remove ").append(row).append(';');
+      }
+
+      @Override
+      public void eventQsoModified(Qso qso, int row, int col, String oldValue)
+      {
+        events.append("modify ").append(row).append(' ').append(col).append(' ').append(oldValue).append(';');
+      }
+
+      @Override
+      public void eventBulkChange()
+      {
+        events.append("bulk ").append(log.getSize()).append(';');
+      }
+    });
+    
+    log.add(newQso("LZ2AA", RadioModes.CW));
+    log.add(newQso("LZ3BB", RadioModes.CW));
+    log.setValueAt("LZ4CC", 1, HISCALL_COLUMN);
+    log.remove(0);
+    log.addAll(Arrays.asList(newQso("LZ5DD", RadioModes.CW), newQso("LZ6EE", RadioModes.CW)));
+    
+    assertEquals("add 0;add 1;modify 1 5 LZ3BB;remove 0;bulk 3;", events.toString());
+  }
+  
+  /**
+   * A batch must be applied at once with a single event
+   */
+  public void testBatch() throws Exception
+  {
+    for(int i = 0; i < 5; i++)
+    {
+      log.add(newQso("LZ2AA", RadioModes.CW));
+    }
+    final Qso added = newQso("LZ3BB", RadioModes.CW);
+    
+    final StringBuilder events = new StringBuilder();
+    log.addEventListener(new LogListener()
+    {
+      @Override
+      public void eventInit()
+      {
+      }
+
+      @Override
+      public void eventQsoAdded(Qso qso, int row)
+      {
+        events.append("add;");
+      }
+
+      @Override
+      public void eventQsoRemoved(Qso qso, int row)
+      {
+        events.append("remove;");
+      }
+
+      @Override
+      public void eventQsoModified(Qso qso, int row, int col, String oldValue)
+      {
+        events.append("modify;");
+      }
+
+      @Override
+      public void eventBulkChange()
+      {
+        events.append("bulk ").append(log.getSize()).append(';');
+      }
+    });
+    
+    log.runBatch(new LogBatch()
+    {
+      @Override
+      protected void run()
+      {
+        remove(4);
+        remove(3);
+        setValueAt("LZ4CC", 0, HISCALL_COLUMN);
+        add(added);
+        assertEquals(4, getSize());
+        assertEquals(5, log.getSize()); // Not yet visible
+      }
+    });
+    
+    assertEquals("bulk 4;", events.toString());
+    assertSame(added, log.get(3));
+    assertEquals("LZ4CC", log.get(0).getHisCallsign());
+    assertSame(log.get(2), log.getLatestQso("LZ2AA", RadioModes.CW));
+    assertSame(log.get(0), log.getLatestQso("LZ4CC", RadioModes.CW));
+    
+    // The database must contain the same Qsos
+    log.close();
+    log = new Log(new Db4oLogDatabase(dbFile.getAbsolutePath()), newQso("LZ0FS", RadioModes.CW));
+    assertEquals(4, log.getSize());
+    assertEquals("LZ4CC", log.get(0).getHisCallsign());
+    assertEquals("LZ3BB", log.get(3).getHisCallsign());
+  }
+  
+  /**
+   * A batch which throws must not change the log
+   */
+  public void testBatchRollback() throws Exception
+  {
+    log.add(newQso("LZ2AA", RadioModes.CW));
+    log.add(newQso("LZ2AA", RadioModes.CW));
+    long version = log.getSnapshot().getVersion();
+    
+    try
+    {
+      log.runBatch(new LogBatch()
+      {
+        @Override
+        protected void run()
+        {
+          setValueAt("LZ4CC", 0, HISCALL_COLUMN);
+          remove(1);
+          throw new IllegalArgumentException("test");
+        }
+      });
+      fail();
+    }
+    catch(IllegalArgumentException ex)
+    {
+      // Expected
+    }
+    
+    assertEquals(2, log.getSize());
+    assertEquals("LZ2AA", log.get(0).getHisCallsign());
+    assertEquals(version, log.getSnapshot().getVersion());
+  }
+  
+  /**
+   * The index must be rebuilt when the log is opened again
+   */
+  public void testIndexIsLoadedFromDatabase() throws Exception
+  {
+    log.add(newQso("LZ2AA", RadioModes.CW));
+    log.add(newQso("LZ2AA", RadioModes.CW));
+    log.close();
+    
+    log = new Log(new Db4oLogDatabase(dbFile.getAbsolutePath()), newQso("LZ0FS", RadioModes.CW));
+    
+    assertSame(log.get(1), log.getLatestQso("LZ2AA", RadioModes.CW));
+  }
+  
+  /**
+   * In write-behind mode all changes must be in the database after close()
+   */
+  public void testWriteBehind() throws Exception
+  {
+    log.close();
+    dbFile.delete();
+    dbFile = File.createTempFile("logtest", "." + JournalLogDatabase.FILE_EXTENSION);
+    dbFile.delete();
+    
+    log = new Log(new JournalLogDatabase(dbFile.getAbsolutePath()), newQso("LZ0FS", RadioModes.CW), true);
+    for(int i = 0; i < 100; i++)
+    {
+      log.add(newQso("LZ2AA", RadioModes.CW));
+    }
+    log.remove(0);
+    log.setValueAt("LZ3BB", 0, HISCALL_COLUMN);
+    log.close();
+    assertEquals(0, log.getPendingWriteCount());
+    
+    log = new Log(new JournalLogDatabase(dbFile.getAbsolutePath()), newQso("LZ0FS", RadioModes.CW), true);
+    assertEquals(99, log.getSize());
+    assertEquals("LZ3BB", log.get(0).getHisCallsign());
+  }
+  
+  /**
+   * Changes which couldn't be committed must not be reported as saved and a
+   * second close() must not block
+   */
+  public void testWriteBehindFailure() throws Exception
+  {
+    final ArrayList<Qso> written = new ArrayList<>();
+    final boolean[] isFailing = {true};
+    WriteBehindLogDatabase db = new WriteBehindLogDatabase(new LogDatabase()
+    {
+      @Override
+      public List<Qso> getAll()
+      {
+        return written;
+      }
+
+      @Override
+      public void add(Qso qso)
+      {
+        if(isFailing[0])
+        {
+          throw new LogDatabaseException("Disk full");
+        }
+        written.add(qso);
+      }
+
+      @Override
+      public void remove(Qso qso)
+      {
+        written.remove(qso);
+      }
+
+      @Override
+      public void modify(Qso qso){}
+
+      @Override
+      public void commit(){}
+
+      @Override
+      public void close(){}
+    });
+    
+    Qso first = newQso("LZ2AA", RadioModes.CW);
+    db.add(first);
+    db.remove(first); // Must wait for the failed add
+    db.add(newQso("LZ3BB", RadioModes.CW));
+    db.flush();
+    assertEquals(3, db.getBacklog());
+    assertTrue(db.getLastError().contains("Disk full"));
+    
+    // The failed changes are written by the next commit
+    isFailing[0] = false;
+    db.commit();
+    db.flush();
+    assertEquals(0, db.getBacklog());
+    assertNull(db.getLastError());
+    assertEquals(1, written.size());
+    assertEquals("LZ3BB", written.get(0).getHisCallsign());
+    
+    db.close();
+    db.close();
+    try
+    {
+      db.add(newQso("LZ4CC", RadioModes.CW));
+      fail();
+    }
+    catch(LogDatabaseException ex)
+    {
+      // Expected
+    }
+  }
+  
+  /**
+   * Imported Qsos must not change the serial number and the exchange of the
+   * next Qso
+   */
+  public void testImportedQsos() throws Exception
+  {
+    assertEquals(0, log.getOwnQsoCount());
+    assertEquals("000", log.getFirstPartOfLastRcv());
+    
+    log.add(newQso("LZ2AA", RadioModes.CW));
+    
+    Qso imported = new Qso("2016-08-20", "0805", 3520000, RadioModes.CW, "LZ1ABC", "LZ3BB", "", "", "CQ");
+    imported.setImported(true);
+    log.addAll(Arrays.asList(imported));
+    
+    assertEquals(2, log.getQsoCount());
+    assertEquals(1, log.getOwnQsoCount());
+    assertEquals("001", log.getFirstPartOfLastRcv());
+    
+    // Short or empty Rcv must not throw
+    log.add(new Qso("2016-08-20", "0806", 3520000, RadioModes.CW, "LZ1ABC", "LZ4CC", "", "5", "CQ"));
+    assertEquals("5", log.getFirstPartOfLastRcv());
+    log.add(new Qso("2016-08-20", "0807", 3520000, RadioModes.CW, "LZ1ABC", "LZ5DD", "", "", "CQ"));
+    assertEquals("000", log.getFirstPartOfLastRcv());
+  }
+}
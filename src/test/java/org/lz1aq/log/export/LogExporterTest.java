@@ -0,0 +1,115 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.export;
+
+import java.io.File;
+import java.io.StringWriter;
+import junit.framework.TestCase;
+import org.lz1aq.log.JournalLogDatabase;
+import org.lz1aq.log.Log;
+import org.lz1aq.log.Qso;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Tests for the Cabrillo and Adif exporters
+ */
+public class LogExporterTest extends TestCase
+{
+  private static final String NL = System.lineSeparator();
+  
+  private File dbFile;
+  private Log log;
+  
+  public LogExporterTest(String testName)
+  {
+    super(testName);
+  }
+  
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    dbFile = File.createTempFile("logexportertest", "." + JournalLogDatabase.FILE_EXTENSION);
+    dbFile.delete();
+    log = new Log(new JournalLogDatabase(dbFile.getAbsolutePath()), newQso("LZ0FS"));
+    log.add(newQso("LZ2AA"));
+    log.add(new Qso(14025000, RadioModes.USB, "LZ1ABC", "DL1XYZ12345678", "599 001", "599 123", "CQ"));
+  }
+  
+  @Override
+  protected void tearDown() throws Exception
+  {
+    log.close();
+    dbFile.delete();
+    new File(dbFile.getAbsolutePath() + ".snapshot").delete();
+    super.tearDown();
+  }
+  
+  private static Qso newQso(String hisCall) throws Exception
+  {
+    return new Qso(3520000, RadioModes.CW, "LZ1ABC", hisCall, "001 001", "002 002", "SP");
+  }
+  
+  /**
+   * Qso lines must be the same as the ones produced by Qso.toStringCabrillo()
+   */
+  public void testCabrillo() throws Exception
+  {
+    StringWriter out = new StringWriter();
+    new CabrilloExporter("LZ1ABC", "LZ-Log 1.0").export(log.getSnapshot(), out, null);
+    
+    String[] lines = out.toString().split(NL);
+    assertEquals(10 + 2 + 1, lines.length);
+    assertEquals("START-OF-LOG: 2.0", lines[0]);
+    assertEquals("CALLSIGN: LZ1ABC", lines[1]);
+    assertEquals("CREATED-BY: LZ-Log 1.0", lines[9]);
+    assertEquals(log.get(0).toStringCabrillo(), lines[10]);
+    assertEquals(log.get(1).toStringCabrillo(), lines[11]);
+    assertEquals("END-OF-LOG:", lines[12]);
+  }
+  
+  /**
+   * Qso lines must be the same as the ones produced by Qso.toStringAdif()
+   */
+  public void testAdif() throws Exception
+  {
+    final int[] lastProgress = new int[2];
+    
+    StringWriter out = new StringWriter();
+    new AdifExporter("LZ-Log", "1.0").export(log.getSnapshot(), out, new ExportProgressListener()
+    {
+      @Override
+      public void progress(int done, int total)
+      {
+        lastProgress[0] = done;
+        lastProgress[1] = total;
+      }
+    });
+    
+    String[] lines = out.toString().split(NL);
+    assertEquals(3 + 2, lines.length);
+    assertEquals("<programid>LZ-Log", lines[0]);
+    assertEquals("<eoh>", lines[2]);
+    assertEquals(log.get(0).toStringAdif(), lines[3]);
+    assertEquals(log.get(1).toStringAdif(), lines[4]);
+    assertEquals(2, lastProgress[0]);
+    assertEquals(2, lastProgress[1]);
+  }
+}
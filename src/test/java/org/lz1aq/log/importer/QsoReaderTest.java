@@ -0,0 +1,184 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.importer;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import junit.framework.TestCase;
+import org.lz1aq.log.JournalLogDatabase;
+import org.lz1aq.log.Log;
+import org.lz1aq.log.Qso;
+import org.lz1aq.log.export.AdifExporter;
+import org.lz1aq.log.export.CabrilloExporter;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Tests for the ADIF and Cabrillo readers
+ */
+public class QsoReaderTest extends TestCase
+{
+  private File dbFile;
+  private Log log;
+  
+  public QsoReaderTest(String testName)
+  {
+    super(testName);
+  }
+  
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    dbFile = File.createTempFile("qsoreadertest", "." + JournalLogDatabase.FILE_EXTENSION);
+    dbFile.delete();
+    log = new Log(new JournalLogDatabase(dbFile.getAbsolutePath()), newQso("LZ0FS", "0800"));
+    log.add(newQso("LZ2AA", "0802"));
+    log.add(new Qso("2016-08-20", "0803", 14025000, RadioModes.USB, "LZ1ABC", "DL1XYZ", "599001", "599123", "CQ"));
+  }
+  
+  @Override
+  protected void tearDown() throws Exception
+  {
+    log.close();
+    dbFile.delete();
+    new File(dbFile.getAbsolutePath() + ".snapshot").delete();
+    super.tearDown();
+  }
+  
+  private static Qso newQso(String hisCall, String time)
+  {
+    return new Qso("2016-08-20", time, 3545000, RadioModes.CW, "LZ1ABC", hisCall, "001003", "004004", "SP");
+  }
+  
+  private static ArrayList<Qso> readAll(QsoReader reader) throws Exception
+  {
+    ArrayList<Qso> qsos = new ArrayList<>();
+    Qso qso;
+    while((qso = reader.next()) != null)
+    {
+      qsos.add(qso);
+    }
+    return qsos;
+  }
+  
+  private void assertSameQso(Qso expected, Qso actual)
+  {
+    assertEquals(expected.getDate(), actual.getDate());
+    assertEquals(expected.getTime(), actual.getTime());
+    assertEquals(expected.getMode(), actual.getMode());
+    assertEquals(expected.getHisCallsign(), actual.getHisCallsign());
+    assertEquals(expected.getSnt(), actual.getSnt());
+    assertEquals(expected.getRcv(), actual.getRcv());
+  }
+  
+  /**
+   * Qsos exported in Cabrillo must be read back
+   */
+  public void testCabrilloRoundTrip() throws Exception
+  {
+    StringWriter out = new StringWriter();
+    new CabrilloExporter("LZ1ABC", "LZ-Log").export(log.getSnapshot(), out, null);
+    
+    CabrilloReader reader = new CabrilloReader(new StringReader(out.toString()));
+    ArrayList<Qso> qsos = readAll(reader);
+    
+    assertEquals(2, qsos.size());
+    assertSameQso(log.get(0), qsos.get(0));
+    assertSameQso(log.get(1), qsos.get(1));
+    assertEquals("LZ1ABC", qsos.get(0).getMyCallsign());
+    assertEquals(3545000, qsos.get(0).getFrequencyInt());
+    assertEquals(0, reader.getSkippedCount());
+  }
+  
+  /**
+   * Qsos exported in ADIF must be read back, invalid records are skipped
+   */
+  public void testAdifRoundTrip() throws Exception
+  {
+    StringWriter out = new StringWriter();
+    new AdifExporter("LZ-Log", "1.0").export(log.getSnapshot(), out, null);
+    out.append("<call:5>LZ3CC<eor>\n"); // No date
+    
+    AdifReader reader = new AdifReader(new StringReader(out.toString()));
+    ArrayList<Qso> qsos = readAll(reader);
+    
+    assertEquals(2, qsos.size());
+    assertSameQso(log.get(0), qsos.get(0));
+    assertSameQso(log.get(1), qsos.get(1));
+    assertEquals(1, reader.getSkippedCount());
+  }
+  
+  /**
+   * Standard ADIF fields from other programs
+   */
+  public void testAdifFields() throws Exception
+  {
+    String adif = "Header text <adif_ver:5>3.1.0 <EOH>\n"
+                + "<CALL:5>LZ3CC <QSO_DATE:8:D>20160820 <TIME_ON:6>080512 <FREQ:6>3.5451 <MODE:3>SSB "
+                + "<RST_SENT:2>59 <STX:3>001 <RST_RCVD:2>57 <SRX:3>012 <EOR>\n";
+    
+    ArrayList<Qso> qsos = readAll(new AdifReader(new StringReader(adif)));
+    
+    assertEquals(1, qsos.size());
+    assertEquals("LZ3CC", qsos.get(0).getHisCallsign());
+    assertEquals("2016-08-20", qsos.get(0).getDate());
+    assertEquals("0805", qsos.get(0).getTime());
+    assertEquals(3545100, qsos.get(0).getFrequencyInt());
+    assertEquals(RadioModes.LSB, qsos.get(0).getMode());
+    assertEquals("59 001", qsos.get(0).getSnt());
+    assertEquals("57 012", qsos.get(0).getRcv());
+    assertTrue(qsos.get(0).isImported());
+  }
+  
+  /**
+   * The exchange of imported Qsos is normalised
+   */
+  public void testNormaliseExchange() throws Exception
+  {
+    assertEquals("59 001 SO", QsoReader.normaliseExchange("  59   001\tso "));
+    assertEquals("", QsoReader.normaliseExchange("  "));
+  }
+  
+  /**
+   * Imported Qsos which are older than the ones in the log must not become the
+   * latest Qso for their callsign
+   */
+  public void testAddAllKeepsLatest() throws Exception
+  {
+    Qso recent = log.getLatestQso("LZ2AA", RadioModes.CW);
+    
+    ArrayList<Qso> imported = new ArrayList<>();
+    imported.add(newQso("LZ2AA", "0700"));
+    imported.add(newQso("LZ4DD", "0700"));
+    log.addAll(imported);
+    
+    assertEquals(4, log.getSize());
+    assertSame(recent, log.getLatestQso("LZ2AA", RadioModes.CW));
+    assertSame(imported.get(1), log.getLatestQso("LZ4DD", RadioModes.CW));
+    
+    // Searching the log again (after a delete or an edit) must give the same result
+    log.setValueAt("LZ2AA", log.getSize() - 1, 5);
+    assertSame(recent, log.getLatestQso("LZ2AA", RadioModes.CW));
+    log.remove(log.getSize() - 1);
+    assertSame(recent, log.getLatestQso("LZ2AA", RadioModes.CW));
+  }
+}
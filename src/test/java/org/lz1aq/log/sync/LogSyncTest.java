@@ -0,0 +1,198 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.log.sync;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import junit.framework.TestCase;
+import org.lz1aq.log.JournalLogDatabase;
+import org.lz1aq.log.Log;
+import org.lz1aq.log.Qso;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Tests the log replication over the loopback interface
+ */
+public class LogSyncTest extends TestCase
+{
+  private static final int HISCALL_COLUMN = 5;
+  private static final long TIMEOUT_MS = 10000;
+  
+  private static final Executor DIRECT = new Executor()
+  {
+    @Override
+    public void execute(Runnable command)
+    {
+      command.run();
+    }
+  };
+  
+  private File primaryFile;
+  private File followerFile;
+  private Log primary;
+  private Log follower;
+  private LogSyncServer server;
+  private LogSyncClient client;
+  
+  public LogSyncTest(String testName)
+  {
+    super(testName);
+  }
+  
+  @Override
+  protected void setUp() throws Exception
+  {
+    super.setUp();
+    primaryFile = File.createTempFile("logsyncprimary", "." + JournalLogDatabase.FILE_EXTENSION);
+    primaryFile.delete();
+    followerFile = File.createTempFile("logsyncfollower", "." + JournalLogDatabase.FILE_EXTENSION);
+    followerFile.delete();
+    primary = new Log(new JournalLogDatabase(primaryFile.getAbsolutePath()), newQso("LZ0FS"));
+    follower = new Log(new JournalLogDatabase(followerFile.getAbsolutePath()), newQso("LZ0FS"));
+  }
+  
+  @Override
+  protected void tearDown() throws Exception
+  {
+    if(client != null)
+    {
+      client.stop();
+    }
+    if(server != null)
+    {
+      server.stop();
+    }
+    primary.close();
+    follower.close();
+    for(File file : new File[]{primaryFile, followerFile})
+    {
+      file.delete();
+      new File(file.getAbsolutePath() + ".snapshot").delete();
+    }
+    super.tearDown();
+  }
+  
+  private static Qso newQso(String hisCall) throws Exception
+  {
+    return new Qso(3520000, RadioModes.CW, "LZ1ABC", hisCall, "001001", "002002", "SP");
+  }
+  
+  private void start() throws Exception
+  {
+    server = new LogSyncServer(primary, 0, DIRECT);
+    server.start();
+    client = new LogSyncClient(follower, "localhost", server.getPort(), DIRECT);
+    client.start();
+  }
+  
+  /**
+   * Waits until the follower has applied all changes and sent all requests
+   */
+  private void waitForSync() throws Exception
+  {
+    long end = System.currentTimeMillis() + TIMEOUT_MS;
+    while(client.getEpoch() != server.getEpoch() || 
+          client.getLastSequence() != server.getSequence() || 
+          client.getPendingCount() != 0)
+    {
+      assertTrue("Not synchronized in time", System.currentTimeMillis() < end);
+      Thread.sleep(10);
+    }
+  }
+  
+  private void assertSameLogs()
+  {
+    assertEquals(primary.getSize(), follower.getSize());
+    for(int i = 0; i < primary.getSize(); i++)
+    {
+      int row = follower.indexOf(primary.get(i).getId());
+      assertTrue("Missing " + primary.get(i), row >= 0);
+      assertEquals(primary.get(i).toString(), follower.get(row).toString());
+    }
+  }
+  
+  /**
+   * Changes from both sides must reach the other side
+   */
+  public void testReplication() throws Exception
+  {
+    primary.add(newQso("LZ2AA"));
+    Qso local = newQso("LZ9ZZ");
+    follower.add(local); // Not yet shared - must be kept and sent to the primary
+    start();
+    waitForSync();
+    assertSameLogs();
+    assertEquals(2, primary.getSize());
+    
+    Qso remote = newQso("LZ3BB");
+    primary.add(remote);
+    follower.add(newQso("LZ4CC"));
+    waitForSync();
+    primary.setValueAt("LZ3XX", primary.indexOf(remote.getId()), HISCALL_COLUMN);
+    follower.remove(follower.indexOf(local.getId()));
+    waitForSync();
+    
+    assertSameLogs();
+    assertEquals(3, primary.getSize());
+    assertEquals(-1, primary.indexOf(local.getId()));
+    assertEquals("LZ3XX", primary.get(primary.indexOf(remote.getId())).getHisCallsign());
+  }
+  
+  /**
+   * After a reconnect only the missed changes must be sent and the local
+   * changes done while disconnected must reach the primary
+   */
+  public void testCatchUp() throws Exception
+  {
+    start();
+    primary.add(newQso("LZ2AA"));
+    waitForSync();
+    
+    client.disconnect();
+    primary.add(newQso("LZ3BB"));
+    primary.remove(0);
+    follower.add(newQso("LZ4CC"));
+    waitForSync();
+    
+    assertSameLogs();
+    assertEquals(2, primary.getSize());
+    assertEquals(4, server.getSequence()); // Nothing was sent twice
+  }
+  
+  /**
+   * A restarted follower gets a snapshot of the primary, but must not lose
+   * the Qsos which the primary doesn't have
+   */
+  public void testFollowerRestart() throws Exception
+  {
+    start();
+    primary.add(newQso("LZ2AA"));
+    waitForSync();
+    
+    client.stop();
+    follower.add(newQso("LZ3BB")); // Logged while the follower was not running
+    client = new LogSyncClient(follower, "localhost", server.getPort(), DIRECT);
+    client.start();
+    waitForSync();
+    
+    assertSameLogs();
+    assertEquals(2, primary.getSize());
+  }
+}
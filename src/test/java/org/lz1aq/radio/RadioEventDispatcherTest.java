@@ -0,0 +1,157 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.lz1aq.radio.event.ConfirmationEvent;
+import org.lz1aq.radio.event.EmptyRadioListener;
+import org.lz1aq.radio.event.FrequencyEvent;
+
+/**
+ * Tests for the RadioEventDispatcher class
+ */
+public class RadioEventDispatcherTest extends TestCase
+{
+  public RadioEventDispatcherTest(String testName)
+  {
+    super(testName);
+  }
+  
+  
+  /**
+   * While the listener is busy with the first event the rest of the 
+   * frequencies for the same VFO are coalesced into the last one
+   */
+  public void testCoalesce() throws Exception
+  {
+    RadioEventDispatcher dispatcher = new RadioEventDispatcher();
+    SlowListener coalescing = new SlowListener(3);
+    SlowListener all        = new SlowListener(11);
+    dispatcher.addListener(coalescing, RadioEventDispatcher.Policy.COALESCE);
+    dispatcher.addListener(all, RadioEventDispatcher.Policy.DROP_OLDEST);
+    dispatcher.start();
+    
+    dispatcher.eventFrequency(new FrequencyEvent("1", RadioVfos.A));
+    assertTrue(coalescing.busy.await(5, TimeUnit.SECONDS));
+    for(int i = 2; i <= 10; i++)
+    {
+      dispatcher.eventFrequency(new FrequencyEvent(Integer.toString(i), RadioVfos.A));
+    }
+    dispatcher.eventConfirmation(new ConfirmationEvent(true));
+    coalescing.release.countDown();
+    all.release.countDown();
+    
+    assertTrue(coalescing.done.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("1", "10", "cfm"), coalescing.events);
+    assertTrue(all.done.await(5, TimeUnit.SECONDS));
+    assertEquals(11, all.events.size());
+    assertEquals("cfm", all.events.get(10));
+    
+    dispatcher.stop();
+  }
+  
+  
+  /**
+   * Within the window only the first and the last frequency for a VFO are delivered
+   */
+  public void testCoalescingWindow() throws Exception
+  {
+    final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    RadioEventDispatcher dispatcher = new RadioEventDispatcher();
+    dispatcher.setCoalescingWindow(500);
+    dispatcher.addListener(new EmptyRadioListener()
+    {
+      @Override
+      public void eventFrequency(FrequencyEvent e)
+      {
+        events.add(e.getVfo() + e.getFrequency());
+      }
+    }, RadioEventDispatcher.Policy.COALESCE);
+    dispatcher.start();
+    
+    dispatcher.eventFrequency(new FrequencyEvent("1", RadioVfos.A));
+    assertEquals("A1", events.poll(5, TimeUnit.SECONDS));
+    for(int i = 2; i <= 5; i++)
+    {
+      dispatcher.eventFrequency(new FrequencyEvent(Integer.toString(i), RadioVfos.A));
+    }
+    dispatcher.eventFrequency(new FrequencyEvent("7", RadioVfos.B)); // Not held by the window of VFO A
+    
+    assertEquals("B7", events.poll(5, TimeUnit.SECONDS));
+    assertEquals("A5", events.poll(5, TimeUnit.SECONDS));
+    assertNull(events.poll(600, TimeUnit.MILLISECONDS));
+    
+    dispatcher.stop();
+  }
+  
+  
+  /**
+   * Blocks in the first event until released
+   */
+  private static class SlowListener extends EmptyRadioListener
+  {
+    final CountDownLatch busy    = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done;
+    final List<String>   events  = new ArrayList<>();
+    
+    SlowListener(int expectedEvents)
+    {
+      done = new CountDownLatch(expectedEvents);
+    }
+    
+    @Override
+    public void eventFrequency(FrequencyEvent e)
+    {
+      add(e.getFrequency());
+    }
+
+    @Override
+    public void eventConfirmation(ConfirmationEvent e)
+    {
+      add("cfm");
+    }
+    
+    private void add(String event)
+    {
+      busy.countDown();
+      try
+      {
+        release.await();
+      }
+      catch(InterruptedException exc)
+      {
+        return;
+      }
+      synchronized(events)
+      {
+        events.add(event);
+      }
+      done.countDown();
+    }
+  }
+}
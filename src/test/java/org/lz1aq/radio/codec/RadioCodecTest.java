@@ -0,0 +1,170 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.radio.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.json.JSONObject;
+import org.lz1aq.py.rig.RadioEventRecord;
+import org.lz1aq.radio.RadioModes;
+
+/**
+ * Tests for the Java protocol parsers
+ */
+public class RadioCodecTest extends TestCase
+{
+  private final List<String> events = new ArrayList<>();
+  
+  
+  public RadioCodecTest(String testName)
+  {
+    super(testName);
+  }
+  
+  
+  public void testIcom()
+  {
+    IcomCodec codec = new IcomCodec(null, 0x5C);
+    
+    assertTrue(Arrays.equals(bytes(0xFE, 0xFE, 0x5C, 0xE0, 0x05, 0x31, 0x02, 0x10, 0x14, 0x00, 0xFD), 
+                             codec.encodeSetFreq(14100231, 0)[0].getTransaction()));
+    
+    // Frequency followed by the beginning of the next transaction
+    ByteBuffer data = ByteBuffer.wrap(bytes(0xFE, 0xFE, 0xE0, 0x5C, 0x00, 0x31, 0x02, 0x10, 0x14, 0x00, 0xFD, 0xFE, 0xFE));
+    assertEquals(11, decode(codec, data));
+    assertEquals(Arrays.asList("frequency 14100231 -1"), events);
+    
+    data.position(11);
+    assertEquals(0, decode(codec, data));
+    
+    events.clear();
+    decode(codec, ByteBuffer.wrap(bytes(0xFE, 0xFE, 0xE0, 0x5C, 0x01, 0x03, 0x01, 0xFD)));
+    decode(codec, ByteBuffer.wrap(bytes(0xFE, 0xFE, 0xE0, 0x5C, 0xFB, 0xFD)));
+    decode(codec, ByteBuffer.wrap(bytes(0xFE, 0xFE, 0xE0, 0x5C, 0x01, 0x17, 0x01, 0xFD))); // Unknown mode
+    decode(codec, ByteBuffer.wrap(bytes(0xFE, 0xFE, 0x5C, 0xE0, 0x03, 0xFD)));             // Echo of our command
+    assertEquals(Arrays.asList("mode CW -1", 
+                               "confirmation true", 
+                               "not_supported 0xfe 0xfe 0xe0 0x5c 0x01 0x17 0x01 0xfd", 
+                               "not_supported 0xfe 0xfe 0x5c 0xe0 0x03 0xfd"), events);
+  }
+  
+  
+  public void testKenwood()
+  {
+    KenwoodCodec codec = new KenwoodCodec(null, "AI2;");
+    assertEquals("FB00007012345;", ascii(codec.encodeSetFreq(7012345, 1)[0].getTransaction()));
+    assertEquals("KY TEST                    ;", ascii(codec.encodeSendCW("TEST")[0].getTransaction()));
+    
+    ByteBuffer data = ascii("IF00014025000     +00000000003100000;FA000");
+    assertEquals(37, decode(codec, data));
+    assertEquals(Arrays.asList("frequency 14025000 1", "mode CW 1", "active_vfo 1"), events);
+    
+    // Incomplete command
+    data.position(37);
+    assertEquals(0, decode(codec, data));
+    
+    events.clear();
+    decode(codec, ascii("IF00014025000     +0000000000X00000;")); // Nothing but not supported
+    decode(codec, ascii("XX1;"));
+    assertEquals(Arrays.asList("not_supported Unknown character found in the data coming from the radio.", 
+                               "not_supported XX1;"), events);
+  }
+  
+  
+  public void testElecraftAndYaesu()
+  {
+    ElecraftCodec elecraft = new ElecraftCodec(null, "K31;AI2;");
+    assertEquals("MD$3;", ascii(elecraft.encodeSetMode("cw", 1)[0].getTransaction()));
+    decode(elecraft, ascii("MD$2;"));
+    decode(elecraft, ascii("FT1;"));
+    
+    YaesuCodec yaesu = new YaesuCodec(null);
+    assertEquals("FA14025000;", ascii(yaesu.encodeSetFreq(14025000, 0)[0].getTransaction()));
+    decode(yaesu, ascii("MD03;"));
+    decode(yaesu, ascii("VS0;"));
+    
+    assertEquals(Arrays.asList("mode USB 1", "active_vfo 1", "mode CW -1", "active_vfo 0"), events);
+  }
+  
+  
+  /**
+   * decode(byte[]) must return the same JSON as the python parsers
+   */
+  public void testJson()
+  {
+    KenwoodCodec codec = new KenwoodCodec(null, "AI2;");
+    
+    JSONObject jso = new JSONObject(codec.decode("FA00014025000;".getBytes(StandardCharsets.US_ASCII)).getTransaction());
+    assertEquals("14025000", jso.getJSONObject("frequency").getString("frequency"));
+    assertEquals("0", jso.getJSONObject("frequency").getString("vfo"));
+    
+    assertEquals(0, codec.decode("FA0001".getBytes(StandardCharsets.US_ASCII)).getBytesRead());
+  }
+  
+  
+  /**
+   * Decodes one transaction and adds its content to events
+   */
+  private int decode(RadioCodec codec, ByteBuffer data)
+  {
+    RadioEventRecord record = new RadioEventRecord();
+    int bytesRead = codec.decode(data, record);
+    
+    if(record.has(RadioEventRecord.NOT_SUPPORTED))
+      events.add("not_supported " + record.getData());
+    if(record.has(RadioEventRecord.CONFIRMATION))
+      events.add("confirmation " + record.isPositiveConfirmation());
+    if(record.has(RadioEventRecord.FREQUENCY))
+      events.add("frequency " + record.getFrequency() + " " + record.getVfo());
+    if(record.has(RadioEventRecord.MODE))
+      events.add("mode " + RadioModes.values()[record.getMode()] + " " + record.getVfo());
+    if(record.has(RadioEventRecord.ACTIVE_VFO))
+      events.add("active_vfo " + record.getActiveVfo());
+    
+    return bytesRead;
+  }
+  
+  
+  private static byte[] bytes(int... values)
+  {
+    byte[] result = new byte[values.length];
+    for(int i = 0; i < values.length; i++)
+    {
+      result[i] = (byte) values[i];
+    }
+    return result;
+  }
+  
+  
+  private static ByteBuffer ascii(String text)
+  {
+    return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+  }
+  
+  
+  private static String ascii(byte[] data)
+  {
+    return new String(data, StandardCharsets.US_ASCII);
+  }
+}
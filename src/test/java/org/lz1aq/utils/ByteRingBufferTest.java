@@ -0,0 +1,97 @@
+// ***************************************************************************
+// *   Copyright (C) 2015 by Chavdar Levkov                              
+// *   ch.levkov@gmail.com                                                   
+// *                                                                         
+// *   This program is free software; you can redistribute it and/or modify  
+// *   it under the terms of the GNU General Public License as published by  
+// *   the Free Software Foundation; either version 2 of the License, or     
+// *   (at your option) any later version.                                   
+// *                                                                         
+// *   This program is distributed in the hope that it will be useful,       
+// *   but WITHOUT ANY WARRANTY; without even the implied warranty of        
+// *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         
+// *   GNU General Public License for more details.                          
+// *                                                                         
+// *   You should have received a copy of the GNU General Public License     
+// *   along with this program; if not, write to the                         
+// *   Free Software Foundation, Inc.,                                       
+// *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             
+// ***************************************************************************
+package org.lz1aq.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Tests for the ByteRingBuffer class
+ */
+public class ByteRingBufferTest extends TestCase
+{
+  public ByteRingBufferTest(String testName)
+  {
+    super(testName);
+  }
+  
+  
+  public void testWriteAndConsume()
+  {
+    ByteRingBuffer buffer = new ByteRingBuffer(8);
+    assertTrue(buffer.write(new byte[]{1, 2, 3, 4, 5}));
+    buffer.consume(2);
+    assertEquals(3, buffer.size());
+    assertEquals(3, buffer.get(0));
+    
+    // Wraps around the end
+    assertTrue(buffer.write(new byte[]{6, 7, 8, 9}));
+    assertEquals(7, buffer.size());
+    assertEquals(9, buffer.get(6));
+    assertTrue(Arrays.equals(new byte[]{3, 4, 5, 6, 7, 8, 9}, buffer.toByteArray()));
+    
+    // Not enough space - nothing is written
+    assertFalse(buffer.write(new byte[]{10, 11}));
+    assertEquals(7, buffer.size());
+    
+    buffer.consume(100);
+    assertEquals(0, buffer.size());
+    assertEquals(8, buffer.free());
+  }
+  
+  
+  public void testView()
+  {
+    ByteRingBuffer buffer = new ByteRingBuffer(8);
+    buffer.write(new byte[]{1, 2, 3, 4, 5, 6});
+    buffer.consume(4);
+    
+    ByteBuffer view = buffer.view();
+    assertEquals(2, view.remaining());
+    assertEquals(5, view.get(view.position()));
+    
+    // Unread bytes which wrap around are moved together
+    buffer.write(new byte[]{7, 8, 9, 10});
+    view = buffer.view();
+    byte[] unread = new byte[view.remaining()];
+    view.get(unread);
+    assertTrue(Arrays.equals(new byte[]{5, 6, 7, 8, 9, 10}, unread));
+    
+    assertTrue(buffer.view().isReadOnly());
+  }
+  
+  
+  public void testWriteDroppingOldest()
+  {
+    ByteRingBuffer buffer = new ByteRingBuffer(8);
+    buffer.write(new byte[]{1, 2, 3, 4, 5, 6});
+    buffer.consume(1);
+    
+    // The oldest unread bytes make room for the new ones
+    assertEquals(0, buffer.writeDroppingOldest(new byte[]{7, 8, 9}));
+    assertEquals(3, buffer.writeDroppingOldest(new byte[]{10, 11, 12}));
+    assertTrue(Arrays.equals(new byte[]{5, 6, 7, 8, 9, 10, 11, 12}, buffer.toByteArray()));
+    
+    // Only the tail of a chunk longer than the capacity is kept
+    assertEquals(8 + 2, buffer.writeDroppingOldest(new byte[]{20, 21, 22, 23, 24, 25, 26, 27, 28, 29}));
+    assertTrue(Arrays.equals(new byte[]{22, 23, 24, 25, 26, 27, 28, 29}, buffer.toByteArray()));
+  }
+}